@@ -0,0 +1,191 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * A two-dimensional histogram of the screen locations of the points, for drawing very large
+ * embeddings as density instead of as individual points.  Each point remembers its bin, so
+ * when the points move only those that changed bins are moved between counts; drawing costs
+ * the number of pixels, not the number of points.  Bins are coloured on a ColorGradient by
+ * the logarithm of their count, or by the mean tree score of their points.
+ */
+class DensityBins {
+	/** Width and height of a bin, in pixels */
+	public static final int BIN_SIZE = 3;
+	/** Number of colours precomputed from the gradient */
+	private static final int LEVELS = 256;
+
+	private int columns;
+	private int rows;
+	/** number of points in each bin */
+	private int[] counts;
+	/** sum of the tree scores of the points in each bin; null if not colouring by score */
+	private double[] scoreSums;
+	/** the bin of each point, or -1 if it is not binned (hidden, or off the screen) */
+	private int[] binOf;
+	/** number of points binned */
+	private int binned;
+	/** the items passed to the last update, whether or not they fell on the screen */
+	private int[] binnedItems;
+	private int numberOfBinnedItems;
+	/** updated[i] == round if point i was passed to the current update */
+	private int[] updated;
+	private int round;
+	/** the scores summed in scoreSums */
+	private double[] scores;
+	/** the gradient at LEVELS evenly spaced values */
+	private int[] levels;
+
+	public DensityBins(ColorGradient gradient) {
+		levels = new int[LEVELS];
+		for (int i = 0; i < LEVELS; i++) {
+			levels[i] = gradient.computeColor(i / (double) (LEVELS - 1)).getRGB() & 0xffffff;
+		}
+	}
+
+	/** Returns the number of points that fell on the screen when last updated */
+	public int getNumberBinned() { return binned; }
+
+	/**
+	 * Bins points[items[k]] for k less than count, on a screen width x height; every other
+	 * point is unbinned.  Only points that have changed bins since the last call are moved,
+	 * unless the screen size, number of points or scores have changed, so the cost is that
+	 * of the points binned now and last time.  scores may be null, in which case only counts
+	 * are kept.
+	 */
+	public void update(Point[] points, int[] items, int count, int width, int height, double[] scores) {
+		int newColumns = Math.max(1, (width + BIN_SIZE - 1) / BIN_SIZE);
+		int newRows = Math.max(1, (height + BIN_SIZE - 1) / BIN_SIZE);
+		if (newColumns != columns || newRows != rows || binOf == null || binOf.length != points.length || scores != this.scores) {
+			columns = newColumns;
+			rows = newRows;
+			counts = new int[columns * rows];
+			scoreSums = scores == null ? null : new double[columns * rows];
+			this.scores = scores;
+			binOf = new int[points.length];
+			Arrays.fill(binOf, -1);
+			updated = new int[points.length];
+			binnedItems = new int[0];
+			numberOfBinnedItems = 0;
+			binned = 0;
+		}
+		round++;
+		for (int k = 0; k < count; k++) {
+			int i = items[k];
+			int bin = -1;
+			int x = points[i].x;
+			int y = points[i].y;
+			if (x >= 0 && y >= 0 && x < columns * BIN_SIZE && y < rows * BIN_SIZE) {
+				bin = (y / BIN_SIZE) * columns + x / BIN_SIZE;
+			}
+			move(i, bin);
+			updated[i] = round;
+		}
+		// unbin the points binned last time that are not among these
+		for (int k = 0; k < numberOfBinnedItems; k++) {
+			int i = binnedItems[k];
+			if (updated[i] != round) {
+				move(i, -1);
+			}
+		}
+		if (binnedItems.length < count) {
+			binnedItems = new int[count];
+		}
+		System.arraycopy(items, 0, binnedItems, 0, count);
+		numberOfBinnedItems = count;
+	}
+
+	/** Moves point i from its bin to bin (-1 for none) */
+	private void move(int i, int bin) {
+		int old = binOf[i];
+		if (bin == old) {
+			return;
+		}
+		boolean scored = scoreSums != null && i < scores.length;
+		if (old >= 0) {
+			counts[old]--;
+			binned--;
+			if (scored) {
+				scoreSums[old] -= scores[i];
+			}
+		}
+		if (bin >= 0) {
+			counts[bin]++;
+			binned++;
+			if (scored) {
+				scoreSums[bin] += scores[i];
+			}
+		}
+		binOf[i] = bin;
+	}
+
+	/**
+	 * Fills the pixels of every occupied bin.  If byScore, bins are coloured by the mean score of
+	 * their points, scaled between minScore and maxScore; otherwise by log count.
+	 */
+	public void draw(int[] pixels, int width, int height, boolean byScore, double minScore, double maxScore) {
+		boolean scored = byScore && scoreSums != null && maxScore >= minScore;
+		int maxCount = 0;
+		for (int b = 0; b < counts.length; b++) {
+			maxCount = Math.max(maxCount, counts[b]);
+		}
+		if (maxCount == 0) {
+			return;
+		}
+		double logMax = Math.log(1 + maxCount);
+		double scoreRange = maxScore > minScore ? maxScore - minScore : 1;
+		for (int r = 0; r < rows; r++) {
+			int top = r * BIN_SIZE;
+			int bottom = Math.min(top + BIN_SIZE, height);
+			for (int c = 0; c < columns; c++) {
+				int count = counts[r * columns + c];
+				if (count <= 0) {
+					continue;
+				}
+				double value;
+				if (scored) {
+					value = (scoreSums[r * columns + c] / count - minScore) / scoreRange;
+				} else {
+					value = Math.log(1 + count) / logMax;
+				}
+				int level = (int) Math.round(value * (LEVELS - 1));
+				int rgb = levels[Math.max(0, Math.min(LEVELS - 1, level))];
+				int left = c * BIN_SIZE;
+				int right = Math.min(left + BIN_SIZE, width);
+				if (right <= left) {
+					continue;
+				}
+				for (int y = top; y < bottom; y++) {
+					Arrays.fill(pixels, y * width + left, y * width + right, rgb);
+				}
+			}
+		}
+	}
+}
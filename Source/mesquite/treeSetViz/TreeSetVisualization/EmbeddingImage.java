@@ -0,0 +1,506 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import java.awt.*;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A picture of the embedding at any size, drawn off the screen and written as a PNG, for
+ * images at print resolution, or written to a vector file or as the frames of the tree order
+ * animation.  It is a copy, so it may be drawn on any thread while the display changes.  It
+ * holds the locations of the points in the picture and the passes to draw them in (each a
+ * set of points, an icon and a colour), as the embedding display draws them; the icons are
+ * magnified by the picture's scale, so it looks like the display at a higher resolution.  The picture is drawn in horizontal strips, several at a
+ * time in parallel, each into its own PointRaster; each strip is compressed into the file as
+ * soon as it is drawn, so memory stays bounded however big the picture is.
+ */
+class EmbeddingImage {
+	/** Height of the strips the picture is drawn in, in pixels */
+	private static final int STRIP_HEIGHT = 128;
+
+	private int width;
+	private int height;
+	private Color background;
+	private int pointSize;
+	private boolean frameDot;
+	private Font font;
+	private float scale;
+	/** picture location of each item drawn, by item number */
+	private float[] x;
+	private float[] y;
+	/** depth of each item (smaller is nearer) for a 3D embedding; null in 2D */
+	private float[] z;
+	/** the items drawn, in order */
+	private int[] items;
+	private int count;
+	/** the passes the points are drawn in, first to last */
+	private BitSet[] passSets = new BitSet[0];
+	private int[] passIcons = new int[0];
+	private Color[] passColors = new Color[0];
+	/** colour of each item overriding its pass's colour (tree score colours); null if none */
+	private Color[] pointColors;
+	/** picture locations and names of the placed items; null if none */
+	private float[][] placed;
+	private String[] placedNames;
+	private Color placedColor;
+	/** number of the newest points highlighted in the animation frames, and the colour of points that have no colour of their own */
+	private int trailLength;
+	private Color trailPointColor = Color.black;
+
+	/** the items whose icons reach into strip s are stripItems[stripStart[s]] to stripItems[stripStart[s+1] - 1], in drawing order */
+	private int[] stripStart;
+	private int[] stripItems;
+
+	public EmbeddingImage(int width, int height, Color background, int pointSize, boolean frameDot, Font font, float scale) {
+		this.width = width;
+		this.height = height;
+		this.background = background;
+		this.pointSize = pointSize;
+		this.frameDot = frameDot;
+		this.font = font;
+		this.scale = scale;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	/** Sets the points: items[0] to items[count - 1] are drawn, item i at (x[i], y[i]) and depth z[i] (z null in 2D) */
+	public void setPoints(float[] x, float[] y, float[] z, int[] items, int count) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.items = items;
+		this.count = count;
+	}
+
+	/** Adds a pass drawing the points in set with icon iconNumber (as numbered by PointIcons) in colour c */
+	public void addPass(BitSet set, int iconNumber, Color c) {
+		int n = passSets.length;
+		BitSet[] sets = new BitSet[n + 1];
+		int[] icons = new int[n + 1];
+		Color[] colors = new Color[n + 1];
+		System.arraycopy(passSets, 0, sets, 0, n);
+		System.arraycopy(passIcons, 0, icons, 0, n);
+		System.arraycopy(passColors, 0, colors, 0, n);
+		sets[n] = set;
+		icons[n] = iconNumber;
+		colors[n] = c;
+		passSets = sets;
+		passIcons = icons;
+		passColors = colors;
+	}
+
+	/** Colours each item i by colors[i] (where not null) instead of its pass's colour */
+	public void setPointColors(Color[] colors) {
+		pointColors = colors;
+	}
+
+	/** Sets the placed items, drawn as an X and a name at their picture locations */
+	public void setPlaced(float[][] locations, String[] names, Color c) {
+		placed = locations;
+		placedNames = names;
+		placedColor = c;
+	}
+
+	/** Sets the trail of the animation frames: the newest length points, fading to their own colours (c for those without one) */
+	public void setTrail(int length, Color c) {
+		trailLength = length;
+		trailPointColor = c;
+	}
+
+	/** Returns the colour item i is drawn in by pass p */
+	private Color colorOf(int p, int i) {
+		if (pointColors != null && i < pointColors.length && pointColors[i] != null) {
+			return pointColors[i];
+		}
+		return passColors[p];
+	}
+
+	/**
+	 * Writes the picture to the exporter: the points pass by pass, or, in 3D, point by point
+	 * from the back to the front with all of each point's icons, then the placed items.
+	 */
+	public void writeVector(VectorExporter exporter) throws IOException {
+		exporter.begin(width, height, background, pointSize, frameDot);
+		if (z != null) {
+			// sort by depth, farthest (largest z) first: the key is the order-preserving bits of -z, then the item
+			long[] order = new long[count];
+			for (int k = 0; k < count; k++) {
+				int i = items[k];
+				int bits = Float.floatToIntBits(-z[i]);
+				bits ^= (bits >> 31) & 0x7fffffff;
+				order[k] = ((long) bits << 32) | i;
+			}
+			java.util.Arrays.sort(order);
+			for (int k = 0; k < order.length; k++) {
+				int i = (int) order[k];
+				for (int p = 0; p < passSets.length; p++) {
+					if (passSets[p].get(i)) {
+						exporter.point(passIcons[p], Math.round(x[i]), Math.round(y[i]), colorOf(p, i));
+					}
+				}
+			}
+		} else {
+			for (int p = 0; p < passSets.length; p++) {
+				for (int k = 0; k < count; k++) {
+					int i = items[k];
+					if (passSets[p].get(i)) {
+						exporter.point(passIcons[p], Math.round(x[i]), Math.round(y[i]), colorOf(p, i));
+					}
+				}
+			}
+		}
+		if (placed != null && placedNames != null) {
+			for (int i = 0; i < placed.length && i < placedNames.length; i++) {
+				if (placed[i] != null) {
+					int px = Math.round(placed[i][0]);
+					int py = Math.round(placed[i][1]);
+					exporter.point(1, px, py, placedColor);
+					exporter.label(placedNames[i], px + 6, py - 4, placedColor);
+				}
+			}
+		}
+		exporter.end();
+	}
+
+	/**
+	 * Writes the tree order animation to numbered PNG files, base followed by the frame number
+	 * and ".png" in directory: one frame for each 1 / framesPerSecond seconds, with
+	 * itemsPerSecond items (by item number) revealed per second.  Each point is drawn as it is
+	 * revealed with all its icons, and the newest are highlighted by the trail.  Returns the
+	 * number of frames written.
+	 */
+	public int writeFrames(java.io.File directory, String base, int itemsPerSecond, int framesPerSecond) throws IOException {
+		PointRaster accumulated = new PointRaster();
+		accumulated.ensureSize(width, height);
+		accumulated.clear(background);
+		if (z != null) {
+			accumulated.clearDepths();
+		}
+		PointRaster frame = new PointRaster();
+		frame.ensureSize(width, height);
+		accumulated.setIconStyle(pointSize, frameDot, font, scale);
+		frame.setIconStyle(pointSize, frameDot, font, scale);
+		int n = x.length;
+		int[] trail = new int[Math.max(trailLength, 1)]; // the newest revealed points, as a ring
+		int trailCount = 0;
+		int next = 0; // the next item number to reveal
+		int k = 0; // the next of items to draw
+		int frameNumber = 0;
+		while (next < n) {
+			next = (int) Math.min(n, Math.round((frameNumber + 1) * (double) itemsPerSecond / framesPerSecond));
+			for (; k < count && items[k] < next; k++) {
+				int i = items[k];
+				for (int p = 0; p < passSets.length; p++) {
+					if (passSets[p].get(i)) {
+						PointRaster.Sprite sprite = accumulated.getSprite(passIcons[p], colorOf(p, i));
+						if (z != null) {
+							accumulated.stamp(sprite, Math.round(x[i]), Math.round(y[i]), z[i]);
+						} else {
+							accumulated.stamp(sprite, Math.round(x[i]), Math.round(y[i]));
+						}
+					}
+				}
+				trail[trailCount++ % trail.length] = i;
+			}
+			System.arraycopy(accumulated.getPixels(), 0, frame.getPixels(), 0, frame.getPixels().length);
+			int inTrail = Math.min(trailLength, trailCount);
+			for (int age = inTrail - 1; age >= 0; age--) { // oldest first, so the newest is on top
+				int i = trail[(trailCount - 1 - age) % trail.length];
+				Color own = trailPointColor;
+				if (pointColors != null && i < pointColors.length && pointColors[i] != null) {
+					own = pointColors[i];
+				}
+				frame.stamp(frame.getSprite(PointIcons.DOT, EmbeddingDisplayPanel.trailShade(own, age, trailLength)), Math.round(x[i]), Math.round(y[i]));
+			}
+			drawPlaced(frame, 0);
+			String number = Integer.toString(frameNumber);
+			while (number.length() < 5) {
+				number = "0" + number;
+			}
+			OutputStream stream = new java.io.FileOutputStream(new java.io.File(directory, base + number + ".png"));
+			try {
+				PNGStream png = new PNGStream(stream, width, height);
+				try {
+					png.writeRows(frame.getPixels(), width, height);
+					png.finish();
+				} finally {
+					png.close();
+				}
+			} finally {
+				stream.close(); // (already closed, unless the PNG header couldn't be written)
+			}
+			frameNumber++;
+		}
+		return frameNumber;
+	}
+
+	/** Draws the picture and writes it to the stream as a PNG, closing the stream */
+	public void writePNG(OutputStream stream) throws IOException {
+		PNGStream png = new PNGStream(stream, width, height);
+		try {
+			int numberOfStrips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+			int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), numberOfStrips));
+			PointRaster[] rasters = new PointRaster[threads];
+			for (int t = 0; t < threads; t++) {
+				rasters[t] = new PointRaster();
+				rasters[t].ensureSize(width, STRIP_HEIGHT);
+				rasters[t].setIconStyle(pointSize, frameDot, font, scale);
+			}
+			sortIntoStrips(numberOfStrips, rasters[0].getIconReach());
+			for (int first = 0; first < numberOfStrips; first += threads) {
+				int inBatch = Math.min(threads, numberOfStrips - first);
+				StripRenderer[] renderers = new StripRenderer[inBatch];
+				for (int t = 0; t < inBatch; t++) {
+					renderers[t] = new StripRenderer(this, rasters[t], first + t);
+					renderers[t].start();
+				}
+				for (int t = 0; t < inBatch; t++) {
+					try {
+						renderers[t].join();
+					} catch (InterruptedException e) {
+						throw new IOException("interrupted while drawing the image");
+					}
+				}
+				for (int t = 0; t < inBatch; t++) {
+					int top = (first + t) * STRIP_HEIGHT;
+					png.writeRows(rasters[t].getPixels(), width, Math.min(STRIP_HEIGHT, height - top));
+				}
+			}
+			png.finish();
+		} finally {
+			png.close();
+		}
+	}
+
+	/** Lists, for each strip, the items whose icons (reaching reach pixels from their points) fall in it */
+	private void sortIntoStrips(int numberOfStrips, int reach) {
+		stripStart = new int[numberOfStrips + 1];
+		for (int pass = 0; pass < 2; pass++) { // count, then fill
+			int[] next = null;
+			if (pass == 1) {
+				for (int s = 0; s < numberOfStrips; s++) {
+					stripStart[s + 1] += stripStart[s];
+				}
+				stripItems = new int[stripStart[numberOfStrips]];
+				next = new int[numberOfStrips];
+				System.arraycopy(stripStart, 0, next, 0, numberOfStrips);
+			}
+			for (int k = 0; k < count; k++) {
+				int i = items[k];
+				int py = Math.round(y[i]);
+				int firstStrip = Math.max(0, (py - reach) / STRIP_HEIGHT - (py - reach < 0 ? 1 : 0));
+				int lastStrip = Math.min(numberOfStrips - 1, (py + reach) / STRIP_HEIGHT);
+				for (int s = firstStrip; s <= lastStrip; s++) {
+					if (pass == 0) {
+						stripStart[s + 1]++;
+					} else {
+						stripItems[next[s]++] = i;
+					}
+				}
+			}
+		}
+	}
+
+	/** Draws strip s, whose top is at picture row s * STRIP_HEIGHT, into the raster */
+	void drawStrip(PointRaster r, int s) {
+		int top = s * STRIP_HEIGHT;
+		r.clear(background);
+		if (z != null) {
+			r.clearDepths();
+		}
+		for (int p = 0; p < passSets.length; p++) {
+			BitSet set = passSets[p];
+			Color current = passColors[p];
+			PointRaster.Sprite sprite = r.getSprite(passIcons[p], current);
+			for (int k = stripStart[s]; k < stripStart[s + 1]; k++) {
+				int i = stripItems[k];
+				if (!set.get(i)) {
+					continue;
+				}
+				Color c = passColors[p];
+				if (pointColors != null && i < pointColors.length && pointColors[i] != null) {
+					c = pointColors[i];
+				}
+				if (!c.equals(current)) {
+					current = c;
+					sprite = r.getSprite(passIcons[p], current);
+				}
+				int px = Math.round(x[i]);
+				int py = Math.round(y[i]) - top;
+				if (z != null) {
+					r.stamp(sprite, px, py, z[i]);
+				} else {
+					r.stamp(sprite, px, py);
+				}
+			}
+		}
+		drawPlaced(r, top);
+	}
+
+	/** Draws the placed items into the raster, whose top is at picture row top */
+	private void drawPlaced(PointRaster r, int top) {
+		if (placed != null && placedNames != null) {
+			Graphics2D g2 = r.createGraphics();
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setFont(font);
+			g2.setColor(placedColor);
+			g2.translate(0, -top);
+			for (int i = 0; i < placed.length && i < placedNames.length; i++) {
+				if (placed[i] != null) {
+					Graphics2D g = (Graphics2D) g2.create();
+					g.translate(placed[i][0], placed[i][1]);
+					g.scale(scale, scale);
+					PointIcons.drawX(g, new Point(0, 0));
+					g.drawString(placedNames[i], 6, -4);
+					g.dispose();
+				}
+			}
+			g2.dispose();
+		}
+	}
+}
+
+/** Draws one strip of an EmbeddingImage */
+class StripRenderer extends Thread {
+	private EmbeddingImage image;
+	private PointRaster raster;
+	private int strip;
+
+	public StripRenderer(EmbeddingImage image, PointRaster raster, int strip) {
+		super("Embedding image strip " + strip);
+		this.image = image;
+		this.raster = raster;
+		this.strip = strip;
+	}
+
+	public void run() {
+		image.drawStrip(raster, strip);
+	}
+}
+
+/**
+ * Writes an RGB PNG a few rows at a time.  The rows are compressed as they come and the
+ * compressed data is written in IDAT chunks of a fixed size, so nothing holds the whole image.
+ */
+class PNGStream {
+	private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+	/** Size of the IDAT chunks written */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private DataOutputStream out;
+	private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	/** one row: a filter byte and three bytes per pixel */
+	private byte[] row;
+	/** compressed data not yet written */
+	private byte[] chunk = new byte[CHUNK_SIZE];
+	private int chunkUsed;
+	private CRC32 crc = new CRC32();
+
+	public PNGStream(OutputStream stream, int width, int height) throws IOException {
+		out = new DataOutputStream(new java.io.BufferedOutputStream(stream, CHUNK_SIZE));
+		out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // bits per sample
+		header[9] = 2; // RGB
+		writeChunk("IHDR", header, header.length);
+		row = new byte[1 + 3 * width];
+	}
+
+	private static void putInt(byte[] b, int at, int value) {
+		b[at] = (byte) (value >>> 24);
+		b[at + 1] = (byte) (value >>> 16);
+		b[at + 2] = (byte) (value >>> 8);
+		b[at + 3] = (byte) value;
+	}
+
+	/** Writes rows rows of pixels (0xrrggbb), width to a row */
+	public void writeRows(int[] pixels, int width, int rows) throws IOException {
+		for (int r = 0; r < rows; r++) {
+			row[0] = 1; // the Sub filter: each byte less the one a pixel to the left, which makes flat runs compress well
+			int offset = r * width;
+			int previous = 0;
+			for (int c = 0, b = 1; c < width; c++, b += 3) {
+				int p = pixels[offset + c];
+				row[b] = (byte) ((p >> 16) - (previous >> 16));
+				row[b + 1] = (byte) ((p >> 8) - (previous >> 8));
+				row[b + 2] = (byte) (p - previous);
+				previous = p;
+			}
+			deflater.setInput(row);
+			while (!deflater.needsInput()) {
+				drain();
+			}
+		}
+	}
+
+	/** Moves compressed data from the deflater to the chunk, writing the chunk when it is full */
+	private void drain() throws IOException {
+		chunkUsed += deflater.deflate(chunk, chunkUsed, CHUNK_SIZE - chunkUsed);
+		if (chunkUsed == CHUNK_SIZE) {
+			writeChunk("IDAT", chunk, chunkUsed);
+			chunkUsed = 0;
+		}
+	}
+
+	/** Writes the rest of the compressed data and the end of the image */
+	public void finish() throws IOException {
+		deflater.finish();
+		while (!deflater.finished()) {
+			drain();
+		}
+		if (chunkUsed > 0) {
+			writeChunk("IDAT", chunk, chunkUsed);
+			chunkUsed = 0;
+		}
+		writeChunk("IEND", new byte[0], 0);
+	}
+
+	private void writeChunk(String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes("US-ASCII");
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		crc.reset();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt((int) crc.getValue());
+	}
+
+	public void close() throws IOException {
+		deflater.end();
+		out.close();
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/* This file holds Landmark MDS, for tree sets too large for the full difference
+ * matrix: the matrix that stores only the landmarks' rows, and the MDS that places
+ * every point relative to the landmarks.
+ */
+
+/**
+ * Implements Landmark MDS (de Silva and Tenenbaum, 2003).  The landmarks are embedded
+ * by classical MDS on their own small matrix of differences, and every other point is
+ * then placed by distance-based triangulation from its differences to the landmarks.
+ * After that first placement, iterations refine the embedding by the same stress
+ * gradient as MDS, restricted to the pairs the matrix knows (those involving a landmark),
+ * so that an iteration costs O(nL) rather than O(n^2).
+ */
+class LandmarkMDS extends MDS {
+
+	/** The landmark rows of the difference matrix; the same object as targetDistances */
+	private LandmarkDiffMatrix landmarkDistances;
+	/** The generation of landmarks from which the points were last placed; -1 if never */
+	private int placedGeneration;
+	/** number of power iterations allowed when extracting each eigenvector */
+	private static final int MAX_POWER_ITERATIONS = 500;
+	/** power iteration stops when the eigenvector changes less than this */
+	private static final double POWER_TOLERANCE = 1e-9;
+
+	public LandmarkMDS(LandmarkDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+		landmarkDistances = targetDistances;
+		placedGeneration = -1;
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		placedGeneration = -1;
+	}
+
+	/**
+	 * If a new set of landmarks has been computed since the last placement, places all points
+	 * from them, unless this is a warm start from a layout that had already been placed.
+	 */
+	public synchronized void restart() {
+		if (warmStarted && placedGeneration >= 0) {
+			placedGeneration = landmarkDistances.getGeneration(); // keep the current layout
+		}
+		warmStarted = false;
+		if (landmarkDistances.getGeneration() != placedGeneration && landmarkDistances.getNumberOfLandmarks() > 0) {
+			placeByTriangulation();
+			placedGeneration = landmarkDistances.getGeneration();
+		}
+	}
+
+	/**
+	 * Places the landmarks by classical MDS, then every point (landmarks included, which
+	 * reproduces their classical positions) by triangulation from the landmarks.
+	 */
+	private void placeByTriangulation() {
+		int L = landmarkDistances.getNumberOfLandmarks();
+		// squared differences among the landmarks
+		double[][] delta = new double[L][L];
+		for (int a = 0; a < L; ++a) {
+			float[] row = landmarkDistances.getLandmarkRow(a);
+			for (int b = 0; b < L; ++b) {
+				float diff = row[landmarkDistances.getLandmark(b)];
+				delta[a][b] = (diff < 0) ? 0 : (double) diff * diff;
+			}
+		}
+		// mean squared difference from each landmark to the others (the columns of delta)
+		double[] deltaMean = new double[L];
+		double grandMean = 0;
+		for (int a = 0; a < L; ++a) {
+			for (int b = 0; b < L; ++b) {
+				deltaMean[b] += delta[a][b] / L;
+			}
+		}
+		for (int b = 0; b < L; ++b) {
+			grandMean += deltaMean[b] / L;
+		}
+		// double centering: B = -1/2 J delta J
+		double[][] B = new double[L][L];
+		for (int a = 0; a < L; ++a) {
+			for (int b = 0; b < L; ++b) {
+				B[a][b] = -0.5 * (delta[a][b] - deltaMean[a] - deltaMean[b] + grandMean);
+			}
+		}
+
+		// Eigenvectors of the n_dims largest positive eigenvalues of B, scaled by 1/sqrt(eigenvalue) to
+		// form the triangulation matrix.  Power iteration finds the eigenvalues in order of magnitude, and
+		// when the differences aren't Euclidean some of the large ones are negative; these are deflated
+		// and passed over.  Dimensions for which no positive eigenvalue is left stay at zero.
+		double[][] pseudoInverse = new double[n_dims][];
+		java.util.Random randomSource = new java.util.Random();
+		int kept = 0;
+		for (int found = 0; found < L && kept < n_dims; ++found) {
+			double[] v = new double[L];
+			for (int a = 0; a < L; ++a) {
+				v[a] = randomSource.nextDouble() - 0.5;
+			}
+			double eigenvalue = powerIteration(B, v);
+			if (eigenvalue == 0) {
+				break; // what is left of B is zero
+			}
+			if (eigenvalue > 0) {
+				pseudoInverse[kept] = new double[L];
+				for (int a = 0; a < L; ++a) {
+					pseudoInverse[kept][a] = v[a] / Math.sqrt(eigenvalue);
+				}
+				++kept;
+			}
+			// deflate so that the next power iteration finds the next eigenvector
+			for (int a = 0; a < L; ++a) {
+				for (int b = 0; b < L; ++b) {
+					B[a][b] -= eigenvalue * v[a] * v[b];
+				}
+			}
+		}
+
+		// Triangulation: x_i = -1/2 pseudoInverse (delta_i - deltaMean)
+		for (int i = 0; i < n_nodes; ++i) {
+			for (int k = 0; k < n_dims; ++k) {
+				double coordinate = 0;
+				if (pseudoInverse[k] != null) {
+					for (int a = 0; a < L; ++a) {
+						float diff = landmarkDistances.getLandmarkRow(a)[i];
+						if (diff >= 0) {
+							coordinate += pseudoInverse[k][a] * ((double) diff * diff - deltaMean[a]);
+						}
+					}
+				}
+				nodes[i].setComponent(k, (float) (-0.5 * coordinate));
+			}
+		}
+	}
+
+	/**
+	 * Finds the dominant eigenvector of the symmetric matrix B by power iteration.  The eigenvalue
+	 * may be negative, in which case the vector flips sign each step; convergence is judged up to sign.
+	 *
+	 * @param B  the matrix
+	 * @param v  starting vector; replaced by the unit eigenvector
+	 * @return   the corresponding eigenvalue
+	 */
+	private static double powerIteration(double[][] B, double[] v) {
+		int L = v.length;
+		double[] w = new double[L];
+		double eigenvalue = 0;
+		normalize(v);
+		for (int iteration = 0; iteration < MAX_POWER_ITERATIONS; ++iteration) {
+			for (int a = 0; a < L; ++a) {
+				w[a] = 0;
+				for (int b = 0; b < L; ++b) {
+					w[a] += B[a][b] * v[b];
+				}
+			}
+			eigenvalue = 0;
+			for (int a = 0; a < L; ++a) {
+				eigenvalue += v[a] * w[a]; // Rayleigh quotient, since v is a unit vector
+			}
+			if (normalize(w) == 0) {
+				return 0;
+			}
+			double change = 0;
+			double flippedChange = 0;
+			for (int a = 0; a < L; ++a) {
+				change += (w[a] - v[a]) * (w[a] - v[a]);
+				flippedChange += (w[a] + v[a]) * (w[a] + v[a]);
+				v[a] = w[a];
+			}
+			if (Math.min(change, flippedChange) < POWER_TOLERANCE) {
+				break;
+			}
+		}
+		return eigenvalue;
+	}
+
+	/** Scales v to unit length, returning its original length */
+	private static double normalize(double[] v) {
+		double length = 0;
+		for (int a = 0; a < v.length; ++a) {
+			length += v[a] * v[a];
+		}
+		length = Math.sqrt(length);
+		if (length > 0) {
+			for (int a = 0; a < v.length; ++a) {
+				v[a] /= length;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Performs one iteration of MDS over the pairs involving a landmark.  Each point's
+	 * nudge is divided by the number of pairs it takes part in (all the others for a
+	 * landmark, just the landmarks for anything else), so that the step size means the
+	 * same thing it does in MDS.
+	 */
+	public synchronized void doOneIteration() {
+		if (placedGeneration != landmarkDistances.getGeneration()) {
+			return; // the landmarks are still being computed
+		}
+		boolean sampling = targetDistances.getSampling();
+		int L = landmarkDistances.getNumberOfLandmarks();
+		float resid;
+		float d_length;
+		float stress_diff_accum = 0;
+		float stress_norm_accum = 0;
+
+		for (int i = 0; i < n_nodes; ++i) {
+			changes[i].zero();
+		}
+
+		for (int a = 0; a < L; ++a) {
+			int l = landmarkDistances.getLandmark(a);
+			float[] row = landmarkDistances.getLandmarkRow(a);
+			for (int i = 0; i < n_nodes; ++i) {
+				// a pair of landmarks appears in both their rows; take it only from the later one
+				if (i == l || row[i] < 0 || landmarkDistances.getLandmarkNumber(i) > a) {
+					continue;
+				}
+				if (sampling && !targetDistances.diffInSample(i,l) && !targetDistances.diffInSample(l,i)) {
+					continue;
+				}
+				d.setToDifference(nodes[l],nodes[i]);
+				d_length = d.magnitude();
+				if (d_length == 0) {
+					d.add(nudgeVector);
+					d_length = nudgeVectorLength;
+				}
+				resid = d_length - row[i];
+				d.scale(resid/d_length);
+				if (!sampling || targetDistances.diffInSample(i,l)) {
+					changes[i].add(d);
+				}
+				if (!sampling || targetDistances.diffInSample(l,i)) {
+					changes[l].subtract(d);
+				}
+				stress_diff_accum += resid * resid;
+				stress_norm_accum += d_length * d_length;
+			}
+		}
+
+		// Apply the changes.  stepSize * n_nodes is the per-pair factor MDS effectively uses.
+		for (int i = 0; i < n_nodes; ++i) {
+			int pairs = landmarkDistances.isLandmark(i) ? n_nodes - 1 : L;
+			if (pairs > 0) {
+				changes[i].scale(stepSize * n_nodes / pairs);
+				nodes[i].add(changes[i]);
+			}
+		}
+
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum/stress_norm_accum);
+		}
+	}
+
+	/** Computes the stress over the pairs the landmark matrix knows */
+	public synchronized void compute_stress() {
+		float stress_diff_accum = 0;
+		float stress_norm_accum = 0;
+		for (int a = 0; a < landmarkDistances.getNumberOfLandmarks(); ++a) {
+			int l = landmarkDistances.getLandmark(a);
+			float[] row = landmarkDistances.getLandmarkRow(a);
+			for (int i = 0; i < n_nodes; ++i) {
+				if (i == l || row[i] < 0 || landmarkDistances.getLandmarkNumber(i) > a) {
+					continue;
+				}
+				d.setToDifference(nodes[l],nodes[i]);
+				float d_length = d.magnitude();
+				float resid = d_length - row[i];
+				stress_diff_accum += resid * resid;
+				stress_norm_accum += d_length * d_length;
+			}
+		}
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum/stress_norm_accum);
+		}
+	}
+}
+
+
+/**
+ * A difference matrix that holds only the rows of a set of landmark items: the
+ * differences between each landmark and every item.  Memory is O(nL) instead of
+ * O(n^2).  Differences between two items that are not landmarks are unknown, and
+ * getElement returns -1 for them, the same flag DiffMatrix uses for differences not
+ * yet computed.
+ */
+class LandmarkDiffMatrix extends SampledDiffMatrix {
+
+	/** Number of items among which differences are measured */
+	private int n_items;
+	/** How many landmarks the calculation should choose */
+	private int requestedLandmarks;
+	/** Item index of each landmark, in the order they were chosen */
+	private int[] landmarks;
+	/** For each item, its position in landmarks, or -1 if it is not a landmark */
+	private int[] landmarkNumber;
+	/** Differences from each landmark to every item; landmarkRows[a][i] = d(landmarks[a], i) */
+	private float[][] landmarkRows;
+	/** Number of landmarks chosen so far */
+	private int numberOfLandmarks;
+
+	public LandmarkDiffMatrix(int n_items, int requestedLandmarks) {
+		super();
+		this.requestedLandmarks = requestedLandmarks;
+		resetNumberOfItems(n_items);
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		if (newNumberOfItems <= 0) { // There must be at least one item.
+			newNumberOfItems = 1;
+		}
+		n_items = newNumberOfItems;
+		landmarkNumber = new int[n_items];
+		clearLandmarks();
+		resetSampling();
+	}
+
+	/** Forgets all landmarks and their rows, in preparation for choosing a new set. */
+	public void clearLandmarks() {
+		int capacity = Math.min(requestedLandmarks, n_items);
+		landmarks = new int[capacity];
+		landmarkRows = new float[capacity][];
+		for (int i = 0; i < n_items; ++i) {
+			landmarkNumber[i] = -1;
+		}
+		numberOfLandmarks = 0;
+	}
+
+	/**
+	 * Makes item a landmark, with a row of differences all flagged as not computed (except
+	 * its difference from itself).  Returns the landmark's number, for use with getLandmarkRow.
+	 * Returns -1 if the item already is a landmark or all requested landmarks have been chosen.
+	 */
+	public int addLandmark(int item) {
+		if (landmarkNumber[item] >= 0 || numberOfLandmarks >= landmarks.length) {
+			return -1;
+		}
+		float[] row = new float[n_items];
+		for (int i = 0; i < n_items; ++i) {
+			row[i] = -1; //uninitialized flag value
+		}
+		row[item] = 0;
+		landmarks[numberOfLandmarks] = item;
+		landmarkRows[numberOfLandmarks] = row;
+		landmarkNumber[item] = numberOfLandmarks;
+		return numberOfLandmarks++;
+	}
+
+	/** Called when all the landmark rows have been computed, to signal that the embedding should be redone from them. */
+	public void landmarksComplete() {
+		contentsChanged();
+	}
+
+	/** Sets how many landmarks should be chosen the next time the landmarks are computed. */
+	public void setRequestedLandmarks(int requestedLandmarks) {
+		this.requestedLandmarks = requestedLandmarks;
+	}
+
+	/** Returns how many landmarks should be chosen (never more than the number of items). */
+	public int getRequestedLandmarks() {
+		return Math.min(requestedLandmarks, n_items);
+	}
+
+	/** Returns the number of landmarks chosen so far */
+	public int getNumberOfLandmarks() {
+		return numberOfLandmarks;
+	}
+
+	/** Returns the item index of landmark a */
+	public final int getLandmark(int a) {
+		return landmarks[a];
+	}
+
+	/** Returns the landmark number of item i, or -1 if i is not a landmark */
+	public final int getLandmarkNumber(int i) {
+		return landmarkNumber[i];
+	}
+
+	public final boolean isLandmark(int i) {
+		return landmarkNumber[i] >= 0;
+	}
+
+	/** Returns the differences from landmark a to every item.  This is the matrix's own storage. */
+	public final float[] getLandmarkRow(int a) {
+		return landmarkRows[a];
+	}
+
+	/** Sets one difference.  Only differences involving a landmark are stored; others are ignored. */
+	public void setElement(int i, int j, float x) {
+		if (i == j) {
+			return;
+		}
+		if (landmarkNumber[i] >= 0) {
+			landmarkRows[landmarkNumber[i]][j] = x;
+		}
+		if (landmarkNumber[j] >= 0) {
+			landmarkRows[landmarkNumber[j]][i] = x;
+		}
+	}
+
+	/** Returns one difference, or -1 if neither item is a landmark (or it hasn't been computed). */
+	public float getElement(int i, int j) {
+		if (landmarkNumber[i] >= 0) {
+			return landmarkRows[landmarkNumber[i]][j];
+		} else if (landmarkNumber[j] >= 0) {
+			return landmarkRows[landmarkNumber[j]][i];
+		} else if (i == j) {
+			return 0;
+		} else {
+			return -1;
+		}
+	}
+
+	public int getNumberOfItems() {
+		return n_items;
+	}
+}
@@ -42,21 +42,21 @@ package mesquite.treeSetViz.TreeSetVisualization;
 class MDS {
 
 	/** The goal distances for the dimensional scaling. ("big D") */
-	private SampledDiffMatrix targetDistances;
+	protected SampledDiffMatrix targetDistances;
 	/** Number of nodes (points) for the dimensional scaling. */
-	private int n_nodes;
+	protected int n_nodes;
 	/** Dimensionality of the Euclidian space into which the nodes will be embedded. */
-	private int n_dims;
+	protected int n_dims;
 	/** Current locations of the embedded points. */
-	private MDSPoint[] nodes;
+	protected MDSPoint[] nodes;
 	/** The "nudge" for each point that will improve the embedding. */
-	private MDSPoint[] changes;
+	protected MDSPoint[] changes;
 	/** A scratch variable used in doOneIteration */
-	private MDSPoint d;
+	protected MDSPoint d;
 	/** Global state needed by the xgvis version of mds */
-	private float stress, stress_dd, stress_dx, stress_xx;
+	protected float stress, stress_dd, stress_dx, stress_xx;
 	/** How agressively we persue an embedding. The value of this is very important and can be adjusted by the user. */
-	private float stepSize;
+	protected float stepSize;
 
 	// Embedding re-centering constants
 	/** how far the average point location must drift from the origin before re-centering is triggered */
@@ -64,8 +64,18 @@ class MDS {
 	/** how many mds iterations occure between each re-centering check */
 	protected static final int CENTERING_CHECK_PERIOD = 15; // translational drifting shouldn't really be a problem
 	
-	private MDSPoint nudgeVector;
-	private float nudgeVectorLength;
+	protected MDSPoint nudgeVector;
+	protected float nudgeVectorLength;
+	/** set by warmStart, so that the next restart() continues from the current layout; cleared by restart() */
+	protected boolean warmStarted = false;
+	/** largest number of pairs examined by warmStart to fit the scale of the embedding */
+	private static final int WARM_START_PAIRS = 100000;
+	/** most steps taken by placeOutOfSample */
+	private static final int OUT_OF_SAMPLE_ITERATIONS = 200;
+	/** placeOutOfSample stops when a step moves the point less than this fraction of its nearest difference */
+	private static final float OUT_OF_SAMPLE_TOLERANCE = 1e-5f;
+	/** Source of directions for points placed by placeNear */
+	private java.util.Random placementRandom = new java.util.Random();
 	private static final float NUDGE_VECTOR_SIZE = 0.0001f;
 		
 
@@ -96,7 +106,13 @@ class MDS {
 		nudgeVectorLength = nudgeVector.magnitude();
 	}
 	
+	/**
+	 * Changes the number of points.  Points that exist both before and after keep their
+	 * locations, so that the embedding can continue from them; new points are given random
+	 * locations within the extent of the old ones.
+	 */
 	public void resetNumberOfItems(int newNumberOfItems) {
+		MDSPoint[] oldNodes = nodes;
 		n_nodes = newNumberOfItems;
 		changes = new MDSPoint[n_nodes];
 		nodes = new MDSPoint[n_nodes];
@@ -105,9 +121,67 @@ class MDS {
 			nodes[i] = new MDSPoint(n_dims);
 		}
 		randomize_nodes();
+		if (oldNodes != null && oldNodes.length > 0) {
+			int kept = Math.min(oldNodes.length, n_nodes);
+			for (int c = 0; c < n_dims; c++) {
+				float min = oldNodes[0].getComponent(c);
+				float max = min;
+				for (int i = 1; i < oldNodes.length; i++) {
+					min = Math.min(min, oldNodes[i].getComponent(c));
+					max = Math.max(max, oldNodes[i].getComponent(c));
+				}
+				for (int i = kept; i < n_nodes; i++) { // spread the random [0,1) start over the old extent
+					nodes[i].setComponent(c, min + nodes[i].getComponent(c) * (max - min));
+				}
+			}
+			for (int i = 0; i < kept; i++) {
+				nodes[i].setTo(oldNodes[i]);
+			}
+		}
 	}
 
 
+	/**
+	 * Copies the point locations of another embedding (of the same number of points and
+	 * dimensions) into this one.  Used to carry the current picture over when the user
+	 * switches from one kind of MDS to another.
+	 *
+	 * @param other  the embedding to copy
+	 */
+	public synchronized void copyEmbedding(MDS other) {
+		synchronized (other) {
+			if (other.n_nodes != n_nodes || other.n_dims != n_dims) {
+				return; // incompatible; keep our own random start
+			}
+			for (int i = 0; i < n_nodes; i++) {
+				nodes[i].setTo(other.nodes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Called by the MDS thread when the inputs to the embedding (the difference matrix,
+	 * the sample, or the step size) have changed.  Variants of MDS that keep a schedule or
+	 * cached state override this to start over.  The basic method keeps no such state.
+	 */
+	public void restart() {}
+
+	/**
+	 * Returns true if the ConvergenceMonitor should tune the step size of this kind of MDS.
+	 * Variants that follow their own schedule return false.
+	 */
+	public boolean getAdaptiveStepSize() {
+		return true;
+	}
+
+	/**
+	 * Lets a variant of MDS declare convergence on its own terms, for example at the end of
+	 * an annealing schedule.  The basic method leaves the decision to the ConvergenceMonitor.
+	 */
+	public boolean hasConverged() {
+		return false;
+	}
+
 	/**
 	 * Sets the step size. The caller is trusted to make sure this is a sane value.
 	 *
@@ -137,6 +211,11 @@ class MDS {
 	}
 
 
+	/** Returns the difference matrix whose differences the embedding approximates */
+	public SampledDiffMatrix getTargetDistances() {
+		return targetDistances;
+	}
+
 	/**
 	 * Gets the current step size.  Called in response to user action to mannually adjust
 	 * the step size, because the step size is not kept as state anywhere else.
@@ -181,8 +260,10 @@ class MDS {
 		//System.out.println("MDS did an iteration. sampling = " + sampling);
 		float resid;
 		float d_length;
+		float target;
 		float stress_diff_accum = 0;
 		float stress_norm_accum = 0;
+		boolean anyComputed = false; // with differences computed on demand, there may be none yet
 
 		// First, zero out the change vectors
 		for (int i = 0; i < n_nodes; ++i) {
@@ -194,6 +275,11 @@ class MDS {
 			for (int j = 0; j < i; ++j) {
 				if (!sampling || targetDistances.diffInSample(i,j)    // short circuiting of the || operator
 							  || targetDistances.diffInSample(j,i)) { // avoids unneccesary calls to diffInSample
+					target = targetDistances.getElement(i, j);
+					if (target < 0) {
+						continue; // not yet computed
+					}
+					anyComputed = true;
 					d.setToDifference(nodes[j],nodes[i]);
 					d_length = d.magnitude();
 					// If two points are on top of each other, we need to pick an arbitrary direction to nudge them apart.
@@ -201,7 +287,7 @@ class MDS {
 						d.add(nudgeVector);
 						d_length = nudgeVectorLength;
 					}
-					resid = d_length - targetDistances.getElement(i, j);
+					resid = d_length - target;
 					d.scale(resid/d_length);
 					if (!sampling || targetDistances.diffInSample(i,j)) {
 						changes[i].add(d); // accumulate the changes for point i
@@ -225,7 +311,7 @@ class MDS {
 		/* Compute stress (this is a normalized stress, called Kruskal-1) */
 		if (stress_norm_accum > 0) {
 			stress = (float) Math.sqrt(stress_diff_accum/stress_norm_accum);
-		} else {
+		} else if (anyComputed) {
 			System.out.println("Stress calculation problem");
 		}
 		//System.out.println("normalized stress = " + stress);
@@ -236,14 +322,21 @@ class MDS {
 	public synchronized void compute_stress() {
 		float resid;
 		float d_length;
+		float target;
 		float stress_diff_accum = 0;
 		float stress_norm_accum = 0;
+		boolean anyComputed = false;
 
 		for (int i = 0; i < n_nodes; ++i) {
 			for (int j = 0; j < i; ++j) {
+				target = targetDistances.getElement(i, j);
+				if (target < 0) {
+					continue; // not yet computed
+				}
+				anyComputed = true;
 				d.setToDifference(nodes[j],nodes[i]);
 				d_length = d.magnitude();
-				resid = d_length - targetDistances.getElement(i, j);
+				resid = d_length - target;
 
 				// accumulate sums for stress calculations
 				stress_diff_accum += resid * resid;
@@ -254,15 +347,159 @@ class MDS {
 		// Compute stress (this is a normalized stress, called Kruskal-1)
 		if (stress_norm_accum > 0) {
 			stress = (float) Math.sqrt(stress_diff_accum/stress_norm_accum);
-		} else {
+		} else if (anyComputed) {
 			System.out.println("Stress calculation problem");
 		}
 	}
 
 
+	/**
+	 * Places point i at the given distance from point j, in a random direction, as when i
+	 * joins an embedding that j is already part of.  If j is negative, i is put at the origin.
+	 */
+	public synchronized void placeNear(int i, int j, float distance) {
+		if (j < 0) {
+			nodes[i].zero();
+			return;
+		}
+		for (int c = 0; c < n_dims; c++) {
+			nodes[i].setComponent(c, (float) placementRandom.nextGaussian());
+		}
+		if (nodes[i].magnitude() > 0) {
+			nodes[i].normalize();
+		}
+		nodes[i].scale(distance);
+		nodes[i].add(nodes[j]);
+	}
+
+	/**
+	 * Prepares to continue from the current layout after the target differences have been
+	 * replaced (as when the difference measure or the tree source changes).  The layout is
+	 * scaled about its centroid by the factor that best fits its distances to the new
+	 * differences, in the least-squares sense, and the next restart() is told to treat it
+	 * as a good starting point.  When there are many pairs, a random subset of them is used
+	 * to fit the scale.
+	 *
+	 * @return the scale factor applied, or 1 if there were no differences to fit
+	 */
+	public synchronized float warmStart() {
+		warmStarted = true;
+		long numberOfPairs = ((long) n_nodes * (n_nodes - 1)) / 2;
+		java.util.Random randomSource = new java.util.Random();
+		double crossSum = 0;
+		double squareSum = 0;
+		for (long k = 0; k < Math.min(numberOfPairs, WARM_START_PAIRS); ++k) {
+			int i, j;
+			if (numberOfPairs <= WARM_START_PAIRS) { // every pair, in order
+				i = (int) ((1 + Math.sqrt(1 + 8.0 * k)) / 2);
+				j = (int) (k - ((long) i * (i - 1)) / 2);
+				if (j >= i) { // guard against rounding in the square root
+					++i;
+					j = (int) (k - ((long) i * (i - 1)) / 2);
+				}
+			} else {
+				i = randomSource.nextInt(n_nodes);
+				j = randomSource.nextInt(n_nodes);
+				if (i == j) {
+					continue;
+				}
+			}
+			float target = targetDistances.getElement(i, j);
+			if (target < 0) {
+				continue; // not computed
+			}
+			d.setToDifference(nodes[i], nodes[j]);
+			float length = d.magnitude();
+			crossSum += length * target;
+			squareSum += length * length;
+		}
+		if (crossSum <= 0 || squareSum <= 0) {
+			return 1;
+		}
+		float scale = (float) (crossSum / squareSum);
+		MDSPoint centroid = new MDSPoint(n_dims);
+		for (int i = 0; i < n_nodes; i++) {
+			centroid.add(nodes[i]);
+		}
+		centroid.scale(1.0f / n_nodes);
+		for (int i = 0; i < n_nodes; i++) {
+			nodes[i].subtract(centroid);
+			nodes[i].scale(scale);
+			nodes[i].add(centroid);
+		}
+		return scale;
+	}
+
+	/**
+	 * Finds the location that best fits a new point, not part of the embedding, to its
+	 * differences from the embedded points, which are left where they are.  Only the new
+	 * point's own stress terms, sum_j (|x - y_j| - diffs[j])^2, are minimized, by repeating
+	 * the Guttman transform of SMACOF for x alone, starting next to the embedded point with
+	 * the smallest difference.  Each step costs O(n).
+	 *
+	 * @param diffs  the new point's difference from each embedded point; negative where unknown
+	 * @return       the location, or null if no differences are known
+	 */
+	public synchronized float[] placeOutOfSample(float[] diffs) {
+		int nearest = -1;
+		for (int j = 0; j < n_nodes; j++) {
+			if (diffs[j] >= 0 && (nearest < 0 || diffs[j] < diffs[nearest])) {
+				nearest = j;
+			}
+		}
+		if (nearest < 0) {
+			return null;
+		}
+		MDSPoint x = new MDSPoint(nodes[nearest]);
+		x.add(nudgeVector); // so that x isn't exactly on top of a point, where the direction is undefined
+		MDSPoint next = new MDSPoint(n_dims);
+		MDSPoint offset = new MDSPoint(n_dims);
+		for (int iteration = 0; iteration < OUT_OF_SAMPLE_ITERATIONS; iteration++) {
+			next.zero();
+			int known = 0;
+			for (int j = 0; j < n_nodes; j++) {
+				if (diffs[j] < 0) {
+					continue;
+				}
+				// Guttman transform: y_j + diffs[j] * (x - y_j) / |x - y_j|, averaged over j
+				offset.setToDifference(x, nodes[j]);
+				float length = offset.magnitude();
+				if (length > 0) {
+					offset.scale(diffs[j] / length);
+				}
+				offset.add(nodes[j]);
+				next.add(offset);
+				known++;
+			}
+			next.scale(1.0f / known);
+			offset.setToDifference(next, x);
+			float moved = offset.magnitude();
+			x.setTo(next);
+			if (moved <= OUT_OF_SAMPLE_TOLERANCE * (diffs[nearest] + nudgeVectorLength)) {
+				break;
+			}
+		}
+		float[] location = new float[n_dims];
+		x.copyInto(location);
+		return location;
+	}
+
+	/** Moves every point to the given coordinates, as when a layout found some other way is shown or refined. */
+	public synchronized void setEmbedding(float[][] coordinates) {
+		for (int i = 0; i < n_nodes && i < coordinates.length; i++) {
+			for (int j = 0; j < n_dims && j < coordinates[i].length; j++) {
+				nodes[i].setComponent(j, coordinates[i][j]);
+			}
+		}
+	}
+
 	/** Randomizes the embedding. Gives every coordinate of every point a random value between -1 and 1. */
 	public synchronized void randomize_nodes() {
-		java.util.Random random_source = new java.util.Random();
+		randomize_nodes(new java.util.Random());
+	}
+
+	/** Randomizes the embedding from the given source of random numbers, so that a seeded start can be repeated. */
+	public synchronized void randomize_nodes(java.util.Random random_source) {
 		for (int i = 0; i < n_nodes; i++) {
 			for (int j = 0; j < n_dims; j++) {
 				nodes[i].setComponent(j, random_source.nextFloat());
@@ -272,11 +509,123 @@ class MDS {
 }
 
 
+/**
+ * Watches the stress of an MDS embedding from one iteration to the next, adapting
+ * the step size as it goes and deciding when the embedding has converged.  It is
+ * used only by the MDSThread, so it needs no synchronization of its own; requests
+ * from the user interface to start over are passed in through the MDSThread.
+ */
+class ConvergenceMonitor {
+
+	/** number of iterations over which the relative change in stress is measured */
+	protected static final int WINDOW = 100;
+	/** the embedding is converged when stress changes by less than this fraction across the window */
+	protected static final float TOLERANCE = 1e-4f;
+	/** factor applied to the step size when an iteration increases the stress */
+	protected static final float BACKOFF = 0.5f;
+	/** factor applied to the step size after GROWTH_PERIOD iterations of steadily falling stress */
+	protected static final float GROWTH = 1.05f;
+	/** how many consecutive improving iterations are required before the step size is grown */
+	protected static final int GROWTH_PERIOD = 20;
+
+	/** circular buffer holding the stress of the last WINDOW iterations */
+	private float[] history;
+	/** number of iterations since the last reset */
+	private int iterations;
+	/** number of consecutive iterations in which the stress fell */
+	private int improvingRun;
+	/** wall clock time of the last reset, in milliseconds */
+	private long startTime;
+	/** true if the last call to iterationComplete changed the step size */
+	private boolean stepSizeChanged;
+	/** the step size when this run began, restored once the embedding converges */
+	private float startingStepSize;
+
+	public ConvergenceMonitor() {
+		history = new float[WINDOW];
+		reset();
+	}
+
+	/** Forgets the stress history and restarts the iteration count and timer. */
+	public void reset() {
+		iterations = 0;
+		improvingRun = 0;
+		stepSizeChanged = false;
+		startTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Called by the MDS thread after each iteration.  Adapts the step size of mds
+	 * according to the change in stress, and reports whether the embedding has converged.
+	 *
+	 * @param mds  the MDS object that has just completed an iteration
+	 * @return     true if the relative change in stress across the window is below TOLERANCE,
+	 *             or if mds reports that it has converged by its own criterion
+	 */
+	public boolean iterationComplete(MDS mds) {
+		float stress = mds.getStress();
+		stepSizeChanged = false;
+		if (iterations == 0) {
+			startingStepSize = mds.getStepSize();
+		} else if (mds.getAdaptiveStepSize()) {
+			float lastStress = history[(iterations - 1) % WINDOW];
+			// Increases smaller than this are rounding noise at the bottom of a minimum, not overshooting
+			if (stress > lastStress * (1 + TOLERANCE / WINDOW)) { // overshot; take smaller steps
+				mds.setStepSize(mds.getStepSize() * BACKOFF);
+				stepSizeChanged = true;
+				improvingRun = 0;
+			} else if (++improvingRun >= GROWTH_PERIOD) { // steady progress; take bigger steps
+				mds.setStepSize(mds.getStepSize() * GROWTH);
+				stepSizeChanged = true;
+				improvingRun = 0;
+			}
+		}
+		// history[iterations % WINDOW] holds the stress from WINDOW iterations ago, until it is overwritten here
+		float oldStress = history[iterations % WINDOW];
+		history[iterations % WINDOW] = stress;
+		++iterations;
+		boolean converged;
+		if (mds.hasConverged()) {
+			converged = true;
+		} else if (iterations <= WINDOW) {
+			converged = false;
+		} else if (stress == 0) {
+			converged = true; // a perfect embedding
+		} else {
+			converged = Math.abs(oldStress - stress) / stress < TOLERANCE;
+		}
+		if (converged && mds.getAdaptiveStepSize() && mds.getStepSize() != startingStepSize) {
+			// The adapted step size suited this run's end game; the next run starts from the old one.
+			mds.setStepSize(startingStepSize);
+			stepSizeChanged = true;
+		}
+		return converged;
+	}
+
+	/** Returns true if the most recent iteration caused the step size to be adapted. */
+	public boolean getStepSizeChanged() {
+		return stepSizeChanged;
+	}
+
+	/** Returns the number of iterations since the last reset. */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/** Returns the wall clock time since the last reset, in milliseconds. */
+	public long getElapsedTime() {
+		return System.currentTimeMillis() - startTime;
+	}
+}
+
+
 /** A simple difference matrix, implemented as a 2D triangular array */
 class DiffMatrix {
 	
 	/** The triangular array to hold differences between items */
 	private float[][] diffs;
+	/** incremented each time the differences are replaced by a new set */
+	private int generation = 0;
 
 	/**
 	 * Constructor taking the number of items. Initializes a matrix with all
@@ -287,6 +636,11 @@ class DiffMatrix {
 	public DiffMatrix(int n_items) {
 		resetNumberOfItems(n_items);
 	}
+
+	/** Constructor for subclasses that keep their differences in storage of their own. */
+	protected DiffMatrix() {
+		diffs = null;
+	}
 	
 	public void resetNumberOfItems(int newNumberOfItems) {
 		if (newNumberOfItems <= 0) { // There must be at least one item.
@@ -302,6 +656,7 @@ class DiffMatrix {
 			}
 			diffs[i][i] = 0; // reflexive entry. d(i,i) == 0 for all i
 		}
+		contentsChanged();
 	}
 
 
@@ -354,7 +709,7 @@ class DiffMatrix {
 	 * @param j  Index to the second element
 	 * @return   The current difference between i and j
 	 */
-	public final float getElement(int i, int j) {
+	public float getElement(int i, int j) {
 		// bounds checking
 		// if (   i >= n_items || i < 0
 		//	   || j >= n_items || j < 0 ) {
@@ -368,6 +723,41 @@ class DiffMatrix {
 	}
 
 
+	/**
+	 * Returns row i of the triangular matrix: the differences between item i and items
+	 * 0..i-1, followed by the zero on the diagonal.  The array is the matrix's own storage,
+	 * handed out so that callers streaming through the matrix can walk it in memory order.
+	 * Don't modify it.  Only dense matrices have rows; see LandmarkDiffMatrix.
+	 *
+	 * @param i  Index of the row
+	 * @return   The row, of length i+1
+	 */
+	public final float[] getRow(int i) {
+		return diffs[i];
+	}
+
+
+	/** Flags every difference as not yet computed, as when the items themselves have changed. */
+	public void markAllUncomputed() {
+		for (int i = 0; i < diffs.length; ++i) {
+			java.util.Arrays.fill(diffs[i], 0, i, -1);
+		}
+		contentsChanged();
+	}
+
+	/**
+	 * Called when a new set of differences has been completed, so that kinds of MDS that
+	 * keep state derived from the differences (see getGeneration) know to rebuild it.
+	 */
+	public void contentsChanged() {
+		++generation;
+	}
+
+	/** Returns a number that changes each time a new set of differences is completed. */
+	public int getGeneration() {
+		return generation;
+	}
+
 	/**
 	 * Gets the number of items in the difference matrix
 	 *
@@ -398,22 +788,47 @@ class SampledDiffMatrix extends DiffMatrix {
 
 	/** A bit vector to keep track of which points are in the sample (used for sampling by point) */
 	private boolean[] pointSample;
-	/** a 2D bit vertor to keep track of which ordered point pairs are in the sample (used for sampling by difference) */
-	private boolean[][] diffSample;
+	/** The points in the sample, in the order chosen; the first pointSampleSize entries are used */
+	private int[] sampledPoints;
+	/** Number of points in the sample */
+	private int pointSampleSize;
+	/** The ordered point pairs in the sample (used for sampling by difference) */
+	private PairSet diffSample;
+
+	/** Source of random choices for the samples.  Replaced by setSeed for reproducible samples. */
+	private java.util.Random randomSource = new java.util.Random();
+	/** Seed of randomSource, or 0 if it was not seeded */
+	private long seed = 0;
+
+	/** Take a new sample every this many iterations; 0 means never */
+	private int resampleInterval = 0;
+	/** Iterations since the sample was last drawn */
+	private int iterationsSinceSample = 0;
 
 
 	/** constructor to creates a diff matrix with sampling turned off initially */
 	public SampledDiffMatrix(int n_items) {
 		super(n_items);
-		disableSampling();
-		pointSample = null;
-		diffSample = null;
+		resetSampling();
+	}
+
+	/** Constructor for subclasses that keep their differences in storage of their own. */
+	protected SampledDiffMatrix() {
+		super();
+		resetSampling();
 	}
 	
 	public void resetNumberOfItems(int newNumberOfItems) {
 		super.resetNumberOfItems(newNumberOfItems);
+		resetSampling();
+	}
+
+	/** Turns off sampling and discards the sample, as when the number of items changes. */
+	protected void resetSampling() {
 		disableSampling();
 		pointSample = null;
+		sampledPoints = null;
+		pointSampleSize = 0;
 		diffSample = null;
 	}
 
@@ -438,113 +853,150 @@ class SampledDiffMatrix extends DiffMatrix {
 		samplingByDiff = false;
 	}
 
+	/**
+	 * Seeds the random choice of samples, so that the same sequence of samples is drawn
+	 * each time the same seed is set.  A seed of 0 means unseeded (different every run).
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		randomSource = (seed == 0) ? new java.util.Random() : new java.util.Random(seed);
+	}
+
+	/** Returns the seed set by setSeed, or 0 if samples are not seeded */
+	public long getSeed() {
+		return seed;
+	}
+
+	/** Sets how many iterations pass before a new sample of the same size is drawn; 0 turns resampling off. */
+	public void setResampleInterval(int iterations) {
+		resampleInterval = (iterations < 0) ? 0 : iterations;
+		iterationsSinceSample = 0;
+	}
+
+	public int getResampleInterval() {
+		return resampleInterval;
+	}
+
+	/**
+	 * Called by the MDS thread after each iteration.  Draws a new sample if sampling is on
+	 * and the resampling interval has passed.
+	 * @return true if a new sample was drawn
+	 */
+	public boolean iterationComplete() {
+		if (resampleInterval <= 0 || !getSampling() || ++iterationsSinceSample < resampleInterval) {
+			return false;
+		}
+		resample();
+		return true;
+	}
+
+	/** Draws a new sample of the same kind and size as the current one. */
+	public void resample() {
+		if (samplingByPoint) {
+			sampleByPoint(pointSampleSize);
+		} else if (samplingByDiff) {
+			sampleByDiff(diffSample.size());
+		}
+	}
+
 	/** Returns the current sample size.  This is the number of points if
 	 * sampling by point (0..n) or the number of differences if sampling by
 	 * diffs (0..n^2).  Returns zero if sampling is not enabled.
 	 */
 	public int getSampleSize() {
-		int sampleSize = 0;
 		if (samplingByPoint) {
-			for (int i=0; i < pointSample.length; ++i) {
-				if (pointSample[i]) {
-					++sampleSize;
-				}
-			}
+			return pointSampleSize;
 		} else if (samplingByDiff) {
-			for (int i=0; i < diffSample.length; ++i) {
-				for (int j=0; j < diffSample.length; ++j) {
-					if (diffSample[i][j]) {
-						++sampleSize;
-					}
-				}
-			}
+			return diffSample.size();
 		}
-		return sampleSize;
+		return 0;
+	}
+
+	/** Returns the kth point in the sample (0 <= k < getSampleSize()) when sampling by point. */
+	public final int getSampledPoint(int k) {
+		return sampledPoints[k];
 	}
 
-	/** Chooses sampleSize random points from the n possibilities.
+	/** Chooses sampleSize random points from the n possibilities, by Floyd's algorithm,
+	 *  in time proportional to sampleSize.
 	 *  Note that if point p is in the sample, then for all other points x,
 	 *  (x,p) is active and that (p,x) is not necesarily therefore also active.
 	 */
 	public void sampleByPoint(int sampleSize) {
-		samplingByPoint = true;
-		samplingByDiff = false;
-
 		int n = getNumberOfItems();
+		if (sampleSize > n) {
+			sampleSize = n;
+		}
 
-		// create the sample array if it doesn't already exist.
-		if (pointSample == null) {
+		// create the sample arrays if they don't already exist.
+		if (pointSample == null || pointSample.length != n) {
 			pointSample = new boolean[n];
+			sampledPoints = new int[n];
+			pointSampleSize = 0;
 		}
 
-		// First wipe the sample by removing every point from it.
-		for (int i = 0; i < n; ++i) {
-			pointSample[i] = false;
-		}
-
-		java.util.Random randomSource = new java.util.Random(); // seed here for repeatability
-		int currentRandomChoice;
-		int k;
-		for (int i = 0; i < sampleSize; ++i) {
-			// loop invariant: of the n total points, i have been chosen and
-			// (n - i) are available for the next random selection.)
-			currentRandomChoice = randomSource.nextInt(n - i);
-			// find the (currentRandomChoice+1)th number in the overall set that
-			// hasn't already been chosen.
-			k = 0;
-			while (pointSample[k]) {++k;} // skip initial trues
-			for (int j = 0; j < currentRandomChoice; j++) {
-				// loop invariant: we have passed over j falses; sample[k] = false
-				++k; // pass over the (j+1)th false
-				while (pointSample[k]) {++k;} // skip trues
+		// First wipe the sample by removing the points chosen last time.
+		for (int k = 0; k < pointSampleSize; ++k) {
+			pointSample[sampledPoints[k]] = false;
+		}
+		pointSampleSize = 0;
+
+		// Floyd: for each of the last sampleSize values of j, choose t uniformly from 0..j;
+		// take t if it is new, otherwise j (which can't have been taken yet).
+		for (int j = n - sampleSize; j < n; ++j) {
+			int t = randomSource.nextInt(j + 1);
+			if (pointSample[t]) {
+				t = j;
 			}
-			pointSample[k] = true; // k is now the index of the (currenRandomChoice+1)th false
+			pointSample[t] = true;
+			sampledPoints[pointSampleSize++] = t;
 		}
+		iterationsSinceSample = 0;
+		samplingByDiff = false;
+		samplingByPoint = true;
 	}
 
-	/** Chooses sampleSize different differences at random from the n^2 possibilities.
+	/** Chooses sampleSize different differences at random from the n^2 possibilities,
+	 *  by Floyd's algorithm, in time and memory proportional to sampleSize.
 	 *  Note that d(x,y) is considered to be independent of d(y,x) for this sampling
 	 *  even thought d(x,y) always equals d(y,x)
 	 */
 	public void sampleByDiff(int sampleSize) {
-		samplingByPoint = false;
-		samplingByDiff = true;
-
 		int n = getNumberOfItems();
-
-		// create the sample array if it doesn't already exist.
-		if (diffSample == null) {
-			diffSample = new boolean[n][n];
+		long nSquared = (long) n * n;
+		if (sampleSize > nSquared) {
+			sampleSize = (int) nSquared;
+		}
+		if (sampleSize > PairSet.MAX_CAPACITY) {
+			sampleSize = PairSet.MAX_CAPACITY; // the set could not hold more, and adding them would never find a free slot
 		}
 
-		// First wipe the sample by removing every difference from it.
-		for (int i = 0; i < n; ++i) {
-			for (int j = 0; j < n; ++j) {
-				diffSample[i][j] = false;
+		// Each ordered pair (x,y) is the number x*n + y in 0..n^2-1
+		PairSet newSample = new PairSet(n, sampleSize);
+		for (long j = nSquared - sampleSize; j < nSquared; ++j) {
+			long t = nextLong(j + 1);
+			if (!newSample.add(t)) {
+				newSample.add(j);
 			}
 		}
+		diffSample = newSample;
+		iterationsSinceSample = 0;
+		samplingByPoint = false;
+		samplingByDiff = true;
+	}
 
-		java.util.Random randomSource = new java.util.Random(); // seed here for repeatability
-		int currentRandomChoice;
-		int k;
-		// We will think of the the 2D array of booleans as one long linear array, so that
-		// we can step through it with the same logic that was used for sampleByPoint().
-		// k is the index into this big unrolled 1D boolean array
-		for (int i = 0; i < sampleSize; ++i) {
-			// loop invariant: of the n^2 total differences, i have been chosen
-			// and (n^2 - i) are available for the next random selection.)
-			currentRandomChoice = randomSource.nextInt(n * n - i);
-			// find the (currentRandomChoice+1)th number in the overall set that
-			// hasn't already been chosen.
-			k = 0;
-			while (diffSample[k/n][k%n]) {++k;} // skip initial trues
-			for (int j = 0; j < currentRandomChoice; j++) {
-				// loop invariant: we have passed over j falses; sample[k] = false
-				++k; // pass over the (j+1)th false
-				while (diffSample[k/n][k%n]) {++k;} // skip trues
-			}
-			diffSample[k/n][k%n] = true; // k is now the index of the (currenRandomChoice+1)th false
+	/** Returns a random long uniformly distributed in 0..bound-1 */
+	private long nextLong(long bound) {
+		if (bound <= Integer.MAX_VALUE) {
+			return randomSource.nextInt((int) bound);
 		}
+		long r;
+		long value;
+		do { // rejection, so that all values are equally likely
+			r = randomSource.nextLong() >>> 1;
+			value = r % bound;
+		} while (r - value + (bound - 1) < 0);
+		return value;
 	}
 
 	/** Checks whether or not a point is in the sample.  Returns false if sampling by point is not enabled. */
@@ -560,13 +1012,11 @@ class SampledDiffMatrix extends DiffMatrix {
 	 * check the bounds of x and y for the sake of speed.  Be careful.
 	 */
 	public final boolean diffInSample(int x, int y) {
-		// relies on short-circuiting of the && and || operators
-		//return ((samplingByPoint && pointSample[y]) || (samplingbyDiff && diffSample[x][y]));
-		// An if-then-else construction seems to run faster than the big expression on the previous line.
+		// An if-then-else construction seems to run faster than one big boolean expression.
 		if (samplingByPoint) {
 			return pointSample[y];
 		} else if (samplingByDiff) {
-			return diffSample[x][y];
+			return diffSample.contains(x, y);
 		} else {
 			return false;
 		}
@@ -574,6 +1024,74 @@ class SampledDiffMatrix extends DiffMatrix {
 }
 
 
+/**
+ * A set of ordered pairs of items, each stored as the number x*n + y in an open-addressing
+ * hash table of longs, so memory is proportional to the number of pairs rather than n^2.
+ */
+class PairSet {
+
+	/** marks an empty slot; no pair has a negative number */
+	private static final long EMPTY = -1;
+	/** the most pairs a set can hold, keeping the largest table (1 << 30 slots) at most half full */
+	public static final int MAX_CAPACITY = 1 << 29;
+
+	private long[] table;
+	/** table.length - 1; the table length is a power of two */
+	private int mask;
+	private int size;
+	private long n;
+
+	/** Makes an empty set for pairs of n items, with room for capacity pairs (at most MAX_CAPACITY). */
+	public PairSet(int n, int capacity) {
+		capacity = Math.min(capacity, MAX_CAPACITY);
+		this.n = n;
+		int length = 2;
+		while (length < capacity * 2) { // at most half full
+			length <<= 1;
+		}
+		table = new long[length];
+		java.util.Arrays.fill(table, EMPTY);
+		mask = length - 1;
+	}
+
+	private int slot(long pair) {
+		long h = pair * 0x9E3779B97F4A7C15L; // Fibonacci hashing spreads consecutive pairs
+		return (int) (h >>> 33) & mask;
+	}
+
+	/** Adds the pair numbered pair (x*n + y).  Returns false if it was already present. */
+	public boolean add(long pair) {
+		int s = slot(pair);
+		while (table[s] != EMPTY) {
+			if (table[s] == pair) {
+				return false;
+			}
+			s = (s + 1) & mask;
+		}
+		table[s] = pair;
+		++size;
+		return true;
+	}
+
+	public final boolean contains(int x, int y) {
+		long pair = x * n + y;
+		int s = slot(pair);
+		long entry;
+		while ((entry = table[s]) != EMPTY) {
+			if (entry == pair) {
+				return true;
+			}
+			s = (s + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+}
+
+
 
 /**
  * Mathematical points/vectors of arbitrary dimensionality.
@@ -703,6 +1221,20 @@ class MDSPoint {
 		return d;
 	}
 
+	/** Copies the components of p into this point, which must have the same dimensionality. */
+	public final void setTo(MDSPoint p) {
+		for (i = 0 ; i < dimensionality; ++i) {
+			components[i] = p.components[i];
+		}
+	}
+
+	/** Copies the components of this point into dest, which must be at least as long as the dimensionality.
+	 *  Uses no fields other than the components, so it may be called from a thread other than the one
+	 *  changing the point. */
+	public final void copyInto(float[] dest) {
+		System.arraycopy(components, 0, dest, 0, dimensionality);
+	}
+
 	/** Slightly less useful than difference(), but much faster, because it
 	 *  doesn't need to make a new MDSPoint.
 	 */
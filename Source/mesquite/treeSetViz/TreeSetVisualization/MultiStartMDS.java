@@ -0,0 +1,227 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/* This file holds multi-start MDS: several embeddings from different random starts,
+ * run at once on separate threads, of which the one with the lowest stress is kept.
+ */
+
+/**
+ * Runs several independent embeddings of the same difference matrix at once, each on
+ * its own thread (and so, where there are several processors, its own core), from
+ * different seeded random starts.  The matrix is only read, so all runs share it.
+ * While they run, the window is shown the run with the lowest stress so far; when
+ * all have converged (or been stopped), it is given the best one to keep.  Each run's
+ * stress after every iteration is kept, for inspection.
+ */
+class MultiStartMDS extends Thread {
+
+	/** how often the window is shown the current best run, in milliseconds */
+	protected static final int REPORT_INTERVAL = 200;
+	/** a run that hasn't converged by this many iterations is stopped */
+	protected static final int MAX_ITERATIONS = 5000;
+
+	private MultiStartRun[] runs;
+	private long[] seeds;
+	private PointSetVisualization window;
+	/** true if the window's own MDS was running before, and should resume after */
+	private boolean resumeAfter;
+	private volatile boolean haltFlag = false;
+
+	/**
+	 * @param window       the window to show progress and the result to
+	 * @param engines      one MDS object per run, all over the same difference matrix
+	 * @param firstSeed    run i starts from a random embedding seeded with firstSeed + i
+	 * @param resumeAfter  passed back to the window when the runs finish
+	 */
+	public MultiStartMDS(PointSetVisualization window, MDS[] engines, long firstSeed, boolean resumeAfter) {
+		super();
+		this.window = window;
+		this.resumeAfter = resumeAfter;
+		runs = new MultiStartRun[engines.length];
+		seeds = new long[engines.length];
+		for (int i = 0; i < engines.length; ++i) {
+			seeds[i] = firstSeed + i;
+			engines[i].randomize_nodes(new java.util.Random(seeds[i]));
+			runs[i] = new MultiStartRun(engines[i]);
+		}
+	}
+
+	/** Asks all runs to stop; the best so far is then handed to the window as usual. */
+	public void halt() {
+		haltFlag = true;
+	}
+
+	public void run() {
+		for (int i = 0; i < runs.length; ++i) {
+			runs[i].setPriority(getPriority());
+			runs[i].start();
+		}
+		int shown = -1;
+		float shownStress = -1;
+		boolean allDone = false;
+		while (!allDone && !haltFlag) {
+			try {
+				sleep(REPORT_INTERVAL);
+			} catch (InterruptedException e) {
+				haltFlag = true;
+			}
+			int best = getBestRun();
+			if (best >= 0 && (best != shown || runs[best].getStress() != shownStress)) {
+				shown = best;
+				shownStress = runs[best].getStress();
+				window.multiStartProgress(runs[best].getMDS(), best, shownStress);
+			}
+			allDone = true;
+			for (int i = 0; i < runs.length; ++i) {
+				allDone &= runs[i].isDone();
+			}
+		}
+		for (int i = 0; i < runs.length; ++i) {
+			runs[i].halt();
+		}
+		for (int i = 0; i < runs.length; ++i) {
+			try {
+				runs[i].join();
+			} catch (InterruptedException e) {
+			}
+		}
+		int best = getBestRun();
+		window.multiStartFinished(this, best >= 0 ? runs[best].getMDS() : null, best, resumeAfter);
+	}
+
+	/** Returns the index of the run with the lowest stress so far, or -1 if none has completed an iteration. */
+	public int getBestRun() {
+		int best = -1;
+		for (int i = 0; i < runs.length; ++i) {
+			float stress = runs[i].getStress();
+			if (stress >= 0 && (best < 0 || stress < runs[best].getStress())) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	public int getNumberOfRuns() {
+		return runs.length;
+	}
+
+	/** Returns the seed of the random start of run i */
+	public long getSeed(int i) {
+		return seeds[i];
+	}
+
+	/** Returns the stress after each iteration of run i so far */
+	public float[] getStressTrace(int i) {
+		return runs[i].getStressTrace();
+	}
+
+	/** Returns a report of every run's seed, iterations, final stress and stress trace (every tenth iteration). */
+	public String getTraceReport() {
+		StringBuffer report = new StringBuffer();
+		int best = getBestRun();
+		for (int i = 0; i < runs.length; ++i) {
+			float[] trace = getStressTrace(i);
+			report.append("Run " + (i + 1) + (i == best ? " (best)" : "") + ": seed " + seeds[i] + ", " + trace.length + " iterations, stress " + runs[i].getStress() + "\n ");
+			for (int k = 0; k < trace.length; k += 10) {
+				report.append(" " + trace[k]);
+			}
+			report.append("\n");
+		}
+		return report.toString();
+	}
+}
+
+
+/** One of the runs of a MultiStartMDS: iterates its own MDS until it converges, reaches MAX_ITERATIONS, or is halted. */
+class MultiStartRun extends Thread {
+
+	private MDS mds;
+	private ConvergenceMonitor convergenceMonitor;
+	/** stress after each iteration; the first traceLength entries are used */
+	private float[] trace;
+	private int traceLength;
+	/** stress after the last iteration, or -1 before the first */
+	private volatile float stress = -1;
+	private volatile boolean done = false;
+	private volatile boolean haltFlag = false;
+
+	public MultiStartRun(MDS mds) {
+		super();
+		this.mds = mds;
+		convergenceMonitor = new ConvergenceMonitor();
+		trace = new float[256];
+		traceLength = 0;
+	}
+
+	public void run() {
+		mds.restart();
+		int centering_check_counter = 0;
+		boolean converged = false;
+		while (!converged && !haltFlag && traceLength < MultiStartMDS.MAX_ITERATIONS) {
+			mds.doOneIteration();
+			centering_check_counter = (centering_check_counter + 1) % MDS.CENTERING_CHECK_PERIOD;
+			if (centering_check_counter == 0) {
+				mds.center_embedding();
+			}
+			float newStress = mds.getStress();
+			synchronized (this) {
+				if (traceLength == trace.length) {
+					float[] longer = new float[trace.length * 2];
+					System.arraycopy(trace, 0, longer, 0, traceLength);
+					trace = longer;
+				}
+				trace[traceLength++] = newStress;
+			}
+			stress = newStress;
+			converged = convergenceMonitor.iterationComplete(mds);
+		}
+		done = true;
+	}
+
+	public MDS getMDS() {
+		return mds;
+	}
+
+	public float getStress() {
+		return stress;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public void halt() {
+		haltFlag = true;
+	}
+
+	public synchronized float[] getStressTrace() {
+		float[] copy = new float[traceLength];
+		System.arraycopy(trace, 0, copy, 0, traceLength);
+		return copy;
+	}
+}
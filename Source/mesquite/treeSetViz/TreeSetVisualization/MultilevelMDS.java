@@ -0,0 +1,334 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * Multilevel MDS for large tree sets.  The points are put in maxmin order (each the
+ * farthest from all before it), and the prefixes of that order form a hierarchy of
+ * levels, each COARSENING_FACTOR times smaller than the one below, down to at most
+ * COARSEST_SIZE points.  The coarsest level is refined using all its pairs, for the same
+ * LEVEL_ITERATIONS as every other level (this is not run to convergence); then at each
+ * finer level the new points are interpolated from their nearest embedded neighbours and
+ * the whole level is refined with a sample of NEIGHBOR_SAMPLES stress terms per point,
+ * so that an iteration costs O(m * NEIGHBOR_SAMPLES) for a level of m points rather than
+ * O(m^2).  Points not yet in the current level are drawn at the location of their nearest
+ * point in it, so each level can be seen as it finishes.
+ * <p>
+ * Refinement moves the two points of a stress term toward (or apart from) each other by
+ * a fraction mu of the residual; mu is annealed over LEVEL_ITERATIONS iterations at each
+ * level.  Building the hierarchy reads every difference once, O(n^2), and is done again
+ * only when the difference matrix changes.
+ */
+class MultilevelMDS extends MDS {
+
+	/** each level has this many times fewer points than the level below it */
+	protected static final int COARSENING_FACTOR = 4;
+	/** the coarsest level has at most this many points, and is refined using all its pairs */
+	protected static final int COARSEST_SIZE = 200;
+	/** number of partners drawn at random for each point in each iteration of refinement */
+	protected static final int NEIGHBOR_SAMPLES = 32;
+	/** number of iterations spent on each level (and before the finest level counts as converged) */
+	protected static final int LEVEL_ITERATIONS = 40;
+	/** fraction of the residual corrected by a pair term at the start and end of a level's annealing */
+	protected static final float MU_MAX = 0.5f, MU_MIN = 0.01f;
+	/** number of nearest coarser points whose locations are averaged to interpolate a new point */
+	protected static final int INTERPOLATION_NEIGHBORS = 3;
+
+	/** all points in maxmin order; level k is the first levelSize[k] of them */
+	private int[] order;
+	/** number of points in each level; level 0 has them all */
+	private int[] levelSize;
+	/** representative[k][i] = the point of level k nearest to point i (for k > 0) */
+	private int[][] representative;
+	/** the level being refined */
+	private int level;
+	/** iterations done at the current level */
+	private int levelIteration;
+	/** the matrix generation the hierarchy was built for; -1 if never */
+	private int builtGeneration = -1;
+	/** true if the next hierarchy built should go straight to the finest level, after a warm start */
+	private boolean refineOnly = false;
+	private java.util.Random randomSource = new java.util.Random();
+	private float stress_diff_accum, stress_norm_accum;
+
+	public MultilevelMDS(SampledDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		builtGeneration = -1;
+	}
+
+	/**
+	 * Starts over from the coarsest level if the differences have changed, or continues
+	 * at the finest level after a warm start.  Once converged, a restart refines the finest
+	 * level again; other changes leave the schedule alone.
+	 */
+	public synchronized void restart() {
+		if (builtGeneration != targetDistances.getGeneration()) {
+			order = null; // rebuilt at the next iteration
+		}
+		if (warmStarted) {
+			warmStarted = false;
+			refineOnly = true;
+			if (order != null) {
+				startRefining();
+			}
+		} else if (hasConverged()) {
+			startRefining();
+		}
+	}
+
+	/** Skips the coarse levels, for a layout that is already close. */
+	private void startRefining() {
+		level = 0;
+		levelIteration = LEVEL_ITERATIONS / 2;
+		refineOnly = false;
+	}
+
+	/** Multilevel MDS follows its own annealing schedule; the step size is not tuned. */
+	public boolean getAdaptiveStepSize() {
+		return false;
+	}
+
+	/** Converged once the finest level has had its full schedule. */
+	public synchronized boolean hasConverged() {
+		return order != null && level == 0 && levelIteration >= LEVEL_ITERATIONS;
+	}
+
+	/** Puts the points in maxmin order and records each level's nearest representatives. */
+	private void buildHierarchy() {
+		int n = n_nodes;
+		// level sizes, finest first
+		java.util.Vector sizes = new java.util.Vector();
+		int size = n;
+		sizes.addElement(Integer.valueOf(size));
+		while (size > COARSEST_SIZE) {
+			size /= COARSENING_FACTOR;
+			sizes.addElement(Integer.valueOf(size));
+		}
+		levelSize = new int[sizes.size()];
+		for (int k = 0; k < levelSize.length; ++k) {
+			levelSize[k] = ((Integer) sizes.elementAt(k)).intValue();
+		}
+		representative = new int[levelSize.length][];
+
+		order = new int[n];
+		if (n == 0) { // one empty level, with nothing to order or refine
+			level = 0;
+			levelIteration = LEVEL_ITERATIONS;
+			builtGeneration = targetDistances.getGeneration();
+			return;
+		}
+		boolean[] chosen = new boolean[n];
+		float[] minDiff = new float[n];
+		int[] nearest = new int[n];
+		java.util.Arrays.fill(minDiff, Float.MAX_VALUE);
+		int next = randomSource.nextInt(n);
+		for (int t = 0; t < n; ++t) {
+			order[t] = next;
+			chosen[next] = true;
+			minDiff[next] = 0;
+			nearest[next] = next;
+			int farthest = -1;
+			for (int i = 0; i < n; ++i) {
+				if (chosen[i]) {
+					continue;
+				}
+				float diff = targetDistances.getElement(next, i);
+				if (diff >= 0 && diff < minDiff[i]) {
+					minDiff[i] = diff;
+					nearest[i] = next;
+				}
+				if (farthest < 0 || minDiff[i] > minDiff[farthest]) {
+					farthest = i;
+				}
+			}
+			for (int k = 1; k < levelSize.length; ++k) {
+				if (t + 1 == levelSize[k]) { // the first levelSize[k] points are chosen: level k is complete
+					representative[k] = nearest.clone();
+				}
+			}
+			next = farthest;
+		}
+		level = levelSize.length - 1;
+		levelIteration = 0;
+		if (refineOnly) {
+			startRefining();
+		}
+		builtGeneration = targetDistances.getGeneration();
+	}
+
+	/** Performs one iteration of refinement at the current level, moving to the next finer level when its schedule is done. */
+	public synchronized void doOneIteration() {
+		if (order == null) {
+			buildHierarchy();
+		}
+		int m = levelSize[level];
+		float mu = Math.max(MU_MIN, (float) (MU_MAX * Math.pow(MU_MIN / MU_MAX, (double) levelIteration / (LEVEL_ITERATIONS - 1))));
+		stress_diff_accum = 0;
+		stress_norm_accum = 0;
+		if (m <= COARSEST_SIZE) { // every pair
+			for (int a = 0; a < m; ++a) {
+				for (int b = 0; b < a; ++b) {
+					updatePair(order[a], order[b], mu);
+				}
+			}
+		} else { // a sample of partners for each point
+			for (int a = 0; a < m; ++a) {
+				for (int s = 0; s < NEIGHBOR_SAMPLES; ++s) {
+					int b = randomSource.nextInt(m);
+					if (b != a) {
+						updatePair(order[a], order[b], mu);
+					}
+				}
+			}
+		}
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum / stress_norm_accum);
+		}
+		++levelIteration;
+		if (levelIteration >= LEVEL_ITERATIONS && level > 0) {
+			--level;
+			interpolateNewPoints();
+			levelIteration = 0;
+		}
+		showUnplacedPoints();
+	}
+
+	/** Moves points i and j so as to correct the fraction mu of the residual of their stress term. */
+	private final void updatePair(int i, int j, float mu) {
+		float diff = targetDistances.getElement(i, j);
+		if (diff < 0) {
+			return; // not computed
+		}
+		d.setToDifference(nodes[i], nodes[j]);
+		float length = d.magnitude();
+		if (length == 0) {
+			d.add(nudgeVector);
+			length = nudgeVectorLength;
+		}
+		float resid = length - diff;
+		stress_diff_accum += resid * resid;
+		stress_norm_accum += length * length;
+		d.scale(mu * resid / (2 * length));
+		nodes[i].subtract(d);
+		nodes[j].add(d);
+	}
+
+	/**
+	 * Places the points that have just joined, those in the new level but not the coarser
+	 * one, at the average of the locations of their nearest points in the coarser level,
+	 * weighted by the inverse of the differences.
+	 */
+	private void interpolateNewPoints() {
+		int coarseSize = levelSize[level + 1];
+		int[] neighbors = new int[INTERPOLATION_NEIGHBORS];
+		float[] neighborDiffs = new float[INTERPOLATION_NEIGHBORS];
+		MDSPoint sum = new MDSPoint(n_dims);
+		MDSPoint weighted = new MDSPoint(n_dims);
+		for (int a = coarseSize; a < levelSize[level]; ++a) {
+			int i = order[a];
+			int found = 0;
+			for (int b = 0; b < coarseSize; ++b) { // keep the INTERPOLATION_NEIGHBORS nearest, sorted
+				float diff = targetDistances.getElement(i, order[b]);
+				if (diff < 0 || (found == INTERPOLATION_NEIGHBORS && diff >= neighborDiffs[found - 1])) {
+					continue;
+				}
+				int slot = (found < INTERPOLATION_NEIGHBORS) ? found++ : found - 1;
+				while (slot > 0 && neighborDiffs[slot - 1] > diff) {
+					neighbors[slot] = neighbors[slot - 1];
+					neighborDiffs[slot] = neighborDiffs[slot - 1];
+					--slot;
+				}
+				neighbors[slot] = order[b];
+				neighborDiffs[slot] = diff;
+			}
+			if (found == 0) {
+				continue;
+			}
+			if (neighborDiffs[0] == 0) { // a duplicate of a coarser point
+				nodes[i].setTo(nodes[neighbors[0]]);
+				nodes[i].add(nudgeVector);
+				continue;
+			}
+			sum.zero();
+			float totalWeight = 0;
+			for (int k = 0; k < found; ++k) {
+				float weight = 1 / neighborDiffs[k];
+				weighted.setTo(nodes[neighbors[k]]);
+				weighted.scale(weight);
+				sum.add(weighted);
+				totalWeight += weight;
+			}
+			sum.scale(1 / totalWeight);
+			nodes[i].setTo(sum);
+		}
+	}
+
+	/** Draws each point that isn't in the current level at the location of its nearest point that is. */
+	private void showUnplacedPoints() {
+		if (level == 0) {
+			return;
+		}
+		int[] rep = representative[level];
+		for (int a = levelSize[level]; a < n_nodes; ++a) {
+			int i = order[a];
+			nodes[i].setTo(nodes[rep[i]]);
+		}
+	}
+
+	/**
+	 * Estimates the stress of the whole embedding from NEIGHBOR_SAMPLES random partners of
+	 * each point, O(n * NEIGHBOR_SAMPLES) rather than the O(n^2) of every pair.
+	 */
+	public synchronized void compute_stress() {
+		float stress_diff_accum = 0;
+		float stress_norm_accum = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			for (int s = 0; s < NEIGHBOR_SAMPLES; ++s) {
+				int j = randomSource.nextInt(n_nodes);
+				if (j == i) {
+					continue;
+				}
+				float diff = targetDistances.getElement(i, j);
+				if (diff < 0) {
+					continue; // not computed
+				}
+				d.setToDifference(nodes[i], nodes[j]);
+				float length = d.magnitude();
+				float resid = length - diff;
+				stress_diff_accum += resid * resid;
+				stress_norm_accum += length * length;
+			}
+		}
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum / stress_norm_accum);
+		}
+	}
+}
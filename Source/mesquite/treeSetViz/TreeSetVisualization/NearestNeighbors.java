@@ -0,0 +1,189 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * The k nearest neighbours of every item, with their differences, nearest first.  This is
+ * the sparse O(n * k) summary of the differences used by the embedding methods that only
+ * need local structure.  Found by reading every row of a difference matrix once; entries
+ * not yet computed are skipped, so an item may have fewer than k neighbours.
+ */
+class NearestNeighbors {
+	/** neighbors[i] = the items nearest to item i, nearest first */
+	private int[][] neighbors;
+	/** distances[i][k] = the difference between item i and neighbors[i][k] */
+	private float[][] distances;
+	/** the generation of the difference matrix these were found from */
+	private int generation;
+
+	/**
+	 * Returns the k nearest neighbours of each item of the matrix: read from its lists if it
+	 * is a NeighborDiffMatrix, otherwise found by reading every row.
+	 */
+	public static NearestNeighbors find(DiffMatrix matrix, int k) {
+		if (matrix instanceof NeighborDiffMatrix) {
+			return ((NeighborDiffMatrix) matrix).getNearestNeighbors(k);
+		}
+		return new NearestNeighbors(matrix, k);
+	}
+
+	/** Takes neighbour lists found elsewhere.  The arrays are kept, not copied. */
+	NearestNeighbors(int[][] neighbors, float[][] distances, int generation) {
+		this.neighbors = neighbors;
+		this.distances = distances;
+		this.generation = generation;
+	}
+
+	/** Finds the k nearest neighbours of each item of the matrix. */
+	public NearestNeighbors(DiffMatrix matrix, int k) {
+		int n = matrix.getNumberOfItems();
+		generation = matrix.getGeneration();
+		k = Math.max(0, Math.min(k, n - 1));
+		neighbors = new int[n][];
+		distances = new float[n][];
+		int[] nearest = new int[k];
+		float[] nearestDiffs = new float[k];
+		for (int i = 0; i < n; ++i) {
+			int found = 0;
+			for (int j = 0; j < n && k > 0; ++j) { // keep the k nearest, sorted
+				if (j == i) {
+					continue;
+				}
+				float diff = matrix.getElement(i, j);
+				if (diff < 0 || (found == k && diff >= nearestDiffs[found - 1])) {
+					continue;
+				}
+				int slot = (found < k) ? found++ : found - 1;
+				while (slot > 0 && nearestDiffs[slot - 1] > diff) {
+					nearest[slot] = nearest[slot - 1];
+					nearestDiffs[slot] = nearestDiffs[slot - 1];
+					--slot;
+				}
+				nearest[slot] = j;
+				nearestDiffs[slot] = diff;
+			}
+			neighbors[i] = new int[found];
+			distances[i] = new float[found];
+			System.arraycopy(nearest, 0, neighbors[i], 0, found);
+			System.arraycopy(nearestDiffs, 0, distances[i], 0, found);
+		}
+	}
+
+	/** Returns the number of items */
+	public int getNumberOfItems() {
+		return neighbors.length;
+	}
+
+	/** Returns the neighbours of item i, nearest first.  The array must not be changed. */
+	public int[] getNeighbors(int i) {
+		return neighbors[i];
+	}
+
+	/** Returns the differences between item i and its neighbours, in the order of getNeighbors(i). */
+	public float[] getDistances(int i) {
+		return distances[i];
+	}
+
+	/** Returns the generation of the difference matrix these were found from */
+	public int getGeneration() {
+		return generation;
+	}
+}
+
+
+/**
+ * A symmetric sparse matrix of affinities over the nearest-neighbour graph, in compressed
+ * rows: row i holds the columns columns[rowStart[i]] .. columns[rowStart[i+1]-1] and their
+ * values.  It is built from a directed affinity for each item to each of its neighbours;
+ * the two directed affinities of a pair are combined either by adding them (t-SNE) or by
+ * fuzzy union, a + b - ab (UMAP).  Memory is O(n * k).
+ */
+class SparseAffinities {
+	int[] rowStart;
+	int[] columns;
+	float[] values;
+
+	/**
+	 * @param neighbors    the neighbour lists
+	 * @param directed     directed[i][e] = the affinity of item i for its neighbour neighbors.getNeighbors(i)[e]
+	 * @param fuzzyUnion   true to combine the two directions by fuzzy union; false to add them
+	 */
+	public SparseAffinities(NearestNeighbors neighbors, float[][] directed, boolean fuzzyUnion) {
+		int n = neighbors.getNumberOfItems();
+		int[] degree = new int[n];
+		for (int i = 0; i < n; ++i) {
+			int[] near = neighbors.getNeighbors(i);
+			degree[i] += near.length;
+			for (int e = 0; e < near.length; ++e) {
+				++degree[near[e]];
+			}
+		}
+		// each directed affinity goes in row i and in row j, as (column, value) packed into a long
+		int[] start = new int[n + 1];
+		for (int i = 0; i < n; ++i) {
+			start[i + 1] = start[i] + degree[i];
+		}
+		long[] entries = new long[start[n]];
+		int[] fill = new int[n];
+		System.arraycopy(start, 0, fill, 0, n);
+		for (int i = 0; i < n; ++i) {
+			int[] near = neighbors.getNeighbors(i);
+			for (int e = 0; e < near.length; ++e) {
+				long bits = Float.floatToIntBits(directed[i][e]) & 0xffffffffL;
+				entries[fill[i]++] = ((long) near[e] << 32) | bits;
+				entries[fill[near[e]]++] = ((long) i << 32) | bits;
+			}
+		}
+		// sort each row by column and combine the two directions of each pair
+		rowStart = new int[n + 1];
+		columns = new int[entries.length];
+		values = new float[entries.length];
+		int count = 0;
+		for (int i = 0; i < n; ++i) {
+			rowStart[i] = count;
+			java.util.Arrays.sort(entries, start[i], start[i + 1]);
+			for (int e = start[i]; e < start[i + 1]; ++e) {
+				int column = (int) (entries[e] >>> 32);
+				float value = Float.intBitsToFloat((int) entries[e]);
+				if (count > rowStart[i] && columns[count - 1] == column) {
+					float other = values[count - 1];
+					values[count - 1] = fuzzyUnion ? other + value - other * value : other + value;
+				} else {
+					columns[count] = column;
+					values[count] = value;
+					++count;
+				}
+			}
+		}
+		rowStart[n] = count;
+	}
+
+	/** Returns the number of nonzero entries, counting each pair twice (once in each row) */
+	public int getNumberOfEntries() {
+		return rowStart[rowStart.length - 1];
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * MDS by negative sampling, for large tree sets.  Each point keeps a fixed list of its
+ * numberOfNeighbors nearest points (by the stored differences), and in each iteration is
+ * moved toward its target difference from each of them and from numberOfNegatives points
+ * drawn afresh at random, so that an iteration costs O(n * (numberOfNeighbors + numberOfNegatives))
+ * instead of O(n^2).  The neighbours hold the local structure together; the random
+ * points, most of which are far away, spread the layout out.
+ * <p>
+ * Like the other stochastic variants, a pair term moves both its points by the fraction mu
+ * of its residual, with mu annealed over ANNEALING_ITERATIONS.  The stress of the sampled
+ * terms says little about the quality of the approximation, so every MEASUREMENT_INTERVAL
+ * iterations a copy of the layout is handed to a FullStressMeasurement thread, which
+ * computes the Kruskal stress over all differences without holding up the iterations.
+ * Once a full measurement is available it is the stress reported.
+ */
+class NegativeSamplingMDS extends MDS {
+
+	/** number of nearest neighbours each point is held to, unless set otherwise */
+	protected static final int DEFAULT_NEIGHBORS = 10;
+	/** number of random points each point is compared with in each iteration, unless set otherwise */
+	protected static final int DEFAULT_NEGATIVES = 5;
+	/** number of iterations over which mu is annealed from MU_MAX to MU_MIN */
+	protected static final int ANNEALING_ITERATIONS = 60;
+	/** fraction of the residual corrected by a pair term at the start and end of annealing */
+	protected static final float MU_MAX = 0.5f, MU_MIN = 0.01f;
+	/** least number of iterations between the starts of full stress measurements */
+	protected static final int MEASUREMENT_INTERVAL = 10;
+	/** after annealing, converged when successive full stress measurements differ by less than this fraction */
+	protected static final float TOLERANCE = 1e-3f;
+
+	private int numberOfNeighbors = DEFAULT_NEIGHBORS;
+	private int numberOfNegatives = DEFAULT_NEGATIVES;
+	/** the points nearest to each point; null until found */
+	private NearestNeighbors neighbors;
+	/** iterations done since the annealing schedule was last started over */
+	private int iteration;
+	/** generation of the differences the schedule was started for; -1 to start it over at the next restart */
+	private int scheduledGeneration = -1;
+	/** the measurement in progress or last finished; null if none since the last restart */
+	private FullStressMeasurement measurement;
+	/** iteration at which the current measurement was started */
+	private int measurementIteration;
+	/** true once the result of the current measurement has been taken as fullStress */
+	private boolean measurementCollected;
+	/** the last two full stress measurements; -1 if not measured */
+	private float fullStress = -1, previousFullStress = -1;
+	private java.util.Random randomSource = new java.util.Random();
+	private float stress_diff_accum, stress_norm_accum;
+
+	public NegativeSamplingMDS(SampledDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+	}
+
+	public synchronized void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		neighbors = null;
+		scheduledGeneration = -1;
+		restart();
+	}
+
+	/** Randomizes the embedding, and starts the annealing schedule over at the next restart. */
+	public synchronized void randomize_nodes(java.util.Random random_source) {
+		super.randomize_nodes(random_source);
+		scheduledGeneration = -1;
+	}
+
+	/** Sets how many nearest neighbours each point is held to.  The lists are rebuilt before the next iteration. */
+	public synchronized void setNumberOfNeighbors(int k) {
+		if (k != numberOfNeighbors) {
+			numberOfNeighbors = k;
+			neighbors = null;
+		}
+	}
+
+	public synchronized int getNumberOfNeighbors() {
+		return numberOfNeighbors;
+	}
+
+	/** Sets how many random points each point is compared with in each iteration. */
+	public synchronized void setNumberOfNegatives(int m) {
+		numberOfNegatives = m;
+	}
+
+	public synchronized int getNumberOfNegatives() {
+		return numberOfNegatives;
+	}
+
+	/**
+	 * Starts the annealing schedule over if the differences have changed; after a warm start,
+	 * halfway through it.  Otherwise the schedule carries on, so stopping and starting MDS keeps
+	 * the layout.  Discards stress measurements of the old inputs either way.
+	 */
+	public synchronized void restart() {
+		if (neighbors != null && neighbors.getGeneration() != targetDistances.getGeneration()) {
+			neighbors = null;
+		}
+		if (scheduledGeneration != targetDistances.getGeneration()) {
+			iteration = warmStarted ? ANNEALING_ITERATIONS / 2 : 0;
+			scheduledGeneration = targetDistances.getGeneration();
+		}
+		warmStarted = false;
+		if (measurement != null) {
+			measurement.halt(); // an unfinished one measures the old inputs, so is stopped rather than left to run
+			measurement = null;
+		}
+		fullStress = previousFullStress = -1;
+	}
+
+	/** Negative sampling follows its own annealing schedule; the step size is not tuned. */
+	public boolean getAdaptiveStepSize() {
+		return false;
+	}
+
+	/** Converged once annealing is over and the full stress no longer changes appreciably. */
+	public synchronized boolean hasConverged() {
+		return iteration > ANNEALING_ITERATIONS && previousFullStress > 0
+				&& Math.abs(previousFullStress - fullStress) / previousFullStress < TOLERANCE;
+	}
+
+	/** Returns the last full stress measured, or -1 if none has finished since the inputs changed. */
+	public synchronized float getFullStress() {
+		return fullStress;
+	}
+
+	/** Performs one iteration: each point is compared with its neighbours and with fresh random points. */
+	public synchronized void doOneIteration() {
+		if (neighbors == null) {
+			neighbors = new NearestNeighbors(targetDistances, numberOfNeighbors);
+		}
+		if (n_nodes < 2) {
+			return;
+		}
+		float mu = Math.max(MU_MIN, (float) (MU_MAX * Math.pow(MU_MIN / MU_MAX, (double) iteration / (ANNEALING_ITERATIONS - 1))));
+		boolean sampling = targetDistances.getSampling();
+		stress_diff_accum = 0;
+		stress_norm_accum = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			int[] near = neighbors.getNeighbors(i);
+			for (int k = 0; k < near.length; ++k) {
+				updatePair(i, near[k], mu, sampling);
+			}
+			for (int k = 0; k < numberOfNegatives; ++k) {
+				int j = randomSource.nextInt(n_nodes - 1);
+				updatePair(i, (j < i) ? j : j + 1, mu, sampling);
+			}
+		}
+		++iteration;
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum / stress_norm_accum);
+		}
+		checkMeasurement();
+		if (fullStress >= 0) {
+			stress = fullStress;
+		}
+	}
+
+	/** Collects a finished full stress measurement, and starts another if it is time. */
+	private void checkMeasurement() {
+		if (measurement != null) {
+			if (measurement.isAlive()) {
+				return;
+			}
+			if (!measurementCollected) {
+				previousFullStress = fullStress;
+				fullStress = measurement.getStress();
+				measurementCollected = true;
+			}
+			if (iteration - measurementIteration < MEASUREMENT_INTERVAL) {
+				return;
+			}
+		}
+		float[] positions = new float[n_nodes * n_dims];
+		float[] point = new float[n_dims];
+		for (int i = 0; i < n_nodes; ++i) {
+			nodes[i].copyInto(point);
+			System.arraycopy(point, 0, positions, i * n_dims, n_dims);
+		}
+		measurement = new FullStressMeasurement(targetDistances, positions, n_nodes, n_dims);
+		measurementIteration = iteration;
+		measurementCollected = false;
+		measurement.start();
+	}
+
+	/** Moves points i and j toward their target difference by the fraction mu of the residual, honoring the sample as MDS does. */
+	private final void updatePair(int i, int j, float mu, boolean sampling) {
+		float diff = targetDistances.getElement(i, j);
+		if (diff < 0) {
+			return; // not computed yet
+		}
+		boolean moveI = !sampling || targetDistances.diffInSample(i,j);
+		boolean moveJ = !sampling || targetDistances.diffInSample(j,i);
+		if (!moveI && !moveJ) {
+			return;
+		}
+		d.setToDifference(nodes[i], nodes[j]);
+		float d_length = d.magnitude();
+		// If two points are on top of each other, we need to pick an arbitrary direction to nudge them apart.
+		if (d_length == 0) {
+			d.add(nudgeVector);
+			d_length = nudgeVectorLength;
+		}
+		float resid = d_length - diff;
+		stress_diff_accum += resid * resid;
+		stress_norm_accum += d_length * d_length;
+		if (moveI && moveJ) {
+			d.scale(mu * resid / (2 * d_length));
+			nodes[i].subtract(d);
+			nodes[j].add(d);
+		} else {
+			d.scale(mu * resid / d_length);
+			if (moveI) {
+				nodes[i].subtract(d);
+			} else {
+				nodes[j].add(d);
+			}
+		}
+	}
+}
+
+/**
+ * Computes the Kruskal stress of a copy of an embedding over all computed differences, in
+ * its own thread at low priority, so that an approximate MDS can report its true quality.
+ */
+class FullStressMeasurement extends Thread {
+	private SampledDiffMatrix targetDistances;
+	/** the coordinates of point i are positions[i*n_dims] through positions[i*n_dims + n_dims-1] */
+	private float[] positions;
+	private int n_nodes, n_dims;
+	/** the result; -1 until finished */
+	private volatile float stress = -1;
+	private volatile boolean haltFlag = false;
+
+	public FullStressMeasurement(SampledDiffMatrix targetDistances, float[] positions, int n_nodes, int n_dims) {
+		super("Full stress measurement");
+		this.targetDistances = targetDistances;
+		this.positions = positions;
+		this.n_nodes = n_nodes;
+		this.n_dims = n_dims;
+		setDaemon(true);
+		setPriority(MIN_PRIORITY);
+	}
+
+	/** Returns the stress measured, or -1 if the measurement isn't finished */
+	public float getStress() {
+		return stress;
+	}
+
+	/** Stops the measurement at the end of the row it is on; its stress is then never set. */
+	public void halt() {
+		haltFlag = true;
+	}
+
+	public void run() {
+		double stress_diff_accum = 0;
+		double stress_norm_accum = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			if (haltFlag) {
+				return;
+			}
+			for (int j = 0; j < i; ++j) {
+				float target = targetDistances.getElement(i, j);
+				if (target < 0) {
+					continue; // not yet computed
+				}
+				double d_squared = 0;
+				for (int c = 0; c < n_dims; ++c) {
+					double delta = positions[i * n_dims + c] - positions[j * n_dims + c];
+					d_squared += delta * delta;
+				}
+				double d_length = Math.sqrt(d_squared);
+				double resid = d_length - target;
+				stress_diff_accum += resid * resid;
+				stress_norm_accum += d_squared;
+			}
+		}
+		// this is a normalized stress, called Kruskal-1
+		stress = (stress_norm_accum > 0) ? (float) Math.sqrt(stress_diff_accum / stress_norm_accum) : 0;
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.BitSet;
+
+/**
+ * A uniform grid over the screen locations of the drawn points, used to find the points near
+ * a click or inside a selection box or lasso, or in the view, without looking at all of them.  Built in O(n)
+ * by a counting sort of the points into square cells; a query looks only at the cells it
+ * overlaps, and takes every point of a cell wholly inside a box without testing it.  Points
+ * off the screen are put in the border cells, so queries stay exact.
+ */
+class PointGrid {
+	/** Width and height of a cell, in pixels */
+	private static final int CELL_SIZE = 8;
+
+	private int columns;
+	private int rows;
+	/** the items in cell c are items[cellStart[c]] to items[cellStart[c+1] - 1] */
+	private int[] cellStart;
+	private int[] items;
+	/** screen location of each item indexed, by item number */
+	private int[] xs;
+	private int[] ys;
+
+	/**
+	 * Indexes points[items[k]] for k less than count, on a screen width x height.  If items
+	 * is null, points[0] to points[count - 1] are indexed.
+	 */
+	public void build(Point[] points, int[] items, int count, int width, int height) {
+		allocate(points.length, width, height);
+		for (int k = 0; k < count; k++) {
+			int i = items == null ? k : items[k];
+			xs[i] = points[i].x;
+			ys[i] = points[i].y;
+		}
+		index(items, count);
+	}
+
+	/** Indexes the locations (x[i], y[i]), rounded to the nearest pixel, for i less than count, on a screen width x height */
+	public void build(float[] x, float[] y, int count, int width, int height) {
+		allocate(x.length, width, height);
+		for (int i = 0; i < count; i++) {
+			xs[i] = Math.round(x[i]);
+			ys[i] = Math.round(y[i]);
+		}
+		index(null, count);
+	}
+
+	private void allocate(int numberOfItems, int width, int height) {
+		columns = Math.max(1, (width + CELL_SIZE - 1) / CELL_SIZE);
+		rows = Math.max(1, (height + CELL_SIZE - 1) / CELL_SIZE);
+		int numberOfCells = columns * rows;
+		if (cellStart == null || cellStart.length != numberOfCells + 1) {
+			cellStart = new int[numberOfCells + 1];
+		} else {
+			java.util.Arrays.fill(cellStart, 0);
+		}
+		if (xs == null || xs.length != numberOfItems) {
+			xs = new int[numberOfItems];
+			ys = new int[numberOfItems];
+		}
+	}
+
+	/** Sorts the items (or 0 to count - 1, if null) into their cells, their locations having been put in xs and ys */
+	private void index(int[] indexed, int count) {
+		int numberOfCells = columns * rows;
+		for (int k = 0; k < count; k++) {
+			int i = indexed == null ? k : indexed[k];
+			cellStart[cellOf(xs[i], ys[i]) + 1]++;
+		}
+		for (int c = 0; c < numberOfCells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		if (items == null || items.length < count) {
+			items = new int[count];
+		}
+		int[] next = new int[numberOfCells];
+		System.arraycopy(cellStart, 0, next, 0, numberOfCells);
+		for (int k = 0; k < count; k++) {
+			int i = indexed == null ? k : indexed[k];
+			items[next[cellOf(xs[i], ys[i])]++] = i;
+		}
+	}
+
+	private int column(int x) {
+		return Math.max(0, Math.min(columns - 1, x / CELL_SIZE - (x < 0 ? 1 : 0)));
+	}
+
+	private int row(int y) {
+		return Math.max(0, Math.min(rows - 1, y / CELL_SIZE - (y < 0 ? 1 : 0)));
+	}
+
+	private int cellOf(int x, int y) {
+		return row(y) * columns + column(x);
+	}
+
+	/**
+	 * Returns the item nearest (x, y) of those less than sensitivity pixels from it along both
+	 * axes, or -1 if there is none.  Of items equally near, the last is returned.
+	 */
+	public int nearest(int x, int y, int sensitivity) {
+		int closest = -1;
+		long closestDistance = 0;
+		int lastRow = row(y + sensitivity);
+		int lastColumn = column(x + sensitivity);
+		for (int r = row(y - sensitivity); r <= lastRow; r++) {
+			for (int c = column(x - sensitivity); c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = items[k];
+					int dx = xs[i] - x;
+					int dy = ys[i] - y;
+					if (Math.abs(dx) < sensitivity && Math.abs(dy) < sensitivity) {
+						long distance = (long) dx * dx + (long) dy * dy;
+						if (closest == -1 || distance < closestDistance || (distance == closestDistance && i > closest)) {
+							closest = i;
+							closestDistance = distance;
+						}
+					}
+				}
+			}
+		}
+		return closest;
+	}
+
+	/** Sets the bit in selected of every item inside rectangle (as by Rectangle.contains) */
+	public void selectInRectangle(Rectangle rectangle, BitSet selected) {
+		if (rectangle.width <= 0 || rectangle.height <= 0) {
+			return;
+		}
+		int right = rectangle.x + rectangle.width; // exclusive
+		int bottom = rectangle.y + rectangle.height;
+		int firstRow = row(rectangle.y);
+		int lastRow = row(bottom - 1);
+		int firstColumn = column(rectangle.x);
+		int lastColumn = column(right - 1);
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstColumn; c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				// interior cells (not on the border of the grid, where off-screen points are kept) need no tests
+				boolean inside = c > 0 && r > 0 && c < columns - 1 && r < rows - 1
+						&& c * CELL_SIZE >= rectangle.x && (c + 1) * CELL_SIZE <= right
+						&& r * CELL_SIZE >= rectangle.y && (r + 1) * CELL_SIZE <= bottom;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = items[k];
+					if (inside || rectangle.contains(xs[i], ys[i])) {
+						selected.set(i);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts into found every item inside rectangle (as by Rectangle.contains), in no particular
+	 * order, and returns how many there are.  found must have room for all the items indexed.
+	 */
+	public int collectInRectangle(Rectangle rectangle, int[] found) {
+		int count = 0;
+		if (rectangle.width <= 0 || rectangle.height <= 0) {
+			return 0;
+		}
+		int lastRow = row(rectangle.y + rectangle.height - 1);
+		int lastColumn = column(rectangle.x + rectangle.width - 1);
+		for (int r = row(rectangle.y); r <= lastRow; r++) {
+			for (int c = column(rectangle.x); c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = items[k];
+					if (rectangle.contains(xs[i], ys[i])) {
+						found[count++] = i;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Sets the bit in selected of every item inside the polygon, by the even-odd rule (as by Polygon.contains).  The
+	 * polygon's edge crossings are found once for each pixel row holding a candidate, so each
+	 * candidate costs a binary search rather than a pass over the edges.
+	 */
+	public void selectInPolygon(Polygon polygon, BitSet selected) {
+		if (polygon.npoints < 3) {
+			return;
+		}
+		Rectangle bounds = polygon.getBounds();
+		double[][] crossings = new double[bounds.height + 1][];
+		int lastRow = row(bounds.y + bounds.height);
+		int lastColumn = column(bounds.x + bounds.width);
+		for (int r = row(bounds.y); r <= lastRow; r++) {
+			for (int c = column(bounds.x); c <= lastColumn; c++) {
+				int cell = r * columns + c;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = items[k];
+					int y = ys[i] - bounds.y;
+					if (y < 0 || y > bounds.height || xs[i] < bounds.x || xs[i] > bounds.x + bounds.width) {
+						continue;
+					}
+					if (crossings[y] == null) {
+						crossings[y] = crossingsAt(polygon, ys[i]);
+					}
+					if ((crossings[y].length - crossingsUpTo(crossings[y], xs[i])) % 2 == 1) { // odd number of crossings right of the point
+						selected.set(i);
+					}
+				}
+			}
+		}
+	}
+
+	/** Returns the sorted x coordinates at which the polygon's edges cross the line at height y */
+	private static double[] crossingsAt(Polygon polygon, int y) {
+		double[] found = new double[polygon.npoints];
+		int count = 0;
+		for (int k = 0; k < polygon.npoints; k++) {
+			int x1 = polygon.xpoints[k];
+			int y1 = polygon.ypoints[k];
+			int x2 = polygon.xpoints[(k + 1) % polygon.npoints];
+			int y2 = polygon.ypoints[(k + 1) % polygon.npoints];
+			if ((y1 <= y) != (y2 <= y)) {
+				found[count++] = x1 + (double) (y - y1) * (x2 - x1) / (y2 - y1);
+			}
+		}
+		double[] sorted = new double[count];
+		System.arraycopy(found, 0, sorted, 0, count);
+		java.util.Arrays.sort(sorted);
+		return sorted;
+	}
+
+	/** Returns the number of crossings at or left of x */
+	private static int crossingsUpTo(double[] crossings, int x) {
+		int low = 0;
+		int high = crossings.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (crossings[middle] <= x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An off-screen image whose pixels are written directly, used to draw large point clouds.
+ * Each point icon is drawn once per colour with Graphics2D (antialiased, so it looks like the
+ * icons drawn elsewhere) into a small sprite; drawing a point is then a copy of the sprite's
+ * pixels into the image's int[] raster, with blending only at the antialiased edges.  The
+ * image can also be drawn on with an ordinary Graphics2D for the few things that are not
+ * points (labels, the selection box).
+ */
+class PointRaster {
+	/** Sprites are dropped and rebuilt if more than this many colours have been asked for */
+	private static final int MAX_SPRITES = 4096;
+	/** Half-width of the canvas on which a sprite is drawn, beyond the point size; room for a two-digit icon */
+	private static final int SPRITE_MARGIN = 16;
+
+	private BufferedImage image;
+	/** The pixels of image, row by row */
+	private int[] pixels;
+	/** depth of what is drawn at each pixel, for drawing points in 3D; null until first needed */
+	private float[] depths;
+	private int width;
+	private int height;
+
+	/** sprites for (icon, colour) pairs, keyed by spriteKey */
+	private HashMap sprites = new HashMap();
+	/** the style the sprites were drawn in; a change of any of these rebuilds them */
+	private int pointSize = -1;
+	private boolean frameDot;
+	private Font font;
+	/** magnification of the icons, for drawing at a higher resolution than the screen's */
+	private float scale = 1;
+
+	/**
+	 * Makes sure the image is width x height.  Returns true if a new image was made, in which
+	 * case Graphics made from the old one must be remade.
+	 */
+	public boolean ensureSize(int width, int height) {
+		width = Math.max(width, 1);
+		height = Math.max(height, 1);
+		if (image != null && width == this.width && height == this.height) {
+			return false;
+		}
+		this.width = width;
+		this.height = height;
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		return true;
+	}
+
+	public BufferedImage getImage() { return image; }
+	/** Returns the pixels of the image, row by row, for writing directly */
+	public int[] getPixels() { return pixels; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+
+	/** Returns a Graphics2D that draws on the image, for everything that is not a point */
+	public Graphics2D createGraphics() {
+		return image.createGraphics();
+	}
+
+	/** Fills the whole image with one colour */
+	public void clear(Color background) {
+		Arrays.fill(pixels, background.getRGB() & 0xffffff);
+	}
+
+	/** Makes every pixel infinitely far away, before drawing points with depths */
+	public void clearDepths() {
+		if (depths == null || depths.length != pixels.length) {
+			depths = new float[pixels.length];
+		}
+		Arrays.fill(depths, Float.POSITIVE_INFINITY);
+	}
+
+	/** Sets the point size, dot framing and font the icons are drawn with */
+	public void setIconStyle(int pointSize, boolean frameDot, Font font) {
+		setIconStyle(pointSize, frameDot, font, 1);
+	}
+
+	/** Sets the point size, dot framing and font the icons are drawn with, and how much they are magnified */
+	public void setIconStyle(int pointSize, boolean frameDot, Font font, float scale) {
+		if (font == null) {
+			font = new Font("SansSerif", Font.PLAIN, 12);
+		}
+		if (pointSize != this.pointSize || frameDot != this.frameDot || !font.equals(this.font) || scale != this.scale) {
+			this.pointSize = pointSize;
+			this.frameDot = frameDot;
+			this.font = font;
+			this.scale = scale;
+			sprites.clear();
+		}
+	}
+
+	/** Returns the farthest (in pixels, along either axis) any icon reaches from its point in the current style */
+	public int getIconReach() {
+		return (int) Math.ceil((Math.max(pointSize, 0) + SPRITE_MARGIN) * scale);
+	}
+
+	/** Returns the sprite of icon iconNumber (as numbered by PointIcons) in colour c */
+	public Sprite getSprite(int iconNumber, Color c) {
+		Long key = Long.valueOf(((long) iconNumber << 32) | (c.getRGB() & 0xffffffffL));
+		Sprite s = (Sprite) sprites.get(key);
+		if (s == null) {
+			if (sprites.size() >= MAX_SPRITES) {
+				sprites.clear();
+			}
+			s = new Sprite(iconNumber, c, pointSize < 0 ? 0 : pointSize, frameDot, font, scale);
+			sprites.put(key, s);
+		}
+		return s;
+	}
+
+	/** Draws sprite s centred on (x, y).  Pixels falling outside the image are skipped. */
+	public void stamp(Sprite s, int x, int y) {
+		int[] dx = s.dx;
+		int[] dy = s.dy;
+		int[] argb = s.argb;
+		int n = argb.length;
+		boolean inside = x + s.minX >= 0 && x + s.maxX < width && y + s.minY >= 0 && y + s.maxY < height;
+		if (!inside && (x + s.maxX < 0 || x + s.minX >= width || y + s.maxY < 0 || y + s.minY >= height)) {
+			return; // entirely off the image
+		}
+		for (int k = 0; k < n; k++) {
+			int px = x + dx[k];
+			int py = y + dy[k];
+			if (!inside && (px < 0 || px >= width || py < 0 || py >= height)) {
+				continue;
+			}
+			int index = py * width + px;
+			int src = argb[k];
+			int alpha = src >>> 24;
+			if (alpha == 255) {
+				pixels[index] = src & 0xffffff;
+			} else {
+				pixels[index] = blend(pixels[index], src, alpha);
+			}
+		}
+	}
+
+	/**
+	 * Draws sprite s centred on (x, y) at depth z (smaller is nearer), covering only pixels
+	 * where nothing nearer has been drawn since clearDepths, so that points may be drawn in
+	 * any order.
+	 */
+	public void stamp(Sprite s, int x, int y, float z) {
+		if (x + s.maxX < 0 || x + s.minX >= width || y + s.maxY < 0 || y + s.minY >= height) {
+			return; // entirely off the image
+		}
+		int[] dx = s.dx;
+		int[] dy = s.dy;
+		int[] argb = s.argb;
+		for (int k = 0; k < argb.length; k++) {
+			int px = x + dx[k];
+			int py = y + dy[k];
+			if (px < 0 || px >= width || py < 0 || py >= height) {
+				continue;
+			}
+			int index = py * width + px;
+			if (z > depths[index]) {
+				continue; // behind something already drawn
+			}
+			int src = argb[k];
+			int alpha = src >>> 24;
+			if (alpha == 255) {
+				pixels[index] = src & 0xffffff;
+				depths[index] = z;
+			} else {
+				pixels[index] = blend(pixels[index], src, alpha);
+			}
+		}
+	}
+
+	/** Returns src drawn over dst with the given coverage (0-255); red and blue are blended together in one multiply */
+	private static int blend(int dst, int src, int alpha) {
+		int a = alpha + (alpha >> 7); // 0-256, so that the division is a shift
+		int inverse = 256 - a;
+		int rb = (((src & 0xff00ff) * a + (dst & 0xff00ff) * inverse) >>> 8) & 0xff00ff;
+		int g = (((src & 0xff00) * a + (dst & 0xff00) * inverse) >>> 8) & 0xff00;
+		return rb | g;
+	}
+
+	/**
+	 * The covered pixels of one icon in one colour, as offsets from the point's location.
+	 * Only pixels with some coverage are kept, so stamping costs the icon's area.
+	 */
+	static class Sprite {
+		int[] dx;
+		int[] dy;
+		/** colour and coverage of each pixel */
+		int[] argb;
+		/** bounds of the offsets, for clipping */
+		int minX, maxX, minY, maxY;
+
+		Sprite(int iconNumber, Color c, int pointSize, boolean frameDot, Font font, float scale) {
+			int radius = (int) Math.ceil((pointSize + SPRITE_MARGIN) * scale);
+			int size = 2 * radius + 1;
+			BufferedImage canvas = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g2 = canvas.createGraphics();
+			g2.setFont(font);
+			g2.setColor(c);
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.translate(radius, radius);
+			if (scale != 1) {
+				g2.scale(scale, scale);
+			}
+			PointIcons.draw(iconNumber, g2, new Point(0, 0), pointSize, frameDot);
+			g2.dispose();
+			int[] canvasPixels = ((DataBufferInt) canvas.getRaster().getDataBuffer()).getData();
+			int count = 0;
+			for (int i = 0; i < canvasPixels.length; i++) {
+				if ((canvasPixels[i] >>> 24) != 0) {
+					count++;
+				}
+			}
+			dx = new int[count];
+			dy = new int[count];
+			argb = new int[count];
+			int k = 0;
+			for (int i = 0; i < canvasPixels.length; i++) {
+				int p = canvasPixels[i];
+				if ((p >>> 24) != 0) {
+					dx[k] = i % size - radius;
+					dy[k] = i / size - radius;
+					argb[k] = p; // TYPE_INT_ARGB is not premultiplied
+					minX = Math.min(minX, dx[k]);
+					maxX = Math.max(maxX, dx[k]);
+					minY = Math.min(minY, dy[k]);
+					maxY = Math.max(maxY, dy[k]);
+					k++;
+				}
+			}
+		}
+	}
+}
@@ -58,18 +58,84 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 	protected SelectionManager selectionManager;
 	/** number of items in the sample when sampled-MDS is enabled */
 	private int sampleSize;
-	/** Dimensionality of the MDS embedding */
-	protected static int DIMENSIONS = 2;
+	/** Dimensionality of the MDS embedding: 2, or 3 when the embedding is viewed in 3D */
+	protected int dimensions = 2;
+	/** true if the embedding is made in three dimensions and shown rotatable */
+	protected MesquiteBoolean threeDimensional = new MesquiteBoolean(false);
 	/** constant used to calibrate the stepSize value */
 	protected static float STEPSIZE_DIVIDEND = 1.8245f;
+	/** Kinds of MDS the user can choose among.  These index MDS_METHOD_NAMES. */
+	protected static final int FULL_GRADIENT_MDS = 0;
+	protected static final int STOCHASTIC_MDS = 1;
+	protected static final int LANDMARK_MDS = 2;
+	protected static final int MULTILEVEL_MDS = 3;
+	protected static final int NEGATIVE_SAMPLING_MDS = 4;
+	protected static final int TSNE_EMBEDDING = 5;
+	protected static final int UMAP_EMBEDDING = 6;
+	/** Names of the kinds of MDS, as shown in the MDS Method submenu */
+	protected static final String[] MDS_METHOD_NAMES = {"Full Gradient", "Stochastic Gradient (SGD)", "Landmark", "Multilevel", "Negative Sampling", "t-SNE", "UMAP"};
+	/** How the points are drawn: each one, as density, or as density only when very many are on the screen */
+	protected static final int DISPLAY_POINTS = 0;
+	protected static final int DISPLAY_DENSITY = 1;
+	protected static final int DISPLAY_AUTOMATIC = 2;
+	/** Names of the display modes, as shown in the Display Mode submenu */
+	protected static final String[] DISPLAY_MODE_NAMES = {"Points", "Density", "Automatic"};
+	/** Largest width or height of an image saved by saveImage */
+	protected static final int MAX_IMAGE_SIZE = 32000;
+	/** Above this many items, Landmark MDS is used from the start, because the full difference matrix would be too big */
+	protected static final int LANDMARK_THRESHOLD = 10000;
+	/** number of landmarks used by Landmark MDS unless the user asks for another number */
+	protected static final int DEFAULT_NUMBER_OF_LANDMARKS = 200;
+	/** number of landmarks to choose for Landmark MDS */
+	private int numberOfLandmarks = DEFAULT_NUMBER_OF_LANDMARKS;
+	/** number of nearest neighbours each point is held to by Negative Sampling MDS */
+	private int numberOfNeighbors = NegativeSamplingMDS.DEFAULT_NEIGHBORS;
+	/** number of random points each point is compared with in each iteration of Negative Sampling MDS */
+	private int numberOfNegatives = NegativeSamplingMDS.DEFAULT_NEGATIVES;
+	/** perplexity of the affinities used by t-SNE */
+	private float perplexity = TSNE.DEFAULT_PERPLEXITY;
+	/** number of nearest neighbours in the graph built by UMAP */
+	private int umapNeighbors = UMAP.DEFAULT_NEIGHBORS;
+	/** true if landmarks are chosen by maxmin (each the farthest from those already chosen); false for random */
+	protected MesquiteBoolean maxminLandmarks = new MesquiteBoolean(true);
+	/** true if differences are computed in the background, those of the sampled points first,
+	 *  instead of all being computed before the embedding starts */
+	protected MesquiteBoolean lazyDifferences = new MesquiteBoolean(false);
+	/** true if points are added to the embedding one by one as their differences are computed */
+	protected MesquiteBoolean progressiveEmbedding = new MesquiteBoolean(false);
+	/** most times per second the embedding is redrawn while MDS runs */
+	private int frameRate = FrameScheduler.DEFAULT_FRAME_RATE;
+	/** redraws the embedding at no more than frameRate while MDS runs */
+	private FrameScheduler frameScheduler;
+	/** true if dragging in the embedding draws a freehand lasso around the points to select, instead of a box */
+	protected MesquiteBoolean lassoSelection = new MesquiteBoolean(false);
+	/** differences from each placed item (one not part of the embedding) to every item; -1 where not computed */
+	private ArrayList placedDiffs = new ArrayList();
+	/** names of the placed items */
+	private ArrayList placedNames = new ArrayList();
+	/** the multi-start runs in progress, or the last ones finished (for their stress traces); null if none */
+	private MultiStartMDS multiStart;
+	/** seed for the random choice of samples; 0 means unseeded */
+	private int samplingSeed = 0;
+	/** a new sample is drawn every this many iterations; 0 means the sample is kept until changed by the user */
+	private int resampleInterval = 0;
+	/** the kind of MDS currently in use */
+	private int mdsMethod = FULL_GRADIENT_MDS;
+	/** name of the current kind of MDS, used to check the submenu */
+	private MesquiteString mdsMethodName;
+	/** how the points are drawn; one of the DISPLAY constants */
+	private int displayMode = DISPLAY_AUTOMATIC;
+	private MesquiteString displayModeName;
 
 	/* members for search animation functionality */
 	/** a utility timer thread used to schedule the search animation */
 	private java.util.Timer animationTimer;
-	/** The task that actually does the animation, making one more item visible each time its run() is called */
+	/** The task that actually does the animation, revealing the items due by the time of each frame */
 	private java.util.TimerTask animationTask;
 	/** rate at which items appear in the search animation (items per second) */
 	private final static int DEFAULT_ANIMATION_RATE = 30;
+	/** number of the most recently revealed items highlighted during the animation (0 for none) */
+	private int animationTrail = 0;
 
 	public int pointSize = 1;
 	public boolean frameDot = false;
@@ -157,15 +223,51 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			MesquiteSubmenuSpec mss = ownerModule.addSubmenu(null, "Values to Color Trees", ownerModule.makeCommand("setTreeScoreColorer", this), NumberForTree.class);
 			mss.setSelected(treeScoresTaskName);
 		}
+		if (numberOfItems > LANDMARK_THRESHOLD) {
+			mdsMethod = LANDMARK_MDS;
+		}
+		mdsMethodName = new MesquiteString(MDS_METHOD_NAMES[mdsMethod]);
+		MesquiteSubmenuSpec methodSubmenu = ownerModule.addSubmenu(null, "MDS Method", ownerModule.makeCommand("setMDSMethod", this), MDS_METHOD_NAMES);
+		methodSubmenu.setSelected(mdsMethodName);
+		ownerModule.addMenuItem("Number of Landmarks...", ownerModule.makeCommand("setNumberOfLandmarks", this));
+		ownerModule.addCheckMenuItem(null, "Maxmin Landmarks", ownerModule.makeCommand("toggleMaxminLandmarks", this), maxminLandmarks);
+		ownerModule.addMenuItem("Negative Sampling Neighbors...", ownerModule.makeCommand("setNegativeSamplingNeighbors", this));
+		ownerModule.addMenuItem("Negative Samples...", ownerModule.makeCommand("setNegativeSamples", this));
+		ownerModule.addMenuItem("t-SNE Perplexity...", ownerModule.makeCommand("setPerplexity", this));
+		ownerModule.addMenuItem("UMAP Neighbors...", ownerModule.makeCommand("setUMAPNeighbors", this));
+		ownerModule.addMenuItem("Sampling Seed...", ownerModule.makeCommand("setSamplingSeed", this));
+		ownerModule.addMenuItem("Multi-Start MDS...", ownerModule.makeCommand("multiStart", this));
+		ownerModule.addMenuItem("Show Multi-Start Stress Traces", ownerModule.makeCommand("showMultiStartTraces", this));
+		ownerModule.addCheckMenuItem(null, "Compute Differences on Demand", ownerModule.makeCommand("toggleLazyDifferences", this), lazyDifferences);
+		ownerModule.addCheckMenuItem(null, "Progressive Embedding", ownerModule.makeCommand("toggleProgressiveEmbedding", this), progressiveEmbedding);
+		ownerModule.addMenuItem("Resampling Interval...", ownerModule.makeCommand("setResampleInterval", this));
+		ownerModule.addCheckMenuItem(null, "Lasso Selection", ownerModule.makeCommand("toggleLassoSelection", this), lassoSelection);
+		ownerModule.addMenuItem("Frame Rate...", ownerModule.makeCommand("setFrameRate", this));
+		ownerModule.addMenuItem("Show Whole Embedding", ownerModule.makeCommand("resetZoom", this));
+		ownerModule.addMenuItem("Save Image (PNG)...", ownerModule.makeCommand("saveImage", this));
+		ownerModule.addMenuItem("Animation Trail...", ownerModule.makeCommand("setAnimationTrail", this));
+		ownerModule.addMenuItem("Save Animation Frames...", ownerModule.makeCommand("saveAnimationFrames", this));
+		ownerModule.addCheckMenuItem(null, "3D Embedding", ownerModule.makeCommand("toggle3D", this), threeDimensional);
+		ownerModule.addMenuItem("Reset 3D Rotation", ownerModule.makeCommand("resetRotation", this));
+		displayModeName = new MesquiteString(DISPLAY_MODE_NAMES[displayMode]);
+		MesquiteSubmenuSpec displaySubmenu = ownerModule.addSubmenu(null, "Display Mode", ownerModule.makeCommand("setDisplayMode", this), DISPLAY_MODE_NAMES);
+		displaySubmenu.setSelected(displayModeName);
 
 		sampleSize = numberOfItems / 10 + 1; //initial sample size; sampling is off initially
-		sharedPoints = new SharedPoints(numberOfItems, DIMENSIONS);
-		itemDiffMatrix = new SampledDiffMatrix(numberOfItems);
-		mds = new MDS(itemDiffMatrix, DIMENSIONS, STEPSIZE_DIVIDEND / numberOfItems);
+		sharedPoints = new SharedPoints(numberOfItems, dimensions);
+		itemDiffMatrix = makeDiffMatrix(mdsMethod, numberOfItems);
+		mds = makeMDS(mdsMethod, STEPSIZE_DIVIDEND / numberOfItems);
 		sharedPoints.setPoints(mds.getEmbedding());
 		selectionManager = new SelectionManager(numberOfItems,this);
 		embeddingDisplay = new EmbeddingDisplayPanel(selectionManager, sharedPoints, this, this.ownerModule);
 		selectionManager.setEmbeddingDisplay(embeddingDisplay);
+		frameScheduler = new FrameScheduler(new Runnable() {
+			public void run() {
+				setStress(sharedPoints.getStress());
+				embeddingDisplay.drawFrame();
+			}
+		}, frameRate);
+		frameScheduler.start();
 		selectionManager.setColorKey(null);
 
 //thread had been started here; dangerous, because makes reference to fields not yet initialized here
@@ -476,11 +578,27 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		Snapshot windowSnapshot = super.getSnapshot(file);
 		windowSnapshot.addLine("suppressEPC");
 		windowSnapshot.addLine("setAnimationRate " + animationRateField.getText());
+		windowSnapshot.addLine("setAnimationTrail " + animationTrail);
 		if (treeScoresTask!=null)
 			windowSnapshot.addLine("setTreeScoreColorer", treeScoresTask);
 		windowSnapshot.addLine("setTreesColoredByScore " + treesColoredByScore.toOffOnString());
 		//		windowSnapshot.addLine("setTreeScoreColoring " + MesquiteBoolean.toOffOnString(treeScoreColoringCheckbox.getState()));
+		windowSnapshot.addLine("setNumberOfLandmarks " + numberOfLandmarks);
+		windowSnapshot.addLine("toggleMaxminLandmarks " + maxminLandmarks.toOffOnString());
+		windowSnapshot.addLine("setNegativeSamplingNeighbors " + numberOfNeighbors);
+		windowSnapshot.addLine("setNegativeSamples " + numberOfNegatives);
+		windowSnapshot.addLine("setPerplexity " + MesquiteDouble.toString(perplexity));
+		windowSnapshot.addLine("setUMAPNeighbors " + umapNeighbors);
+		windowSnapshot.addLine("setMDSMethod " + ParseUtil.tokenize(MDS_METHOD_NAMES[mdsMethod]));
 		windowSnapshot.addLine("setStepSize " + stepSizeField.getText());
+		windowSnapshot.addLine("toggleLazyDifferences " + lazyDifferences.toOffOnString());
+		windowSnapshot.addLine("toggleProgressiveEmbedding " + progressiveEmbedding.toOffOnString());
+		windowSnapshot.addLine("setSamplingSeed " + samplingSeed);
+		windowSnapshot.addLine("setResampleInterval " + resampleInterval);
+		windowSnapshot.addLine("toggleLassoSelection " + lassoSelection.toOffOnString());
+		windowSnapshot.addLine("setFrameRate " + frameRate);
+		windowSnapshot.addLine("toggle3D " + threeDimensional.toOffOnString());
+		windowSnapshot.addLine("setDisplayMode " + ParseUtil.tokenize(DISPLAY_MODE_NAMES[displayMode]));
 		windowSnapshot.addLine("setSampleSize " + sampleSizeField.getText());
 		windowSnapshot.addLine("setSampling " + MesquiteBoolean.toOffOnString(sampleCheckbox.getState()));
 		windowSnapshot.addLine("calcScoresIfNeeded");
@@ -509,23 +627,27 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			String argument = parser.getFirstToken(arguments);
 			if (argument != null && argument.equalsIgnoreCase("start")) {
 				// Start MDS
+				if (!prepareDifferences()) {
+					return null; // cancelled
+				}
+				if (multiStart != null && multiStart.isAlive()) {
+					multiStart.halt(); // keep its best embedding so far, and continue from that
+				}
 				synchronized (mdsThread) {
 					// Set the mds thread to run at a lower priority than the user interface thread.
 					if (mdsThread.getPriority() >= Thread.currentThread().getPriority()) {
 						mdsThread.setPriority(Thread.currentThread().getPriority() - 1);
 					}
+					mdsThread.inputsChanged(); // judge convergence afresh from here
 					mdsThread.waitFlag = false;
 					mdsThread.notify();
 				}
-				startStopButton.setActionCommand("stop");
-				startStopButton.setLabel("Stop MDS");
+				showMDSRunning(true);
 			} else {
 				// Stop MDS
-				mdsThread.waitFlag = true;// signal the mds thread to wait() at its next oportunity
-				startStopButton.setActionCommand("start");
-				startStopButton.setLabel("Start MDS");
+				mdsThread.userStopped();// signal the mds thread to wait() at its next oportunity
+				showMDSRunning(false);
 			}
-			startStopButton.repaint();
 
 		}
 		else if (checker.compare(this.getClass(), "Calculates tree scores", null, commandName, "calcScoresIfNeeded")) {
@@ -535,12 +657,225 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		else if (checker.compare(this.getClass(), "Calculates tree scores", null, commandName, "suppressEPC")) {
 			ownerModule.suppressEPC = true;
 		}
+		else if (checker.compare(this.getClass(), "Runs several embeddings from different random starts at once, and keeps the one with the lowest stress", "[number of runs]", commandName, "multiStart")) {
+			int numberOfRuns = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(numberOfRuns) && !MesquiteThread.isScripting()) {
+				numberOfRuns = MesquiteInteger.queryInteger(this, "Multi-Start MDS", "Number of embeddings to run at once from different random starts:", Runtime.getRuntime().availableProcessors(), 2, 64);
+			}
+			if (MesquiteInteger.isCombinable(numberOfRuns) && numberOfRuns >= 2) {
+				startMultiStart(numberOfRuns);
+			}
+		}
+		else if (checker.compare(this.getClass(), "Writes the stress trace of each run of the last multi-start MDS to the log", null, commandName, "showMultiStartTraces")) {
+			if (multiStart == null) {
+				System.out.println("No multi-start MDS has been run.");
+			} else {
+				System.out.println(multiStart.getTraceReport());
+			}
+		}
 		else if (checker.compare(this.getClass(), "Scrambles points", null, commandName, "scrambleButtonCommand")) {
 			mds.randomize_nodes();
 			sharedPoints.setPoints(mds.getEmbedding());
 			embeddingDisplay.repaint();
+			embeddingInputsChanged();
 
 		}
+		else if (checker.compare(this.getClass(), "Sets the kind of MDS used to compute the embedding", "[name or number of method]", commandName, "setMDSMethod")) {
+			String argument = parser.getFirstToken(arguments);
+			int method = MesquiteInteger.fromString(argument);
+			if (!MesquiteInteger.isCombinable(method)) {
+				method = -1;
+				for (int i = 0; i < MDS_METHOD_NAMES.length; ++i) {
+					if (MDS_METHOD_NAMES[i].equalsIgnoreCase(argument)) {
+						method = i;
+					}
+				}
+			}
+			if (method >= 0 && method < MDS_METHOD_NAMES.length) {
+				setMDSMethod(method);
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the number of landmarks used by Landmark MDS", "[number of landmarks]", commandName, "setNumberOfLandmarks")) {
+			int newNumber = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newNumber) && !MesquiteThread.isScripting()) {
+				newNumber = MesquiteInteger.queryInteger(this, "Number of Landmarks", "Number of landmark trees for Landmark MDS:", numberOfLandmarks, 3, 100000);
+			}
+			if (MesquiteInteger.isCombinable(newNumber) && newNumber >= 3 && newNumber != numberOfLandmarks) {
+				numberOfLandmarks = newNumber;
+				recomputeLandmarks();
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the number of nearest neighbours each point is held to by Negative Sampling MDS", "[number of neighbours]", commandName, "setNegativeSamplingNeighbors")) {
+			int newNumber = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newNumber) && !MesquiteThread.isScripting()) {
+				newNumber = MesquiteInteger.queryInteger(this, "Negative Sampling Neighbors", "Number of nearest trees each tree is held to in Negative Sampling MDS:", numberOfNeighbors, 1, 1000);
+			}
+			if (MesquiteInteger.isCombinable(newNumber) && newNumber >= 1 && newNumber != numberOfNeighbors) {
+				numberOfNeighbors = newNumber;
+				if (mds instanceof NegativeSamplingMDS) {
+					((NegativeSamplingMDS) mds).setNumberOfNeighbors(numberOfNeighbors);
+					embeddingInputsChanged();
+				}
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the number of random points each point is compared with in each iteration of Negative Sampling MDS", "[number of samples]", commandName, "setNegativeSamples")) {
+			int newNumber = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newNumber) && !MesquiteThread.isScripting()) {
+				newNumber = MesquiteInteger.queryInteger(this, "Negative Samples", "Number of random trees each tree is compared with in each iteration of Negative Sampling MDS:", numberOfNegatives, 0, 1000);
+			}
+			if (MesquiteInteger.isCombinable(newNumber) && newNumber >= 0 && newNumber != numberOfNegatives) {
+				numberOfNegatives = newNumber;
+				if (mds instanceof NegativeSamplingMDS) {
+					((NegativeSamplingMDS) mds).setNumberOfNegatives(numberOfNegatives);
+					embeddingInputsChanged();
+				}
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the perplexity of the affinities used by t-SNE", "[perplexity]", commandName, "setPerplexity")) {
+			double newPerplexity = MesquiteDouble.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteDouble.isCombinable(newPerplexity) && !MesquiteThread.isScripting()) {
+				newPerplexity = MesquiteDouble.queryDouble(this, "t-SNE Perplexity", "Perplexity (roughly, the number of neighbours each tree is compared with):", perplexity, 2, 1000);
+			}
+			if (MesquiteDouble.isCombinable(newPerplexity) && newPerplexity >= 2 && (float) newPerplexity != perplexity) {
+				perplexity = (float) newPerplexity;
+				if (mds instanceof TSNE) {
+					((TSNE) mds).setPerplexity(perplexity);
+					neighborCountChanged();
+				}
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the number of nearest neighbours in the graph built by UMAP", "[number of neighbours]", commandName, "setUMAPNeighbors")) {
+			int newNumber = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newNumber) && !MesquiteThread.isScripting()) {
+				newNumber = MesquiteInteger.queryInteger(this, "UMAP Neighbors", "Number of nearest trees each tree is joined to in the UMAP graph:", umapNeighbors, 2, 1000);
+			}
+			if (MesquiteInteger.isCombinable(newNumber) && newNumber >= 2 && newNumber != umapNeighbors) {
+				umapNeighbors = newNumber;
+				if (mds instanceof UMAP) {
+					((UMAP) mds).setNumberOfNeighbors(umapNeighbors);
+					neighborCountChanged();
+				}
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets whether points are drawn individually, as density, or as density only when very many are on the screen", "[name or number of mode]", commandName, "setDisplayMode")) {
+			String argument = parser.getFirstToken(arguments);
+			int mode = MesquiteInteger.fromString(argument);
+			if (!MesquiteInteger.isCombinable(mode)) {
+				mode = -1;
+				for (int i = 0; i < DISPLAY_MODE_NAMES.length; ++i) {
+					if (DISPLAY_MODE_NAMES[i].equalsIgnoreCase(argument)) {
+						mode = i;
+					}
+				}
+			}
+			if (mode >= 0 && mode < DISPLAY_MODE_NAMES.length) {
+				displayMode = mode;
+				displayModeName.setValue(DISPLAY_MODE_NAMES[mode]);
+				embeddingDisplay.setDisplayMode(mode);
+				embeddingDisplay.repaint();
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets whether the embedding is made in three dimensions, and shown rotatable by dragging with the right button", "[on = 3D; off = 2D]", commandName, "toggle3D")) {
+			threeDimensional.toggleValue(parser.getFirstToken(arguments));
+			setDimensions(threeDimensional.getValue() ? 3 : 2);
+		}
+		else if (checker.compare(this.getClass(), "Turns the 3D view back to its starting orientation", null, commandName, "resetRotation")) {
+			embeddingDisplay.resetRotation();
+		}
+		else if (checker.compare(this.getClass(), "Zooms the embedding display out to show the whole embedding (the mouse wheel zooms in; the right button drags the view)", null, commandName, "resetZoom")) {
+			embeddingDisplay.resetZoom();
+		}
+		else if (checker.compare(this.getClass(), "Saves the embedding as shown, drawn at any size, as a PNG image", "[width] [height] [path of file]", commandName, "saveImage")) {
+			int width = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			int height = MesquiteInteger.fromString(parser.getNextToken());
+			String path = parser.getNextToken();
+			if (!MesquiteInteger.isCombinable(width) && !MesquiteThread.isScripting()) {
+				width = MesquiteInteger.queryInteger(this, "Image Width", "Width of the image, in pixels:", 4 * embeddingDisplay.getWidth(), 1, MAX_IMAGE_SIZE);
+			}
+			if (MesquiteInteger.isCombinable(width) && !MesquiteInteger.isCombinable(height) && !MesquiteThread.isScripting()) {
+				height = MesquiteInteger.queryInteger(this, "Image Height", "Height of the image, in pixels:", width, 1, MAX_IMAGE_SIZE);
+			}
+			if (MesquiteInteger.isCombinable(width) && MesquiteInteger.isCombinable(height) && width >= 1 && height >= 1 && width <= MAX_IMAGE_SIZE && height <= MAX_IMAGE_SIZE) {
+				saveImage(width, height, path);
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets how many of the most recently revealed items are highlighted while the tree order is animated", "[number of items; 0 for none]", commandName, "setAnimationTrail")) {
+			int newTrail = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newTrail) && !MesquiteThread.isScripting()) {
+				newTrail = MesquiteInteger.queryInteger(this, "Animation Trail", "Number of the most recently revealed items to highlight while animating the tree order (0 for none):", animationTrail, 0, 100000);
+			}
+			if (MesquiteInteger.isCombinable(newTrail) && newTrail >= 0) {
+				animationTrail = newTrail;
+			}
+		}
+		else if (checker.compare(this.getClass(), "Saves the animation of the tree order, at the animation rate, as numbered PNG frames", "[frames per second] [path of the first frame]", commandName, "saveAnimationFrames")) {
+			int framesPerSecond = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			String path = parser.getNextToken();
+			if (!MesquiteInteger.isCombinable(framesPerSecond) && !MesquiteThread.isScripting()) {
+				framesPerSecond = MesquiteInteger.queryInteger(this, "Animation Frames", "Frames per second of the saved animation:", 30, 1, 240);
+			}
+			if (MesquiteInteger.isCombinable(framesPerSecond) && framesPerSecond >= 1) {
+				saveAnimationFrames(framesPerSecond, path);
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the most times per second the embedding is redrawn while MDS runs", "[frames per second]", commandName, "setFrameRate")) {
+			int newRate = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newRate) && !MesquiteThread.isScripting()) {
+				newRate = MesquiteInteger.queryInteger(this, "Frame Rate", "Most times per second the embedding is redrawn while MDS runs:", frameRate, 1, 120);
+			}
+			if (MesquiteInteger.isCombinable(newRate) && newRate >= 1 && newRate != frameRate) {
+				frameRate = newRate;
+				frameScheduler.setFrameRate(frameRate);
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets whether dragging in the embedding selects with a freehand lasso or a box", "[on = lasso; off = box]", commandName, "toggleLassoSelection")) {
+			lassoSelection.toggleValue(parser.getFirstToken(arguments));
+		}
+		else if (checker.compare(this.getClass(), "Sets whether Landmark MDS chooses landmarks by maxmin or at random", "[on = maxmin; off = random]", commandName, "toggleMaxminLandmarks")) {
+			maxminLandmarks.toggleValue(parser.getFirstToken(arguments));
+			recomputeLandmarks();
+		}
+		else if (checker.compare(this.getClass(), "Sets whether differences are computed on demand in the background, sampled points first", "[on; off]", commandName, "toggleLazyDifferences")) {
+			boolean wasLazy = lazyDifferences.getValue();
+			lazyDifferences.toggleValue(parser.getFirstToken(arguments));
+			if (wasLazy != lazyDifferences.getValue() && usesFullMatrix() && !MesquiteThread.isScripting()) {
+				computeDM();
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets whether points join the embedding one by one while their differences are computed", "[on; off]", commandName, "toggleProgressiveEmbedding")) {
+			boolean wasProgressive = progressiveEmbedding.getValue();
+			progressiveEmbedding.toggleValue(parser.getFirstToken(arguments));
+			if (wasProgressive != progressiveEmbedding.getValue() && usesFullMatrix() && !MesquiteThread.isScripting()) {
+				computeDM();
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets the seed for the random choice of samples, so that runs can be repeated", "[seed; 0 for unseeded]", commandName, "setSamplingSeed")) {
+			int newSeed = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newSeed) && !MesquiteThread.isScripting()) {
+				newSeed = MesquiteInteger.queryInteger(this, "Sampling Seed", "Seed for the random choice of samples (0 for a different sample each time):", samplingSeed);
+			}
+			if (MesquiteInteger.isCombinable(newSeed)) {
+				samplingSeed = newSeed;
+				itemDiffMatrix.setSeed(samplingSeed);
+				if (itemDiffMatrix.getSampling()) { // draw the sample that belongs to the seed
+					itemDiffMatrix.resample();
+					sampleChanged();
+					embeddingDisplay.repaint();
+					embeddingInputsChanged();
+				}
+			}
+		}
+		else if (checker.compare(this.getClass(), "Sets how many iterations pass before a new sample is drawn", "[iterations; 0 to keep the sample]", commandName, "setResampleInterval")) {
+			int newInterval = MesquiteInteger.fromString(parser.getFirstToken(arguments));
+			if (!MesquiteInteger.isCombinable(newInterval) && !MesquiteThread.isScripting()) {
+				newInterval = MesquiteInteger.queryInteger(this, "Resampling Interval", "Draw a new sample every how many iterations (0 to keep the sample)?", resampleInterval, 0, MesquiteInteger.infinite);
+			}
+			if (MesquiteInteger.isCombinable(newInterval) && newInterval >= 0) {
+				resampleInterval = newInterval;
+				itemDiffMatrix.setResampleInterval(resampleInterval);
+				embeddingInputsChanged();
+			}
+		}
 		else if (checker.compare(this.getClass(), "sets the step size", "[step size]", commandName, "setStepSize")) {
 			stepSizeField.setText(parser.getFirstToken(arguments));
 			/* First, check to see if they entered a legal step size.
@@ -558,6 +893,7 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			mds.setStepSize(newValue);
 			stepSizeField.setText(Float.toString(newValue));
 			stepSizeField.selectAll();
+			embeddingInputsChanged();
 
 		}
 		else if (checker.compare(this.getClass(), "Increments step size", null, commandName, "incStepSizeButtonCommand")) {
@@ -567,6 +903,7 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			stepSizeField.setText(Float.toString(d));
 			stepSizeField.selectAll();
 			mds.setStepSize(d);
+			embeddingInputsChanged();
 
 		}
 		else if (checker.compare(this.getClass(), "Decrements step size", null, commandName, "decStepSizeButtonCommand")) {
@@ -575,6 +912,7 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			stepSizeField.setText(Float.toString(d));
 			stepSizeField.selectAll();
 			mds.setStepSize(d);
+			embeddingInputsChanged();
 
 		}
 		else if (checker.compare(this.getClass(), "sets the sample size", "[sample size]", commandName, "setSampleSize")) {
@@ -596,18 +934,12 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 				sampleSize = newValue;
 				sampleSizeField.setText(Integer.toString(newValue));
 				itemDiffMatrix.sampleByPoint(newValue);
-				// get sample set
-				BitSet sampleSet = new BitSet(itemDiffMatrix.getNumberOfItems());
-				for (int i = 0; i < itemDiffMatrix.getNumberOfItems(); ++i) {
-					if (itemDiffMatrix.pointInSample(i)) {
-						sampleSet.set(i);
-					}
-				}
 				// send sample set to embedding display
-				embeddingDisplay.setSample(sampleSet);
+				sampleChanged();
 				embeddingDisplay.repaint();
 				mds.setStepSize(STEPSIZE_DIVIDEND / newValue);
 				stepSizeField.setText(Float.toString(STEPSIZE_DIVIDEND / newValue));
+				embeddingInputsChanged();
 			} else {
 				// Illegal input; reset the field to contain the old sample size
 				sampleSizeField.setText(Integer.toString(sampleSize));
@@ -617,18 +949,12 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		}
 		else if (checker.compare(this.getClass(), "turns sampling on or off", "[on; off]", commandName, "setSampling")) {
 			sampleCheckbox.setState(MesquiteBoolean.fromOffOnString(parser.getFirstToken(arguments)));
-			BitSet sampleSet = new BitSet(itemDiffMatrix.getNumberOfItems());
 			if (sampleCheckbox.getState()) {// Box is checked
 				itemDiffMatrix.sampleByPoint(sampleSize);
 				sampleSizeField.setEnabled(true);
 				sampleSizeField.setEditable(true);
 				sampleSizeField.setText(Integer.toString(sampleSize));
 				sampleSizeField.selectAll();
-				for (int i = 0; i < itemDiffMatrix.getNumberOfItems(); ++i) {
-					if (itemDiffMatrix.pointInSample(i)) {
-						sampleSet.set(i);
-					}
-				}
 				mds.setStepSize(STEPSIZE_DIVIDEND / sampleSize);
 				stepSizeField.setText(Float.toString(STEPSIZE_DIVIDEND / sampleSize));
 			} else { // Box is unchecked
@@ -641,8 +967,9 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 				mds.setStepSize(STEPSIZE_DIVIDEND / itemDiffMatrix.getNumberOfItems());
 				stepSizeField.setText(Float.toString(STEPSIZE_DIVIDEND / itemDiffMatrix.getNumberOfItems()));
 			}
-			embeddingDisplay.setSample(sampleSet);
+			sampleChanged();
 			embeddingDisplay.repaint();
+			embeddingInputsChanged();
 
 		}
 		else if (checker.compare(this.getClass(), "Start the animation of sequence", null, commandName, "animateButtonCommand")) {
@@ -651,44 +978,41 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 			animationTimer.cancel();
 			animationTimer = new java.util.Timer();
 
+			final int animationRate = getAnimationRate();
 			// Make a new task to run the animation
 			animationTask = new java.util.TimerTask() {
-				int runCount = 0;
+				final long start = System.currentTimeMillis();
 				final int lastRun = itemDiffMatrix.getNumberOfItems();
-				// The run method is called periodically by the timer thread.
+				// The run method is called once a frame by the timer thread, and reveals the items due by now.
 				public void run() {
+					int runCount = (int) Math.min(lastRun, (System.currentTimeMillis() - start) * animationRate / 1000);
 					if (runCount < lastRun) {
-						// Make one more point visible and call for a re-draw.
+						// Make the items due visible and call for the next frame, which draws only them.
 						embeddingDisplay.setLastShown(runCount);
-						embeddingDisplay.repaint();
+						embeddingDisplay.repaintAnimation();
 						if (colorKey != null) {
 							colorKey.setLastShown(runCount);
 							colorKey.repaint();
 						}
-						runCount++;
 					} else {
 						// Remove the current task from execution ability by the timer.
 						cancel();
+						embeddingDisplay.setLastShown(lastRun);
+						embeddingDisplay.setAnimating(false, 0);
+						if (colorKey != null) {
+							colorKey.setLastShown(lastRun);
+							colorKey.repaint();
+						}
 						animationRateField.setEnabled(true);
 						animationRateField.setEditable(true);
 					}
 				}
 			};
 
-			boolean illegalRate = false;
-			int animationRate = DEFAULT_ANIMATION_RATE;
-			try {
-				animationRate = Integer.parseInt(animationRateField.getText());
-			} catch (NumberFormatException nfe) {
-				illegalRate = true;
-			}
-			if (illegalRate || animationRate < 1 || animationRate > 1000) {
-				animationRate = DEFAULT_ANIMATION_RATE;
-				animationRateField.setText(Integer.toString(DEFAULT_ANIMATION_RATE));
-			}
-
 			// Start the animation -- It will kill itself when it is finished.
-			animationTimer.scheduleAtFixedRate(animationTask, 0, 1000 / animationRate);
+			// Frames come at the frame rate, or once an item if that is slower; each reveals every item due.
+			embeddingDisplay.setAnimating(true, animationTrail);
+			animationTimer.scheduleAtFixedRate(animationTask, 0, 1000 / Math.min(animationRate, frameRate));
 			// The rate cannot be changed while animation is running.
 			animationRateField.setEnabled(false);
 			animationRateField.setEditable(false);
@@ -787,6 +1111,7 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		// still be null, so the following lines won't have any effect.
 		embeddingDisplay.setTreeScoreColoring(treeScoreColoringCheckbox.getState());
 		embeddingDisplay.setTreeScoreColors(treeScoreColors);
+		embeddingDisplay.setTreeScores(treeScores);
 		if (colorKey != null){
 			if (treeScoresTask != null)
 
@@ -808,15 +1133,27 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 
 	}
 	public void resetNumberOfItems(int newNumberOfItems) {
+		clearPlacedItemsIfAny(); // their differences are to the old items
 		sampleSize = newNumberOfItems / 10 + 1; //new default sample size;
 		sharedPoints.resetNumberOfPoints(newNumberOfItems);
-		itemDiffMatrix.resetNumberOfItems(newNumberOfItems);
-		mds.resetNumberOfItems(newNumberOfItems);
+		if (newNumberOfItems > LANDMARK_THRESHOLD && mdsMethod != LANDMARK_MDS) {
+			// too many items for the full matrix; switch to Landmark MDS
+			itemDiffMatrix = null;
+			mdsMethod = LANDMARK_MDS;
+			mdsMethodName.setValue(MDS_METHOD_NAMES[mdsMethod]);
+			itemDiffMatrix = makeDiffMatrix(mdsMethod, newNumberOfItems);
+			mds = makeMDS(mdsMethod, STEPSIZE_DIVIDEND / newNumberOfItems);
+			mdsThread.setMDS(mds);
+		} else {
+			itemDiffMatrix.resetNumberOfItems(newNumberOfItems);
+			mds.resetNumberOfItems(newNumberOfItems);
+		}
 		mds.setStepSize(STEPSIZE_DIVIDEND / newNumberOfItems);
 		sharedPoints.setPoints(mds.getEmbedding());
 		selectionManager.resetNumberOfItems(newNumberOfItems, this);
 		embeddingDisplay.resetNumberOfItems(newNumberOfItems);
 		embeddingDisplay.repaint();
+		embeddingInputsChanged();
 	}
 
 	public Dimension getMinimumSize() { return new Dimension(100,100); }
@@ -826,7 +1163,437 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 	 * asks the MDS Thread to exit cleanly
 	 */
 	public void haltThreads() {
-		mdsThread.exitFlag = true;
+		if (multiStart != null) {
+			multiStart.halt();
+		}
+		frameScheduler.halt();
+		synchronized (mdsThread) {
+			mdsThread.exitFlag = true;
+			// wake the thread if it is suspended, so that it can see the exit flag and die
+			mdsThread.waitFlag = false;
+			mdsThread.notify();
+		}
+	}
+
+	/**
+	 * Called whenever something the embedding depends on changes: the difference matrix,
+	 * the sample, the step size, or the points themselves.  If MDS had stopped itself
+	 * because the embedding converged, it is started again.
+	 */
+	protected void embeddingInputsChanged() {
+		if (mdsThread != null && mdsThread.inputsChanged()) {
+			showMDSRunning(true);
+		}
+	}
+
+	/** Constructs the MDS object for one of the kinds of MDS listed in MDS_METHOD_NAMES, over itemDiffMatrix. */
+	protected MDS makeMDS(int method, float stepSize) {
+		switch (method) {
+		case STOCHASTIC_MDS: return new StochasticMDS(itemDiffMatrix, dimensions, stepSize);
+		case LANDMARK_MDS: return new LandmarkMDS((LandmarkDiffMatrix) itemDiffMatrix, dimensions, stepSize);
+		case MULTILEVEL_MDS: return new MultilevelMDS(itemDiffMatrix, dimensions, stepSize);
+		case NEGATIVE_SAMPLING_MDS:
+			NegativeSamplingMDS negativeSampling = new NegativeSamplingMDS(itemDiffMatrix, dimensions, stepSize);
+			negativeSampling.setNumberOfNeighbors(numberOfNeighbors);
+			negativeSampling.setNumberOfNegatives(numberOfNegatives);
+			return negativeSampling;
+		case UMAP_EMBEDDING:
+			UMAP umap = new UMAP(itemDiffMatrix, dimensions, stepSize);
+			umap.setNumberOfNeighbors(umapNeighbors);
+			return umap;
+		case TSNE_EMBEDDING:
+			TSNE tsne = new TSNE(itemDiffMatrix, dimensions, stepSize);
+			tsne.setPerplexity(perplexity);
+			return tsne;
+		default: return new MDS(itemDiffMatrix, dimensions, stepSize);
+		}
+	}
+
+	/** Constructs the kind of difference matrix that a kind of MDS needs: landmark rows for Landmark MDS, the full matrix otherwise. */
+	protected SampledDiffMatrix makeDiffMatrix(int method, int numberOfItems) {
+		SampledDiffMatrix matrix;
+		if (method == LANDMARK_MDS) {
+			matrix = new LandmarkDiffMatrix(numberOfItems, numberOfLandmarks);
+		} else if (neighborsNeeded(method) > 0) {
+			matrix = new NeighborDiffMatrix(numberOfItems, neighborsNeeded(method));
+		} else {
+			matrix = new SampledDiffMatrix(numberOfItems);
+		}
+		matrix.setSeed(samplingSeed);
+		matrix.setResampleInterval(resampleInterval);
+		return matrix;
+	}
+
+	/** Returns true if the difference matrix is only stored for landmarks, and getElement may return -1 for unknown pairs. */
+	protected boolean usesLandmarks() {
+		return itemDiffMatrix instanceof LandmarkDiffMatrix;
+	}
+
+	/** Returns true if the difference matrix holds every difference (once computed), not just those of landmarks or nearest neighbours. */
+	protected boolean usesFullMatrix() {
+		return !(itemDiffMatrix instanceof LandmarkDiffMatrix || itemDiffMatrix instanceof NeighborDiffMatrix);
+	}
+
+	/** Returns the number of nearest neighbours a kind of embedding needs kept for each item, or 0 if it needs the full matrix. */
+	protected int neighborsNeeded(int method) {
+		switch (method) {
+		case TSNE_EMBEDDING: return (int) Math.ceil(3 * perplexity);
+		case UMAP_EMBEDDING: return umapNeighbors;
+		default: return 0;
+		}
+	}
+
+	/** Returns true if the current difference matrix is the kind a kind of embedding needs. */
+	protected boolean matrixSuits(int method) {
+		if (method == LANDMARK_MDS) {
+			return usesLandmarks();
+		}
+		if (neighborsNeeded(method) > 0) {
+			return itemDiffMatrix instanceof NeighborDiffMatrix
+					&& ((NeighborDiffMatrix) itemDiffMatrix).getNeighborsPerItem() >= neighborsNeeded(method);
+		}
+		return usesFullMatrix();
+	}
+
+	/**
+	 * Called when the current embedding asks for a different number of nearest neighbours.
+	 * If the matrix keeps too few, a bigger one is found; otherwise the embedding just starts over.
+	 */
+	private void neighborCountChanged() {
+		if (!matrixSuits(mdsMethod)) {
+			replaceDiffMatrix(mdsMethod);
+			MDS newMds = makeMDS(mdsMethod, mds.getStepSize()); // over the new matrix
+			newMds.copyEmbedding(mds);
+			mds = newMds;
+			mdsThread.setMDS(newMds);
+			if (!MesquiteThread.isScripting()) {
+				computeDM(); // calls embeddingInputsChanged() when done
+			}
+		} else {
+			embeddingInputsChanged();
+		}
+	}
+
+	/** Returns true if differences should be computed on demand in the background */
+	public boolean getLazyDifferences() {
+		return lazyDifferences.getValue();
+	}
+
+	/**
+	 * Called when a new difference matrix has replaced one that had already been embedded
+	 * (a new difference measure or tree source).  Rather than starting over, MDS continues
+	 * from the current layout, rescaled to the range of the new differences.
+	 */
+	protected void warmStartEmbedding() {
+		float scale = mds.warmStart();
+		sharedPoints.setPoints(mds.getEmbedding());
+		System.out.println("Continuing from the previous embedding (rescaled by " + scale + ")");
+	}
+
+	/**
+	 * Shows a layout found without MDS (such as the split projection overview).  The
+	 * layout becomes the embedding that MDS continues from when it is next run.
+	 */
+	protected void showLayout(float[][] coordinates) {
+		mds.setEmbedding(coordinates);
+		sharedPoints.setPoints(mds.getEmbedding());
+		embeddingDisplay.repaint();
+	}
+
+	/**
+	 * Starts a multi-start MDS of the given number of runs, each with its own MDS object of
+	 * the current kind.  The window's own MDS is paused meanwhile, and resumes (from the
+	 * best run's embedding) afterwards if it was running.  The random starts are seeded
+	 * from the sampling seed, if one is set, so that they can be repeated.
+	 */
+	private void startMultiStart(int numberOfRuns) {
+		if (multiStart != null && multiStart.isAlive()) {
+			System.out.println("A multi-start MDS is already running.");
+			return;
+		}
+		if (mdsMethod == LANDMARK_MDS) {
+			System.out.println("Multi-start MDS isn't available for Landmark MDS, whose start is not random.");
+			return;
+		}
+		if (!prepareDifferences()) {
+			return; // cancelled
+		}
+		boolean wasRunning;
+		synchronized (mdsThread) {
+			wasRunning = !mdsThread.waitFlag || mdsThread.isIdleFromConvergence();
+			mdsThread.userStopped();
+		}
+		showMDSRunning(false);
+		MDS[] engines = new MDS[numberOfRuns];
+		for (int i = 0; i < numberOfRuns; ++i) {
+			engines[i] = makeMDS(mdsMethod, mds.getStepSize());
+		}
+		long firstSeed = (samplingSeed != 0) ? samplingSeed : System.currentTimeMillis();
+		multiStart = new MultiStartMDS(this, engines, firstSeed, wasRunning);
+		multiStart.setPriority(Math.max(Thread.MIN_PRIORITY, Thread.currentThread().getPriority() - 1));
+		multiStart.start();
+		System.out.println("Multi-start MDS: " + numberOfRuns + " runs started, seeds " + firstSeed + " to " + (firstSeed + numberOfRuns - 1));
+	}
+
+	/** Called by a MultiStartMDS, on its own thread, to show the run with the lowest stress so far; the widgets are updated on the event thread. */
+	protected void multiStartProgress(MDS best, int run, final float stress) {
+		synchronized (best) { // so the embedding isn't copied in the middle of an iteration
+			sharedPoints.setPoints(best.getEmbedding());
+		}
+		sharedPoints.setStress(stress);
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				setStress(stress);
+				embeddingDisplay.repaint();
+			}
+		});
+	}
+
+	/**
+	 * Called by a MultiStartMDS, on its own thread, when all its runs have finished.  The best
+	 * embedding replaces the current one, and MDS resumes if asked; the widgets are updated
+	 * on the event thread.
+	 */
+	protected void multiStartFinished(MultiStartMDS finished, MDS best, int run, final boolean resume) {
+		final float stress = (best != null) ? best.getStress() : -1;
+		if (best != null) {
+			mds.copyEmbedding(best);
+			sharedPoints.setPoints(mds.getEmbedding());
+			sharedPoints.setStress(stress);
+			System.out.println("Multi-start MDS finished; kept run " + (run + 1) + " of " + finished.getNumberOfRuns() + " (seed " + finished.getSeed(run) + "), stress " + stress);
+		}
+		if (resume) {
+			synchronized (mdsThread) {
+				mdsThread.inputsChanged();
+				mdsThread.waitFlag = false;
+				mdsThread.notify();
+			}
+		}
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (stress >= 0) {
+					setStress(stress);
+					embeddingDisplay.repaint();
+				}
+				if (resume) {
+					boolean running;
+					synchronized (mdsThread) {
+						running = !mdsThread.waitFlag; // unless stopped again meanwhile
+					}
+					if (running) {
+						showMDSRunning(true);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Places an item that is not part of the embedding at the location that best fits its
+	 * differences from the embedded items, which are not moved (see MDS.placeOutOfSample).
+	 * The item is drawn, with its name, until clearPlacedItems is called, and is placed
+	 * again whenever MDS converges, so that it follows the embedding.
+	 *
+	 * @param diffs  the item's difference from each embedded item; -1 where not computed
+	 * @param name   the name drawn beside it
+	 * @return       its location, or null if none of its differences are known
+	 */
+	public float[] placeItem(float[] diffs, String name) {
+		float[] location = mds.placeOutOfSample(diffs);
+		if (location != null) {
+			placedDiffs.add(diffs);
+			placedNames.add(name);
+			updatePlacedItems();
+		}
+		return location;
+	}
+
+	/** Places every placed item again against the current embedding, and shows them. */
+	protected void updatePlacedItems() {
+		int numberPlaced = placedDiffs.size();
+		if (numberPlaced == 0) {
+			embeddingDisplay.setPlacedPoints(null, null);
+		} else {
+			float[][] locations = new float[numberPlaced][];
+			String[] names = new String[numberPlaced];
+			for (int i = 0; i < numberPlaced; i++) {
+				locations[i] = mds.placeOutOfSample((float[]) placedDiffs.get(i));
+				names[i] = (String) placedNames.get(i);
+			}
+			embeddingDisplay.setPlacedPoints(locations, names);
+		}
+		embeddingDisplay.repaint();
+	}
+
+	/** Removes any placed items; safe to call before the display exists. */
+	protected void clearPlacedItemsIfAny() {
+		if (!placedDiffs.isEmpty()) {
+			clearPlacedItems();
+		}
+	}
+
+	/** Removes all placed items from the display. */
+	public void clearPlacedItems() {
+		placedDiffs.clear();
+		placedNames.clear();
+		updatePlacedItems();
+	}
+
+	/** Returns true if points should join the embedding one by one as their differences are computed */
+	public boolean getProgressiveEmbedding() {
+		return progressiveEmbedding.getValue();
+	}
+
+	/**
+	 * Hides all points; from now on they are shown as progressivePointAdded places them.  Like
+	 * the other progressive changes to the display, this is done on the event thread, so that
+	 * they happen in the order they were called in, whatever threads called them.
+	 */
+	protected void beginProgressiveEmbedding() {
+		final BitSet none = new BitSet(itemDiffMatrix.getNumberOfItems());
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				embeddingDisplay.setShown(none);
+				embeddingDisplay.repaint();
+			}
+		});
+	}
+
+	/**
+	 * Called, during progressive embedding, when the differences between a point and all
+	 * points already in the embedding have been computed.  The point is placed next to the
+	 * nearest of them, and MDS continues with it included; the point is shown, and MDS told,
+	 * on the event thread.
+	 *
+	 * @param point        the item joining the embedding
+	 * @param nearest      the item already embedded with the smallest difference from point, or -1 if it is the first
+	 * @param difference   the difference between point and nearest
+	 * @param numberAdded  the number of points now in the embedding
+	 */
+	protected void progressivePointAdded(final int point, int nearest, float difference, final int numberAdded) {
+		mds.placeNear(point, nearest, difference);
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				embeddingDisplay.showPoint(point);
+				if ((numberAdded & (numberAdded - 1)) == 0) { // each time the embedding doubles, judge convergence afresh
+					embeddingInputsChanged();
+				}
+			}
+		});
+	}
+
+	/** Shows all points again, on the event thread, when progressive embedding is finished or abandoned. */
+	protected void endProgressiveEmbedding() {
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				embeddingDisplay.setShown(null);
+				embeddingDisplay.repaint();
+			}
+		});
+	}
+
+	/** Returns true if Landmark MDS should choose its landmarks by maxmin rather than at random */
+	public boolean getMaxminLandmarks() {
+		return maxminLandmarks.getValue();
+	}
+
+	/** Chooses and computes a new set of landmarks, if Landmark MDS is in use. */
+	private void recomputeLandmarks() {
+		if (usesLandmarks() && !MesquiteThread.isScripting()) {
+			((LandmarkDiffMatrix) itemDiffMatrix).setRequestedLandmarks(numberOfLandmarks);
+			computeDM();
+		}
+	}
+
+	/**
+	 * Replaces the difference matrix with one of the kind needed by the given kind of MDS,
+	 * carrying the sampling state over.  The new matrix is empty; the caller must have
+	 * computeDM() fill it.
+	 */
+	private void replaceDiffMatrix(int method) {
+		int n = itemDiffMatrix.getNumberOfItems();
+		itemDiffMatrix = null; // let go of a big old matrix before allocating the new one
+		itemDiffMatrix = makeDiffMatrix(method, n);
+		if (sampleCheckbox.getState()) {
+			itemDiffMatrix.sampleByPoint(sampleSize);
+			sampleChanged();
+		}
+	}
+
+	/** Returns the points in the current sample, or an empty set if not sampling by point. */
+	protected BitSet getSampleSet() {
+		BitSet sampleSet = new BitSet(itemDiffMatrix.getNumberOfItems());
+		if (itemDiffMatrix.getSamplingByPoint()) {
+			for (int k = itemDiffMatrix.getSampleSize() - 1; k >= 0; --k) {
+				sampleSet.set(itemDiffMatrix.getSampledPoint(k));
+			}
+		}
+		return sampleSet;
+	}
+
+	/**
+	 * Switches to another kind of MDS.  The new MDS starts from the current embedding
+	 * rather than from a random one, and takes over from the old one in the MDS thread.
+	 */
+	private void setMDSMethod(int method) {
+		if (method == mdsMethod) {
+			return;
+		}
+		boolean newMatrixNeeded = !matrixSuits(method);
+		if (newMatrixNeeded) {
+			replaceDiffMatrix(method);
+		}
+		MDS newMds = makeMDS(method, mds.getStepSize());
+		newMds.copyEmbedding(mds);
+		mds = newMds;
+		mdsMethod = method;
+		mdsMethodName.setValue(MDS_METHOD_NAMES[method]);
+		mdsThread.setMDS(newMds);
+		if (newMatrixNeeded && !MesquiteThread.isScripting()) {
+			computeDM(); // calls embeddingInputsChanged() when done
+		} else {
+			embeddingInputsChanged();
+		}
+	}
+
+	/**
+	 * Switches the embedding to another number of dimensions.  A new MDS of the same kind takes
+	 * over, starting from the current embedding: going to 3D it starts flat (the new coordinate
+	 * small and random), going to 2D it starts from the current view along the first two axes.
+	 */
+	private void setDimensions(int newDimensions) {
+		if (newDimensions == dimensions) {
+			return;
+		}
+		MDSPoint[] current = mds.getEmbedding();
+		float[][] coordinates = new float[current.length][dimensions];
+		for (int i = 0; i < current.length; i++) {
+			current[i].copyInto(coordinates[i]);
+		}
+		dimensions = newDimensions;
+		MDS newMds = makeMDS(mdsMethod, mds.getStepSize());
+		newMds.setEmbedding(coordinates);
+		mds = newMds;
+		mdsThread.setMDS(newMds);
+		sharedPoints.setPoints(newMds.getEmbedding());
+		embeddingDisplay.setDimensions(dimensions);
+		if (!placedDiffs.isEmpty()) {
+			updatePlacedItems(); // their locations had the old number of coordinates
+		}
+		embeddingInputsChanged();
+		embeddingDisplay.repaint();
+	}
+
+	/** Sets the label and action of the start/stop button to reflect whether MDS is running. */
+	private void showMDSRunning(boolean running) {
+		if (running) {
+			startStopButton.setActionCommand("stop");
+			startStopButton.setLabel("Stop MDS");
+		} else {
+			startStopButton.setActionCommand("start");
+			startStopButton.setLabel("Start MDS");
+		}
+		startStopButton.repaint();
 	}
 
 
@@ -837,6 +1604,16 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 	 */
 	public abstract boolean computeDM();
 
+	/**
+	 * Called before MDS is started, to compute any differences whose computation was put
+	 * off (as when the window opens with an overview that needs none).
+	 *
+	 * @return  false if the user cancelled the computation, so MDS should not start
+	 */
+	protected boolean prepareDifferences() {
+		return true;
+	}
+
 	protected abstract void newSelection(java.util.BitSet selection, String selectionName, int selectionNumber);
 
 	protected abstract void updateSelection(java.util.BitSet selection, String selectionName, int selectionNumber);
@@ -879,13 +1656,67 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 
 	/**
 	 * Called every time the MDS Thread completes an iteration of MDS.
-	 * Updates the stress display and tells the embedding display to repaint
-	 * itself (by accessing the shared points to get the new embedding put
-	 * there by MDS)
+	 * Asks for the stress display to be updated and the embedding display to
+	 * redraw itself (by accessing the shared points to get the new embedding put
+	 * there by MDS).  The requests of many iterations are merged into one frame,
+	 * so the display keeps to the frame rate however fast MDS runs.
 	 */
 	protected void mds_iteration_complete() {
-		setStress(sharedPoints.getStress());
-		embeddingDisplay.repaint();
+		frameScheduler.requestFrame();
+	}
+
+	/**
+	 * Called by the MDS Thread when it has suspended itself because the embedding
+	 * converged.  MDS will start again by itself if its inputs change.  The widgets
+	 * are updated later on the event thread, and the button only if MDS is still idle
+	 * by then, since the inputs may have changed and started it again meanwhile.
+	 *
+	 * @param iterations   number of iterations it took to converge
+	 * @param elapsedTime  wall clock time it took to converge, in milliseconds
+	 */
+	protected void mds_converged(int iterations, long elapsedTime) {
+		final float stress = sharedPoints.getStress();
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (mdsThread.isIdleFromConvergence()) {
+					showMDSRunning(false);
+				}
+				if (!placedDiffs.isEmpty()) {
+					updatePlacedItems(); // they were placed against an earlier version of the embedding
+				}
+				stressDisplayLabel.setText(Float.toString(stress) + " (converged)");
+				stressDisplayLabel.repaint();
+			}
+		});
+		System.out.println("MDS converged after " + iterations + " iterations (" + (elapsedTime / 1000.0) + " seconds).");
+	}
+
+	/** Called by the MDS Thread when it has drawn a new sample because the resampling interval passed. */
+	protected void mds_resampled() {
+		sampleChanged();
+	}
+
+	/**
+	 * Called whenever a new sample has been drawn.  Shows the sample in the embedding display; the
+	 * sample is read now, but shown on the event thread, since this may be called from the MDS Thread.
+	 */
+	protected void sampleChanged() {
+		final BitSet sample = getSampleSet();
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				embeddingDisplay.setSample(sample);
+			}
+		});
+	}
+
+	/** Called by the MDS Thread when it has adapted the step size to the progress of the embedding. */
+	protected void mds_step_size_adapted(float newStepSize) {
+		final String text = Float.toString(newStepSize);
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				stepSizeField.setText(text);
+			}
+		});
 	}
 
 	protected abstract void calculateTreeScores(int numberOfScores);
@@ -996,23 +1827,130 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		}
 	}//getTreeScores
 	 */
+	/** Returns the animation rate in the rate field, resetting the field to the default if it is not a rate allowed */
+	private int getAnimationRate() {
+		boolean illegalRate = false;
+		int animationRate = DEFAULT_ANIMATION_RATE;
+		try {
+			animationRate = Integer.parseInt(animationRateField.getText());
+		} catch (NumberFormatException nfe) {
+			illegalRate = true;
+		}
+		if (illegalRate || animationRate < 1 || animationRate > 1000) {
+			animationRate = DEFAULT_ANIMATION_RATE;
+			animationRateField.setText(Integer.toString(DEFAULT_ANIMATION_RATE));
+		}
+		return animationRate;
+	}
+
+	/**
+	 * Writes the animation of the tree order at the animation rate as PNG frames, framesPerSecond
+	 * to a second of animation, named like the file at path with the frame number added (asking
+	 * for the file if path is null).
+	 */
+	public void saveAnimationFrames(int framesPerSecond, String path) {
+		if (path == null || path.length() == 0) {
+			if (MesquiteThread.isScripting()) {
+				System.out.println("No file given to save the animation frames in");
+				return;
+			}
+			FileDialog framesFileDialog = new FileDialog(new Frame());
+			framesFileDialog.setTitle("Name for the animation frames (the frame number is added)");
+			framesFileDialog.setMode(FileDialog.SAVE);
+			framesFileDialog.setFile("frame");
+			framesFileDialog.setVisible(true);
+			if (framesFileDialog.getFile() == null) {
+				return; // the user pushed cancel
+			}
+			path = new java.io.File(framesFileDialog.getDirectory(), framesFileDialog.getFile()).getPath();
+		}
+		java.io.File file = new java.io.File(path);
+		java.io.File directory = file.getAbsoluteFile().getParentFile();
+		String base = file.getName();
+		if (base.toLowerCase().endsWith(".png")) {
+			base = base.substring(0, base.length() - 4);
+		}
+		try {
+			int frames = embeddingDisplay.saveAnimationFrames(directory, base, getAnimationRate(), framesPerSecond);
+			System.out.println("Saved " + frames + " animation frames in " + directory);
+		} catch (java.io.IOException excep) {
+			System.out.println("Trouble writing the animation frames to " + directory + ": " + excep.getMessage());
+		}
+	}
+
+	/**
+	 * Draws the embedding as shown at width x height and writes it to the file at path as a
+	 * PNG, asking for the file if path is null.  Nothing is drawn on the screen, so this works
+	 * when the window has not been shown.
+	 */
+	public void saveImage(int width, int height, String path) {
+		if (path == null || path.length() == 0) {
+			if (MesquiteThread.isScripting()) {
+				System.out.println("No file given to save the embedding image in");
+				return;
+			}
+			FileDialog imageFileDialog = new FileDialog(new Frame());
+			imageFileDialog.setTitle("Save the embedding as a PNG image");
+			imageFileDialog.setMode(FileDialog.SAVE);
+			imageFileDialog.setVisible(true);
+			if (imageFileDialog.getFile() == null) {
+				return; // the user pushed cancel
+			}
+			path = new java.io.File(imageFileDialog.getDirectory(), imageFileDialog.getFile()).getPath();
+		}
+		java.io.OutputStream stream = null;
+		try {
+			EmbeddingImage image = embeddingDisplay.makeImage(width, height);
+			stream = new java.io.FileOutputStream(path);
+			image.writePNG(stream);
+		} catch (java.io.IOException excep) {
+			System.out.println("Trouble writing the embedding image to " + path + ": " + excep.getMessage());
+		} finally {
+			if (stream != null) {
+				try {
+					stream.close(); // (already closed, unless writing failed)
+				} catch (java.io.IOException excep) {
+				}
+			}
+		}
+	}
+
 	public void saveAsPostscript() {
-		FileDialog psFileDialog = new FileDialog(new Frame());
-		psFileDialog.setTitle("Where do you want to save the postscript?");
-		psFileDialog.setMode(FileDialog.SAVE);
-		psFileDialog.setVisible(true);
+		exportEmbedding("Where do you want to save the postscript?", true);
+	}
+
+	/** Asks for a file and writes the embedding to it as EPS, SVG or PDF, chosen by the file's extension */
+	public void exportEmbedding() {
+		exportEmbedding("Export the embedding (.eps, .svg or .pdf)", false);
+	}
+
+	private void exportEmbedding(String title, boolean postscript) {
+		FileDialog exportFileDialog = new FileDialog(new Frame());
+		exportFileDialog.setTitle(title);
+		exportFileDialog.setMode(FileDialog.SAVE);
+		exportFileDialog.setVisible(true);
 		/* at this point, the file dialog becomes visible and the user chooses a file */
 
-		boolean userPushedCancel = (psFileDialog.getFile() == null);
+		boolean userPushedCancel = (exportFileDialog.getFile() == null);
 		if (!userPushedCancel) {
+			java.io.File exportFile = new java.io.File(exportFileDialog.getDirectory(), exportFileDialog.getFile());
+			VectorExporter exporter = null;
 			try {
-				/* Open the output file and tell the embedding display to draw into it */
-				java.io.File postscriptFile = new java.io.File(psFileDialog.getDirectory(), psFileDialog.getFile());
-				java.io.PrintWriter postscriptOutputStream = new java.io.PrintWriter(new java.io.FileWriter(postscriptFile));
-				embeddingDisplay.drawInPostscript(postscriptOutputStream);
-				postscriptOutputStream.close();
+				if (postscript) {
+					exporter = new EPSExporter(new java.io.FileOutputStream(exportFile));
+				} else {
+					exporter = VectorExporter.forFile(exportFile);
+				}
+				embeddingDisplay.exportVector(exporter);
 			} catch (java.io.IOException excep) {
-				System.out.println("Trouble opening file to write postscript");
+				System.out.println("Trouble writing the embedding to " + exportFile + ": " + excep.getMessage());
+			} finally {
+				if (exporter != null) {
+					try {
+						exporter.close(); // (already closed, unless writing failed)
+					} catch (java.io.IOException excep) {
+					}
+				}
 			}
 		}
 	}
@@ -1029,6 +1967,11 @@ public abstract class PointSetVisualization extends MesquiteWindow {
 		return frameDot;
 	}
 
+	/** Returns true if dragging in the embedding draws a lasso rather than a box */
+	public boolean getLassoSelection() {
+		return lassoSelection.getValue();
+	}
+
 	public void setFrameDot(boolean frameDot) {
 		this.frameDot = frameDot;
 		embeddingDisplay.repaint();
@@ -1290,8 +2233,9 @@ class EmbeddingDisplayPanel extends Panel {
 	// Bigger sensitivity means you can clicker farther from a point and still select it.
 	private final static int singleClickSensitivity = 4;
 
-	/** Needed for double-buffering (see paint() method) */
-	private Image im;
+	/** The off-screen image the embedding is drawn in, point by point, before going to the screen (see paint() method) */
+	private PointRaster raster;
+	/** Draws the labels and selection box on raster */
 	private Graphics2D buf;
 
 	/** The local, transformed for display, embedding */
@@ -1300,6 +2244,64 @@ class EmbeddingDisplayPanel extends Panel {
 	private int dimensions;
 	/** the rectangle that is dragged around points to select them */
 	private Box selectionBox;
+	/** the freehand outline being dragged around points to select them; null unless lasso dragging */
+	private Polygon lasso;
+	/** index of the screen locations of the drawn points, for picking and box and lasso selection */
+	private PointGrid pointGrid = new PointGrid();
+	/** true if the points have been moved, added or hidden since pointGrid was built */
+	private boolean pointGridStale = true;
+	/** Above this many points on the screen, the automatic display mode draws density instead of points */
+	private static final int DENSITY_THRESHOLD = 50000;
+	/** how the points are drawn; one of PointSetVisualization's DISPLAY constants */
+	private int displayMode = PointSetVisualization.DISPLAY_AUTOMATIC;
+	/** histogram of the screen locations, for drawing density; null until first needed */
+	private DensityBins densityBins;
+	/** true if the points have been moved, added or hidden since densityBins was updated */
+	private boolean densityStale = true;
+	/** the tree scores behind treeScoreColors, for colouring density bins by mean score; null if none */
+	private double[] treeScores;
+	private double minScore;
+	private double maxScore;
+	/** true if something other than the embedding that changes the screen locations has changed since updatePoints */
+	private boolean transformStale = true;
+	/** size of the panel when the screen locations were computed */
+	private int transformWidth;
+	private int transformHeight;
+	/** Screen locations of the points when not zoomed (the embedding fitted to the panel), computed in fitToPanel */
+	private float[] homeX;
+	private float[] homeY;
+	/** home locations of the placed items; null if none */
+	private float[][] placedHomeLocations;
+	/** index of the home locations, for finding the points in the view when zoomed */
+	private PointGrid homeGrid = new PointGrid();
+	/** true if the view, or which points are drawn, has changed since updateView */
+	private boolean viewStale = true;
+	/** The points drawn: those in the view, up to lastShown and in shownSet, in order.  Only these have current localPoints. */
+	private int[] drawnItems;
+	private int numberDrawn;
+	/** true if zoomed in or panned; if false the whole embedding is shown */
+	private boolean zoomed;
+	/** magnification of the home locations; 1 when not zoomed */
+	private float zoom = 1;
+	/** the home location shown at the centre of the panel when zoomed */
+	private float viewCenterX;
+	private float viewCenterY;
+	/** Most magnification allowed */
+	private static final float MAX_ZOOM = 10000;
+	/** Each mouse wheel notch zooms by this factor */
+	private static final float WHEEL_ZOOM = 1.25f;
+	/** Points this many pixels outside the panel are still drawn, so icons straddling the edge are not cut off */
+	private static final int VIEW_BORDER = 20;
+	/** where the last pan drag event was; null unless panning */
+	private Point panAnchor;
+	/** where the last rotating drag event was; null unless rotating */
+	private Point rotateAnchor;
+	/** depth of each point's home location in 3D (smaller is nearer); null in 2D */
+	private float[] homeZ;
+	/** Orientation of the 3D view: rows are the screen's x, y and depth axes in embedding coordinates */
+	private double[][] rotation = {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+	/** Radians turned per pixel dragged */
+	private static final double ROTATION_PER_PIXEL = 0.01;
 	/** So that this panel can pass along selection events */
 	private SelectionManager selectionManager;
 	/** a convenience member used for resetting of selectionSet */
@@ -1324,6 +2326,32 @@ class EmbeddingDisplayPanel extends Panel {
 	/** Only points with indices 0-lastShown are drawn.
 	 *  set by animation thread to cause the sequetial appearance of points */
 	private int lastShown;
+	/** Locations (in embedding coordinates) of items placed into the embedding without being part of it; null if none */
+	private float[][] placedPoints;
+	/** names drawn beside the placed points */
+	private String[] placedNames;
+	/** screen locations of the placed points, computed in updatePoints */
+	private Point[] placedLocalPoints;
+	/** color of the placed points and their names */
+	private static final Color placedPointColor = Color.red;
+	/** If not null, only these points are drawn (and used to scale the display); set during progressive embedding */
+	private BitSet shownSet;
+	/** the lastShown the drawn points were found for; points revealed since are added to them in updatePoints */
+	private int revealedUpTo;
+	/** true while the tree order is being animated, when frames are drawn incrementally */
+	private boolean animating;
+	/** The points revealed so far in the animation, accumulated frame by frame; null until first needed */
+	private PointRaster animationFrame;
+	/** how many of drawnItems have been drawn into animationFrame */
+	private int animationFrameDrawn;
+	/** true if animationFrame must be drawn again from the start, because something besides the revealed points has changed */
+	private boolean animationFrameStale = true;
+	/** number of the most recently revealed points highlighted in the animation, fading with age */
+	private int trailLength;
+	/** colour of the newest point of the trail */
+	private static final Color trailColor = Color.yellow;
+	/** number of shades the trail fades through */
+	private static final int TRAIL_SHADES = 16;
 	TreeSetVisualization ownerModule;
 
 	public EmbeddingDisplayPanel(SelectionManager selectionManager, SharedPoints sharedPoints, PointSetVisualization mainWindow, TreeSetVisualization ownerModule) {
@@ -1359,6 +2387,26 @@ class EmbeddingDisplayPanel extends Panel {
 				// This point is also used as the location of a single click if the mouse button
 				//   come up without any dragging.
 				selectionBox.anchor = e.getPoint();
+				// In 3D the right button turns the embedding; otherwise the right or middle button drags the view around
+				panAnchor = null;
+				rotateAnchor = null;
+				if (e.isMetaDown() && dimensions == 3) {
+					rotateAnchor = e.getPoint();
+					lasso = null;
+					return;
+				}
+				if (e.isMetaDown() || (e.getModifiers() & InputEvent.BUTTON2_MASK) != 0) {
+					panAnchor = e.getPoint();
+					lasso = null;
+					return;
+				}
+				// With the lasso on (or Alt down), a drag draws an outline instead of a box
+				if (mainWindow.getLassoSelection() || e.isAltDown()) {
+					lasso = new Polygon();
+					lasso.addPoint(e.getX(), e.getY());
+				} else {
+					lasso = null;
+				}
 			}
 
 			public void mouseClicked(MouseEvent e) {
@@ -1371,21 +2419,55 @@ class EmbeddingDisplayPanel extends Panel {
 				// If this was a dragging event, turn off the dragging box and select every point that was in it.
 				// If the Ctrl key was also pressed, the selection is cumulative
 				// The conditional here is false if the relase event is from a click rather than a drag.
+				if (panAnchor != null || rotateAnchor != null) {
+					panAnchor = null;
+					rotateAnchor = null;
+					return;
+				}
 				if (selectionBox.enabled) {
 					selectFromBox(selectionBox, e.getModifiers());
+				} else if (lasso != null && lasso.npoints >= 3) {
+					selectFromLasso(lasso, e.getModifiers());
 				}
 				selectionBox.enabled = false;
+				lasso = null;
 			}
 		});
 
 		addMouseMotionListener(new MouseMotionAdapter() {
 			public void mouseDragged(MouseEvent e) {
+				if (panAnchor != null) {
+					pan(e.getX() - panAnchor.x, e.getY() - panAnchor.y);
+					panAnchor = e.getPoint();
+					return;
+				}
+				if (rotateAnchor != null) {
+					rotate(e.getX() - rotateAnchor.x, e.getY() - rotateAnchor.y);
+					rotateAnchor = e.getPoint();
+					return;
+				}
+				if (lasso != null) {
+					// Extend the lasso, unless the pointer has not moved off its last vertex
+					int last = lasso.npoints - 1;
+					if (lasso.xpoints[last] != e.getX() || lasso.ypoints[last] != e.getY()) {
+						lasso.addPoint(e.getX(), e.getY());
+						repaint();// because the lasso has changed
+					}
+					return;
+				}
 				// Enter (or remain in) the box selection state.  Update the dragging box
 				selectionBox.enabled = true;
 				selectionBox.floater = e.getPoint();
 				repaint();// because the selection box has changed
 			}
 		});
+
+		addMouseWheelListener(new MouseWheelListener() {
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				// Rolling away from the user zooms in, about the pointer
+				zoomAbout(e.getX(), e.getY(), (float) Math.pow(WHEEL_ZOOM, -e.getWheelRotation()));
+			}
+		});
 	}
 
 	public void resetNumberOfItems(int newNumberOfItems) {
@@ -1402,6 +2484,11 @@ class EmbeddingDisplayPanel extends Panel {
 			fullSet.set(i);
 		}
 		lastShown = newNumberOfItems - 1;
+		shownSet = null;
+		screenPointsChanged();
+		transformStale = true;
+		drawnItems = null;
+		numberDrawn = 0;
 	}
 
 	public void resetBackgrounds() {
@@ -1419,11 +2506,79 @@ class EmbeddingDisplayPanel extends Panel {
 	 */
 	public void setBounds(int x, int y, int width, int height) {
 		super.setBounds(x, y, width, height);
-		im = null;  // setting these to null signals that they need to be reconstructed
-		buf = null; // to account for the new panel size
+		buf = null; // signals that the raster needs to be resized to account for the new panel size
 	}
 
-	/** This method draws the embedding. Colors are defined by static class variables */
+	/**
+	 * Draws the embedding into the raster: the points are stamped straight into its pixels,
+	 * selected points first, then unselected points and the sample highlights, with each pass
+	 * in one colour unless tree scores are coloring the points.  Labels and the selection box
+	 * are drawn with g2, which must draw on the raster's image.
+	 */
+	public void drawEmbedding(PointRaster r, Graphics2D g2) {
+		resetBackgrounds();
+		r.clear(embeddingBackGroundColor);
+		if (dimensions != 2 && dimensions != 3) {
+			g2.setColor(embeddingUnselectedPointColor);
+			g2.drawString("Sorry, only 2D and 3D drawing are supported.", 10, 10);
+			return;
+		}
+		if (homeZ != null) {
+			r.clearDepths(); // points are drawn nearest-wins, whatever the order of the passes
+		}
+		r.setIconStyle(mainWindow.getPointSize(), mainWindow.getFrameDot(), getFont());
+		MultiSelections selections = selectionManager.getSelections();
+		if (usingDensity(r)) {
+			// Density of all the points, with the selected points drawn individually on top
+			densityBins.draw(r.getPixels(), r.getWidth(), r.getHeight(), treeScoreColoring && treeScores != null, minScore, maxScore);
+			for (int i = 0; i < selections.getNumberOfSelections(); ++i) {
+				drawPointSet(selections.getSelection(i),selections.getIconNumber(i),embeddingSelectedPointColor,r);
+			}
+			drawOverlays(g2);
+			return;
+		}
+		unselectedPoints.or(fullSet); // at first, no points are known to be selected
+		for (int i = 0; i < selections.getNumberOfSelections(); ++i) { // for each selection
+			drawPointSet(selections.getSelection(i),selections.getIconNumber(i),embeddingSelectedPointColor,r);
+			unselectedPoints.andNot(selections.getSelection(i));
+		}
+		drawPointSet(unselectedPoints,PointIcons.DOT,embeddingUnselectedPointColor,r);
+		drawPointSet(sampleSet,PointIcons.SAMPLE,embeddingSampledPointColor,r);
+		drawOverlays(g2);
+	}
+
+	/**
+	 * Returns true if the points should be drawn as density, updating the density bins if so.
+	 * In the automatic mode that is when more than DENSITY_THRESHOLD points are on the screen,
+	 * so zooming in to fewer brings the individual points back.
+	 */
+	private boolean usingDensity(PointRaster r) {
+		if (displayMode == PointSetVisualization.DISPLAY_POINTS) {
+			return false;
+		}
+		if (displayMode == PointSetVisualization.DISPLAY_AUTOMATIC) {
+			if (numberDrawn <= DENSITY_THRESHOLD) {
+				return false; // too few to need density, wherever they are
+			}
+		}
+		if (densityBins == null) {
+			densityBins = new DensityBins(PointSetVisualization.colorGradient);
+			densityStale = true;
+		}
+		if (densityStale) {
+			densityStale = false;
+			densityBins.update(localPoints, drawnItems, numberDrawn, r.getWidth(), r.getHeight(), treeScores);
+		}
+		return displayMode == PointSetVisualization.DISPLAY_DENSITY || densityBins.getNumberBinned() > DENSITY_THRESHOLD;
+	}
+
+	/** Notes that the screen locations of the points, or which are drawn, have changed */
+	private void screenPointsChanged() {
+		pointGridStale = true;
+		densityStale = true;
+	}
+
+	/** This method draws the embedding with ordinary Graphics2D calls. Colors are defined by static class variables */
 	public void drawEmbedding(Graphics2D g2) {
 		resetBackgrounds();
 		// I draw my own background
@@ -1434,9 +2589,9 @@ class EmbeddingDisplayPanel extends Panel {
 		// the point set of the 2D display, possibly incorporating a viewing angle if the
 		// visualization is in 3D.  For now, only 2D Display works.
 
-		if (dimensions != 2) {
+		if (dimensions != 2 && dimensions != 3) {
 			g2.setColor(embeddingUnselectedPointColor);
-			g2.drawString("Sorry, only 2D drawing is supported for now.", 10, 10);
+			g2.drawString("Sorry, only 2D and 3D drawing are supported.", 10, 10);
 		} else {
 			// Draw the points
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
@@ -1450,75 +2605,329 @@ class EmbeddingDisplayPanel extends Panel {
 			}
 			// Next draw all points in the unselected Color
 			drawPointSet(unselectedPoints,PointIcons.DOT,embeddingUnselectedPointColor,g2);
-			// Finally, draw the sample highlights
+			// Then the sample highlights
 			drawPointSet(sampleSet,PointIcons.SAMPLE,embeddingSampledPointColor,g2);
 			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+			drawOverlays(g2);
+		}
+	}
 
-			// Next, draw the dragging box, if it exists
-			if (selectionBox.enabled) {
-				g2.setColor(embeddingSelectionBoxColor);
-				g2.drawLine(selectionBox.anchor.x, selectionBox.anchor.y, selectionBox.anchor.x, selectionBox.floater.y);
-				g2.drawLine(selectionBox.anchor.x, selectionBox.anchor.y, selectionBox.floater.x, selectionBox.anchor.y);
-				g2.drawLine(selectionBox.anchor.x, selectionBox.floater.y, selectionBox.floater.x, selectionBox.floater.y);
-				g2.drawLine(selectionBox.floater.x, selectionBox.anchor.y, selectionBox.floater.x, selectionBox.floater.y);
+	/**
+	 * Draws a frame of the tree order animation: the points revealed since the last frame are
+	 * added to the accumulated frame, which is copied into the raster, and the trail and
+	 * overlays are drawn over it.  The accumulated frame is drawn again from the start only if
+	 * it is stale (the points have moved, the view or the panel's size has changed, or
+	 * something else was repainted).  Points are drawn one by one in tree order, each with all
+	 * its icons, so a point may cover an earlier one's selection icon.
+	 */
+	private void drawAnimationFrame(PointRaster r, Graphics2D g2) {
+		PointRaster frame = animationFrame; // read once, since the animation may be stopped meanwhile
+		if (frame == null) {
+			frame = new PointRaster();
+			animationFrame = frame;
+		}
+		if (frame.ensureSize(r.getWidth(), r.getHeight()) || animationFrameStale) {
+			animationFrameStale = false;
+			resetBackgrounds();
+			frame.clear(embeddingBackGroundColor);
+			if (homeZ != null) {
+				frame.clearDepths();
+			}
+			animationFrameDrawn = 0;
+		}
+		frame.setIconStyle(mainWindow.getPointSize(), mainWindow.getFrameDot(), getFont());
+		r.setIconStyle(mainWindow.getPointSize(), mainWindow.getFrameDot(), getFont());
+		MultiSelections selections = selectionManager.getSelections();
+		int[] drawn = drawnItems;
+		for (int k = animationFrameDrawn; k < numberDrawn; k++) {
+			int i = drawn[k];
+			drawRevealed(frame, selections, i, localPoints[i].x, localPoints[i].y);
+		}
+		animationFrameDrawn = numberDrawn;
+		System.arraycopy(frame.getPixels(), 0, r.getPixels(), 0, r.getPixels().length);
+		int trail = Math.min(trailLength, numberDrawn);
+		for (int age = trail - 1; age >= 0; age--) { // oldest first, so the newest is on top
+			int i = drawn[numberDrawn - 1 - age];
+			drawTrailPoint(r, i, localPoints[i].x, localPoints[i].y, age);
+		}
+		drawOverlays(g2);
+	}
+
+	/** Draws point i at (x, y) with all its icons: those of the selections it is in (or a plain dot), then its sample ring */
+	private void drawRevealed(PointRaster r, MultiSelections selections, int i, int x, int y) {
+		boolean selected = false;
+		for (int s = 0; s < selections.getNumberOfSelections(); ++s) {
+			if (selections.getSelection(s).get(i)) {
+				stamp(r, r.getSprite(selections.getIconNumber(s), pointColor(i, embeddingSelectedPointColor)), i, x, y);
+				selected = true;
+			}
+		}
+		if (!selected) {
+			stamp(r, r.getSprite(PointIcons.DOT, pointColor(i, embeddingUnselectedPointColor)), i, x, y);
+		}
+		if (sampleSet.get(i)) {
+			stamp(r, r.getSprite(PointIcons.SAMPLE, pointColor(i, embeddingSampledPointColor)), i, x, y);
+		}
+	}
+
+	/** Draws point i of the trail at (x, y), age points after the newest; the trail fades from trailColor to the point's own colour */
+	private void drawTrailPoint(PointRaster r, int i, int x, int y, int age) {
+		r.stamp(r.getSprite(PointIcons.DOT, trailShade(pointColor(i, embeddingUnselectedPointColor), age, trailLength)), x, y);
+	}
+
+	/** Returns the colour of the trail point age points after the newest of a trail trailLength long, for a point whose own colour is own */
+	static Color trailShade(Color own, int age, int trailLength) {
+		int shade = age * TRAIL_SHADES / Math.max(trailLength, 1);
+		float f = (float) shade / TRAIL_SHADES;
+		return new Color(Math.round(trailColor.getRed() + (own.getRed() - trailColor.getRed()) * f),
+				Math.round(trailColor.getGreen() + (own.getGreen() - trailColor.getGreen()) * f),
+				Math.round(trailColor.getBlue() + (own.getBlue() - trailColor.getBlue()) * f));
+	}
+
+	/** Stamps the sprite for point i at (x, y), nearest-wins if the embedding is 3D */
+	private void stamp(PointRaster r, PointRaster.Sprite sprite, int i, int x, int y) {
+		float[] depth = homeZ;
+		if (depth != null) {
+			r.stamp(sprite, x, y, depth[i]);
+		} else {
+			r.stamp(sprite, x, y);
+		}
+	}
+
+	/**
+	 * Writes the tree order animation to numbered PNG files, one frame for each
+	 * 1 / framesPerSecond seconds with itemsPerSecond points revealed per second, as the
+	 * view is now: base followed by the frame number and ".png" in directory.  The frames are
+	 * drawn incrementally off the screen, as by drawAnimationFrame, and make a sequence a
+	 * video encoder can read.  The view is copied on the event thread, and the frames are drawn
+	 * and written from the copy.  The frames are the size of the panel, so it must have been
+	 * laid out.  Returns the number of frames written.
+	 */
+	protected int saveAnimationFrames(java.io.File directory, String base, int itemsPerSecond, int framesPerSecond) throws java.io.IOException {
+		final EmbeddingImage[] snapshot = new EmbeddingImage[1];
+		runOnEventThread(new Runnable() {
+			public void run() {
+				if (getWidth() > 0 && getHeight() > 0) {
+					snapshot[0] = snapshot(getWidth(), getHeight(), true);
+				}
+			}
+		});
+		if (snapshot[0] == null) {
+			throw new java.io.IOException("the embedding display has no size yet; show its window first");
+		}
+		return snapshot[0].writeFrames(directory, base, itemsPerSecond, framesPerSecond);
+	}
+
+	/** Draws the placed items, which are not part of the embedding, and the dragging box, if it exists */
+	private void drawOverlays(Graphics2D g2) {
+		Point[] placed = placedLocalPoints;
+		String[] names = placedNames;
+		if (placed != null && names != null) {
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g2.setColor(placedPointColor);
+			for (int i = 0; i < placed.length && i < names.length; ++i) {
+				if (placed[i] != null) {
+					PointIcons.drawX(g2, placed[i]);
+					g2.drawString(names[i], placed[i].x + 6, placed[i].y - 4);
+				}
+			}
+			g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+		}
+		if (selectionBox.enabled) {
+			g2.setColor(embeddingSelectionBoxColor);
+			g2.drawLine(selectionBox.anchor.x, selectionBox.anchor.y, selectionBox.anchor.x, selectionBox.floater.y);
+			g2.drawLine(selectionBox.anchor.x, selectionBox.anchor.y, selectionBox.floater.x, selectionBox.anchor.y);
+			g2.drawLine(selectionBox.anchor.x, selectionBox.floater.y, selectionBox.floater.x, selectionBox.floater.y);
+			g2.drawLine(selectionBox.floater.x, selectionBox.anchor.y, selectionBox.floater.x, selectionBox.floater.y);
+		}
+		Polygon outline = lasso;
+		if (outline != null && outline.npoints > 1) {
+			g2.setColor(embeddingSelectionBoxColor);
+			g2.drawPolygon(outline);
+		}
+	}
+
+	/** Stamps the points of b into the raster, looking up a new sprite only when the colour changes */
+	private final void drawPointSet(BitSet b, int iconNumber, Color c, PointRaster r) {
+		boolean scoreColors = treeScoreColoring && treeScoreColors != null;
+		Color current = c;
+		PointRaster.Sprite sprite = r.getSprite(iconNumber, c);
+		int[] drawn = drawnItems;
+		float[] depth = homeZ;
+		for (int k = 0; k < numberDrawn; k++) {
+			int i = drawn[k];
+			if (b.get(i)) {
+				if (scoreColors && i < treeScoreColors.length && treeScoreColors[i] != null && !treeScoreColors[i].equals(current)) {
+					current = treeScoreColors[i];
+					sprite = r.getSprite(iconNumber, current);
+				}
+				if (depth != null) {
+					r.stamp(sprite, localPoints[i].x, localPoints[i].y, depth[i]);
+				} else {
+					r.stamp(sprite, localPoints[i].x, localPoints[i].y);
+				}
+			}
+		}
+	}
+
+	private final void drawPointSet(BitSet b, int iconNumber, Color c, Graphics g) {
+		g.setColor(c);
+		int[] drawn = drawnItems;
+		for (int k = 0; k < numberDrawn; ++k) {
+			int i = drawn[k];
+			if (b.get(i)) {
+				if (treeScoreColoring && treeScoreColors != null &&  i< treeScoreColors.length) {
+					g.setColor(treeScoreColors[i]);
+				}
+				PointIcons.draw(iconNumber,g,localPoints[i],mainWindow.getPointSize(), mainWindow.getFrameDot());
+			}
+		}
+	}
+
+	/**
+	 * Writes the embedding as it appears on the screen to the exporter: the same passes of
+	 * selected, unselected and sample points, with their icons and score colours, then the
+	 * placed items.  A 3D embedding is written point by point from the back to the front, so
+	 * nearer points cover farther ones as they do on the screen.  Points are written
+	 * individually even when the display is showing their density.  The embedding is copied
+	 * on the event thread and written from the copy, at the size of the panel, which must
+	 * have been laid out.
+	 */
+	public void exportVector(VectorExporter exporter) throws java.io.IOException {
+		final EmbeddingImage[] snapshot = new EmbeddingImage[1];
+		runOnEventThread(new Runnable() {
+			public void run() {
+				if (getWidth() > 0 && getHeight() > 0) {
+					snapshot[0] = snapshot(getWidth(), getHeight(), false);
+				}
+			}
+		});
+		if (snapshot[0] == null) {
+			throw new java.io.IOException("the embedding display has no size yet; show its window first");
+		}
+		snapshot[0].writeVector(exporter);
+	}
+
+	/**
+	 * Returns a picture of the embedding as the panel shows it (the same view, points,
+	 * selections and colours) scaled to fit width x height, for drawing off the screen.  A panel
+	 * that has never been laid out, as when its window has not been shown, is given the
+	 * picture's size.  The picture is copied from the panel on the event thread, so it may be
+	 * drawn on any thread.
+	 */
+	public EmbeddingImage makeImage(final int width, final int height) throws java.io.IOException {
+		final EmbeddingImage[] snapshot = new EmbeddingImage[1];
+		runOnEventThread(new Runnable() {
+			public void run() {
+				snapshot[0] = snapshot(width, height, false);
+			}
+		});
+		return snapshot[0];
+	}
+
+	/**
+	 * Runs task on the event thread, which owns the panel's view of the points, and waits for
+	 * it to finish; runs it at once if this is the event thread.
+	 */
+	private static void runOnEventThread(Runnable task) throws java.io.IOException {
+		if (EventQueue.isDispatchThread()) {
+			task.run();
+			return;
+		}
+		try {
+			EventQueue.invokeAndWait(task);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new java.io.IOException("interrupted while copying the embedding");
+		} catch (java.lang.reflect.InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
 			}
+			throw new RuntimeException(cause);
 		}
 	}
 
-	private final void drawPointSet(BitSet b, int iconNumber, Color c, Graphics g) {
-		g.setColor(c);
-		for (int i=0; i <= lastShown; ++i) {
-			if (b.get(i)) {
-				if (treeScoreColoring && treeScoreColors != null &&  i< treeScoreColors.length) {
-					g.setColor(treeScoreColors[i]);
+	/**
+	 * Copies the embedding as the panel shows it into a picture width x height; must be called
+	 * on the event thread.  The picture holds the points drawn now, or, if everyPoint, every
+	 * point shown and in the view in tree order, as the animation reveals them.  A panel that
+	 * has never been laid out is first given the picture's size, since the picture is scaled
+	 * from the panel's.
+	 */
+	private EmbeddingImage snapshot(int width, int height, boolean everyPoint) {
+		if (getWidth() <= 0 || getHeight() <= 0) {
+			setSize(width, height);
+		}
+		updatePoints();
+		resetBackgrounds();
+		float scale = Math.min((float) width / getWidth(), (float) height / getHeight());
+		float offsetX = (width - getWidth() * scale) / 2;
+		float offsetY = (height - getHeight() * scale) / 2;
+		EmbeddingImage image = new EmbeddingImage(width, height, embeddingBackGroundColor, mainWindow.getPointSize(), mainWindow.getFrameDot(), getFont(), scale);
+		int n = homeX.length;
+		float[] x = new float[n];
+		float[] y = new float[n];
+		float[] z = homeZ == null ? null : new float[n];
+		int[] items;
+		int count = 0;
+		if (everyPoint) {
+			items = new int[n];
+			BitSet shown = shownSet;
+			Rectangle view = zoomed ? viewInHome() : null;
+			for (int i = 0; i < n; i++) {
+				if ((shown == null || shown.get(i)) && (view == null || view.contains(Math.round(homeX[i]), Math.round(homeY[i])))) {
+					items[count++] = i;
 				}
-				PointIcons.draw(iconNumber,g,localPoints[i],mainWindow.getPointSize(), mainWindow.getFrameDot());
 			}
+		} else {
+			items = new int[numberDrawn];
+			System.arraycopy(drawnItems, 0, items, 0, numberDrawn);
+			count = numberDrawn;
 		}
-	}
-
-	public void drawInPostscript(java.io.PrintWriter psOutput) {
-		/* the whole page is 612x792 points (72 points per inch).  The bounding box used
-		   will be a square 7.5 inches wide, centered on both axes of the page */
-		/* origin of postscript coordinate system is the lower left corner */
-		Point lowerLeft  = new Point(36,126);  // 0.5 in from right edge, 1.75 in from botton
-		Point upperRight = new Point(576,666); // 0.5 in from left edge,  1.75 in from top
-		int pointRadius = 2;
-
-		/* Print the header of the postscript file, as given by Dr. Amenta */
-		psOutput.println("%!PS-Adobe-2.0 EPSF-1.2");
-		psOutput.println("%%BoundingBox: " + lowerLeft.x + " " + lowerLeft.y + " " + upperRight.x + " " + upperRight.y);
-		psOutput.println("/inch {72 mul} def");
-		psOutput.println("0.008 inch 0.008 inch scale");
-		psOutput.println();
-		psOutput.println("1 setlinewidth");
-		psOutput.println("1 setlinecap");
-		psOutput.println("1 setlinejoin");
-		psOutput.println();
-
-		Color currentColor;
-		for (int i=0; i<localPoints.length; ++i) {
-			/* choose the color */
-			if (treeScoreColoring && treeScoreColors != null) {
-				currentColor = treeScoreColors[i];
-			} else {
-				currentColor = Color.black;
+		for (int k = 0; k < count; k++) {
+			int i = items[k];
+			x[i] = offsetX + viewX(homeX[i]) * scale;
+			y[i] = offsetY + viewY(homeY[i]) * scale;
+			if (z != null) {
+				z[i] = homeZ[i];
 			}
-			psOutput.println( currentColor.getRed()   / 255.0f + " " +
-					currentColor.getGreen() / 255.0f + " " +
-					currentColor.getBlue()  / 255.0f + " setrgbcolor");
-
-			/* draw the point */
-			psOutput.println("newpath");
-			psOutput.println((localPoints[i].x + lowerLeft.x)  + " " + (localPoints[i].y + lowerLeft.y) +
-					" " + pointRadius + " 0 360 arc");
-			psOutput.println("closepath ");
-			psOutput.println("fill");
-			psOutput.println();
 		}
+		image.setPoints(x, y, z, items, count);
+		MultiSelections selections = selectionManager.getSelections();
+		BitSet unselected = (BitSet) fullSet.clone();
+		for (int i = 0; i < selections.getNumberOfSelections(); ++i) {
+			image.addPass((BitSet) selections.getSelection(i).clone(), selections.getIconNumber(i), embeddingSelectedPointColor);
+			unselected.andNot(selections.getSelection(i));
+		}
+		image.addPass(unselected, PointIcons.DOT, embeddingUnselectedPointColor);
+		image.addPass((BitSet) sampleSet.clone(), PointIcons.SAMPLE, embeddingSampledPointColor);
+		if (treeScoreColoring && treeScoreColors != null) {
+			image.setPointColors(treeScoreColors.clone());
+		}
+		image.setTrail(trailLength, embeddingUnselectedPointColor);
+		float[][] placedHome = placedHomeLocations;
+		if (placedHome != null && placedNames != null) {
+			float[][] placedImage = new float[placedHome.length][];
+			for (int i = 0; i < placedHome.length; i++) {
+				if (placedHome[i] != null) {
+					placedImage[i] = new float[] {offsetX + viewX(placedHome[i][0]) * scale, offsetY + viewY(placedHome[i][1]) * scale};
+				}
+			}
+			image.setPlaced(placedImage, placedNames.clone(), placedPointColor);
+		}
+		return image;
+	}
 
-		/* print the footer of the file */
-		psOutput.println("showpage");
+	/** Returns the colour of point i: its tree score colour if the points are colored by score, otherwise c */
+	private Color pointColor(int i, Color c) {
+		if (treeScoreColoring && treeScoreColors != null && i < treeScoreColors.length && treeScoreColors[i] != null) {
+			return treeScoreColors[i];
+		}
+		return c;
 	}
 
 
@@ -1529,18 +2938,43 @@ class EmbeddingDisplayPanel extends Panel {
 
 		updatePoints();
 
-		if (im == null) { // true on first run or after a resize
-			// Create a buffer for drawing to do double buffering and avoid flicker
-			im = createImage(getSize().width, getSize().height);
-			buf = (Graphics2D) im.getGraphics();
+		if (raster == null) {
+			raster = new PointRaster();
+		}
+		if (raster.ensureSize(getSize().width, getSize().height) || buf == null) { // true on first run or after a resize
+			// Make a Graphics for the labels on the (possibly new) image; the points are written into its pixels
+			if (buf != null) {
+				buf.dispose();
+			}
+			buf = raster.createGraphics();
 		}
 		// Draw the panel in the internal buffer
-		drawEmbedding(buf);
+		if (animating && (dimensions == 2 || dimensions == 3) && !usingDensity(raster)) {
+			drawAnimationFrame(raster, buf);
+		} else {
+			drawEmbedding(raster, buf);
+		}
 		// Flash it to the screen all at once
-		g.drawImage(im, 0, 0, this);
+		g.drawImage(raster.getImage(), 0, 0, this);
 	}
 
 
+	/**
+	 * Draws the current embedding straight to the screen, without going through the event
+	 * queue's repaint; called on the event thread by the frame scheduler.
+	 */
+	protected void drawFrame() {
+		Graphics g = getGraphics();
+		if (g == null) {
+			return; // not showing
+		}
+		try {
+			paint(g);
+		} finally {
+			g.dispose();
+		}
+	}
+
 	/**
 	 * Trival overriding of Component's update() to eliminate the unnecessary
 	 * background wipe and reduce flicker
@@ -1550,6 +2984,30 @@ class EmbeddingDisplayPanel extends Panel {
 	/** called by the main window when the sampling set is changed */
 	protected void setSample(BitSet sample) { this.sampleSet = sample; }
 
+	/** Sets the items placed into the embedding without being part of it (null for none) and their names. */
+	protected void setPlacedPoints(float[][] points, String[] names) {
+		placedNames = names;
+		placedPoints = points;
+		transformStale = true;
+	}
+
+	/** Restricts drawing to the points in shown; null draws them all.  The set may be added to later by showPoint. */
+	protected void setShown(BitSet shown) {
+		this.shownSet = shown;
+		screenPointsChanged();
+		transformStale = true;
+	}
+
+	/** Adds a point to those drawn, when drawing has been restricted by setShown */
+	protected void showPoint(int i) {
+		BitSet shown = shownSet;
+		if (shown != null) {
+			shown.set(i);
+			screenPointsChanged();
+			transformStale = true;
+		}
+	}
+
 
 	/** called by the main window when the user activates/deactivates tree score coloring */
 	protected void setTreeScoreColoring(boolean b) { treeScoreColoring = b; }
@@ -1557,12 +3015,76 @@ class EmbeddingDisplayPanel extends Panel {
 	/** called the first time tree score coloring is enabled to pass a reference to the color vector */
 	protected void setTreeScoreColors(Color[] c) { treeScoreColors = c; }
 
+	/** passes the scores the colours were computed from, for colouring density bins by mean score */
+	protected void setTreeScores(double[] scores) {
+		if (scores != null && scores.length > 0) {
+			minScore = scores[0];
+			maxScore = scores[0];
+			for (int i = 0; i < scores.length; ++i) {
+				minScore = Math.min(minScore, scores[i]);
+				maxScore = Math.max(maxScore, scores[i]);
+			}
+		}
+		if (scores != treeScores) {
+			densityStale = true;
+		}
+		treeScores = scores;
+	}
+
+	/** Sets how the points are drawn; one of PointSetVisualization's DISPLAY constants */
+	protected void setDisplayMode(int mode) { displayMode = mode; }
+
 	/**
 	 *  This is the accessor used to implement animation.  It is called by the animation thread.
 	 *  Synchronization is not necessary because an out-of-sync-by-one value for lastShown
 	 *  does not cause an error.
 	 */
-	protected void setLastShown(int last) { lastShown = last; }
+	protected void setLastShown(int last) {
+		if (last < lastShown) {
+			viewStale = true; // points are hidden again, so the drawn points must be found afresh
+		}
+		lastShown = last; // points newly revealed are added to those drawn by updatePoints
+	}
+
+	/**
+	 * Starts or stops drawing the animation of the tree order incrementally: while animating,
+	 * each frame adds only the newly revealed points to an accumulated picture, rather than
+	 * drawing every point shown so far.  The last trail points revealed are highlighted.
+	 */
+	protected void setAnimating(boolean animating, int trail) {
+		this.animating = animating;
+		trailLength = Math.max(0, trail);
+		animationFrameStale = true;
+		if (!animating) {
+			animationFrame = null; // free the memory, and redraw in the ordinary layering
+			super.repaint();
+		}
+	}
+
+	/**
+	 * Asks for a repaint that marks the accumulated animation frame stale, since something
+	 * other than the revealed points may have changed.  Animation frames are asked for with
+	 * repaintAnimation.
+	 */
+	public void repaint() {
+		animationFrameStale = true;
+		super.repaint();
+	}
+
+	/** Asks for the next animation frame to be painted, keeping the accumulated frame */
+	protected void repaintAnimation() {
+		super.repaint();
+	}
+
+	/** Returns the index of the drawn points, rebuilding it if they have changed since it was last built */
+	private PointGrid getPointGrid() {
+		updatePoints(); // in case nothing has been drawn since the points changed
+		if (pointGridStale) {
+			pointGridStale = false;
+			pointGrid.build(localPoints, drawnItems, numberDrawn, getWidth(), getHeight());
+		}
+		return pointGrid;
+	}
 
 	/**
 	 * Called when the user clicks in the picture without dragging. Selects the
@@ -1573,21 +3095,8 @@ class EmbeddingDisplayPanel extends Panel {
 	 * @param  modifierKeys  were Control or Shift (or both) pressed?
 	 */
 	private void selectFromPoint(Point p, int modifierKeys) {
-		int closestPoint = -1;// Dummy value, means no nearby point has been found so far
-		double closestDistance = 0;
-		double currentDistance;
-		for (int i = 0; i < localPoints.length; i++) {
-			// If the point is within n pixels of the click, check the distance
-			if ((Math.abs(p.x - localPoints[i].x) < singleClickSensitivity)
-					&& (Math.abs(p.y - localPoints[i].y) < singleClickSensitivity)) {
-				currentDistance = Math.sqrt((p.x - localPoints[i].x) * (p.x - localPoints[i].x)
-						+ (p.y - localPoints[i].y) * (p.y - localPoints[i].y));
-				if (closestPoint == -1 || currentDistance <= closestDistance) {
-					closestPoint = i;
-					closestDistance = currentDistance;
-				}
-			}
-		}
+		// -1 means no drawn point is within n pixels of the click
+		int closestPoint = getPointGrid().nearest(p.x, p.y, singleClickSensitivity);
 		// initialize selection set by setting all bits to false
 		selectionSet.and(emptySet);
 		if (closestPoint != -1) { // click was close to at least one point
@@ -1611,30 +3120,103 @@ class EmbeddingDisplayPanel extends Panel {
 				Math.abs(b.anchor.x - b.floater.x), Math.abs(b.anchor.y - b.floater.y) );
 		// initialize the selection set by clearing all of its bits
 		selectionSet.and(emptySet);
-		for (int i = 0; i < localPoints.length; i++) {
-			// All points within the rectangle are selected
-			if (rec.contains(localPoints[i])) {
-				selectionSet.set(i);
-			}
-		}
+		// All points within the rectangle are selected
+		getPointGrid().selectInRectangle(rec, selectionSet);
 		// Pass the selection event to the selection manager
 		selectionManager.selectionEvent(selectionSet, modifierKeys);
 		repaint(); // because the selection box needs to vanish
 	}
 
 	/**
-	 * Description of the Method
+	 * Called after a lasso has been dragged. All points inside the outline (closed back
+	 * to where the drag started) are selected.
+	 */
+	private void selectFromLasso(Polygon outline, int modifierKeys) {
+		selectionSet.and(emptySet);
+		getPointGrid().selectInPolygon(outline, selectionSet);
+		selectionManager.selectionEvent(selectionSet, modifierKeys);
+		repaint(); // because the lasso needs to vanish
+	}
+
+	/**
+	 * Computes the screen locations of the points in the view.  The embedding is first fitted
+	 * to the panel, giving each point a home location (its place when not zoomed); this is
+	 * done only when MDS has published a new embedding, the panel has been resized, or the
+	 * points shown have changed.  The home locations are indexed, so when zoomed in only the
+	 * points in the view are found, put on the screen and drawn.
 	 */
 	private void updatePoints() {
 		// Access the shared data area for the points written by the MDS thread
-		pointsFromMDS = sharedPoints.getPoints();
+		float[][] latest = sharedPoints.getPoints();
+		if (latest != pointsFromMDS || transformStale || getWidth() != transformWidth || getHeight() != transformHeight) {
+			pointsFromMDS = latest;
+			transformStale = false;
+			transformWidth = getWidth();
+			transformHeight = getHeight();
+			fitToPanel();
+			viewStale = true;
+		}
+		if (viewStale) {
+			viewStale = false;
+			updateView();
+		} else if (lastShown > revealedUpTo) {
+			addRevealed();
+		}
+	}
+
+	/**
+	 * Adds the points revealed since the drawn points were found (those after revealedUpTo, up
+	 * to lastShown) to the end of drawnItems, which keeps it in order since they come after
+	 * every point already there.  This costs only the new points, so animating the tree order
+	 * is not quadratic.
+	 */
+	private void addRevealed() {
+		int last = Math.min(lastShown, pointsFromMDS.length - 1);
+		BitSet shown = shownSet;
+		Rectangle view = zoomed ? viewInHome() : null;
+		for (int i = revealedUpTo + 1; i <= last; i++) {
+			if ((shown == null || shown.get(i)) && (view == null || view.contains(Math.round(homeX[i]), Math.round(homeY[i])))) {
+				drawnItems[numberDrawn++] = i;
+				localPoints[i].setLocation(screenX(homeX[i]), screenY(homeY[i]));
+			}
+		}
+		revealedUpTo = lastShown;
+		screenPointsChanged();
+	}
+
+	/** Returns the view in home locations, widened so that icons partly in it are drawn */
+	private Rectangle viewInHome() {
+		float halfWidth = getWidth() / (2 * zoom);
+		float halfHeight = getHeight() / (2 * zoom);
+		float border = VIEW_BORDER / zoom + 1;
+		return new Rectangle((int) Math.floor(viewCenterX - halfWidth - border), (int) Math.floor(viewCenterY - halfHeight - border),
+				(int) Math.ceil(2 * (halfWidth + border)) + 1, (int) Math.ceil(2 * (halfHeight + border)) + 1);
+	}
+
+	/** Computes the home location of every point and placed item, and indexes those of the points */
+	private void fitToPanel() {
+		if (dimensions == 3 && pointsFromMDS.length > 0 && pointsFromMDS[0].length >= 3) {
+			fitRotated();
+			return;
+		}
+		homeZ = null;
+		BitSet shown = shownSet;
+		int first = 0;
+		if (shown != null && shown.nextSetBit(0) >= 0) {
+			first = shown.nextSetBit(0);
+		} else {
+			shown = null;
+		}
 
-		float min_x = pointsFromMDS[0][0];
-		float min_y = pointsFromMDS[0][1];
-		float max_x = pointsFromMDS[0][0];
-		float max_y = pointsFromMDS[0][1];
+		float min_x = pointsFromMDS[first][0];
+		float min_y = pointsFromMDS[first][1];
+		float max_x = pointsFromMDS[first][0];
+		float max_y = pointsFromMDS[first][1];
 		// First, pass over the points once to find the minimums and maximums for each dimension.
 		for (int i = 0; i < pointsFromMDS.length; i++) {
+			if (shown != null && !shown.get(i)) {
+				continue; // not yet in the embedding
+			}
 			if (pointsFromMDS[i][0] < min_x) {
 				min_x = pointsFromMDS[i][0];
 			}
@@ -1648,8 +3230,19 @@ class EmbeddingDisplayPanel extends Panel {
 				max_y = pointsFromMDS[i][1];
 			}
 		}
+		float[][] placed = placedPoints;
+		if (placed != null) { // keep the placed items in view too
+			for (int i = 0; i < placed.length; i++) {
+				if (placed[i] != null) {
+					min_x = Math.min(min_x, placed[i][0]);
+					min_y = Math.min(min_y, placed[i][1]);
+					max_x = Math.max(max_x, placed[i][0]);
+					max_y = Math.max(max_y, placed[i][1]);
+				}
+			}
+		}
 		// Now to find the embeddings, translate the points so the minimum is at zero, scale them
-		// so that the maximum is at the display width (minus margins), and round them to integers
+		// so that the maximum is at the display width (minus margins).
 		// To avoid aspect distortion, the smaller of the two scale factors is used for both axes.
 		// Points are centered on the larger axis.
 		int margin = 5;
@@ -1669,10 +3262,284 @@ class EmbeddingDisplayPanel extends Panel {
 			x_offset = (embeddingWidth - (max_x - min_x) * scale_y) / 2;
 			y_offset = 0;
 		}
-		for (int i = 0; i < pointsFromMDS.length; i++) {
-			localPoints[i].setLocation( (margin + Math.round((float) ((pointsFromMDS[i][0] - min_x) * scale) + x_offset)),
-					(margin + Math.round((float) ((pointsFromMDS[i][1] - min_y) * scale) + y_offset)) );
+		int n = pointsFromMDS.length;
+		if (homeX == null || homeX.length != n) {
+			homeX = new float[n];
+			homeY = new float[n];
+		}
+		for (int i = 0; i < n; i++) {
+			homeX[i] = margin + (pointsFromMDS[i][0] - min_x) * scale + x_offset;
+			homeY[i] = margin + (pointsFromMDS[i][1] - min_y) * scale + y_offset;
+		}
+		homeGrid.build(homeX, homeY, n, getWidth(), getHeight());
+		if (placed != null) {
+			float[][] placedHome = new float[placed.length][];
+			for (int i = 0; i < placed.length; i++) {
+				if (placed[i] != null) {
+					placedHome[i] = new float[] {margin + (placed[i][0] - min_x) * scale + x_offset, margin + (placed[i][1] - min_y) * scale + y_offset};
+				}
+			}
+			placedHomeLocations = placedHome;
+		} else {
+			placedHomeLocations = null;
+		}
+	}
+
+	/**
+	 * Computes the home locations of a 3D embedding: each point is turned by the rotation
+	 * about the centroid and projected orthographically, with its depth kept for drawing.  The
+	 * scale fits the sphere holding all the points to the panel, so that the picture keeps its
+	 * size while it is turned.
+	 */
+	private void fitRotated() {
+		BitSet shown = shownSet;
+		if (shown != null && shown.nextSetBit(0) < 0) {
+			shown = null;
+		}
+		int n = pointsFromMDS.length;
+		double[] centroid = new double[3];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			if (shown == null || shown.get(i)) {
+				for (int c = 0; c < 3; c++) {
+					centroid[c] += pointsFromMDS[i][c];
+				}
+				count++;
+			}
+		}
+		for (int c = 0; c < 3; c++) {
+			centroid[c] /= Math.max(count, 1);
+		}
+		double radius = 0;
+		for (int i = 0; i < n; i++) {
+			if (shown == null || shown.get(i)) {
+				radius = Math.max(radius, distanceFrom(centroid, pointsFromMDS[i]));
+			}
+		}
+		float[][] placed = placedPoints;
+		if (placed != null) { // keep the placed items in view too
+			for (int i = 0; i < placed.length; i++) {
+				if (placed[i] != null) {
+					radius = Math.max(radius, distanceFrom(centroid, placed[i]));
+				}
+			}
+		}
+		int margin = 5;
+		float scale = (float) ((Math.min(getWidth(), getHeight()) / 2.0 - margin) / (radius > 0 ? radius : 1));
+		float centerX = getWidth() / 2f;
+		float centerY = getHeight() / 2f;
+		if (homeX == null || homeX.length != n) {
+			homeX = new float[n];
+			homeY = new float[n];
+		}
+		if (homeZ == null || homeZ.length != n) {
+			homeZ = new float[n];
+		}
+		float[] turned = new float[3];
+		for (int i = 0; i < n; i++) {
+			turn(pointsFromMDS[i], centroid, turned);
+			homeX[i] = centerX + turned[0] * scale;
+			homeY[i] = centerY + turned[1] * scale;
+			homeZ[i] = turned[2];
+		}
+		homeGrid.build(homeX, homeY, n, getWidth(), getHeight());
+		if (placed != null) {
+			float[][] placedHome = new float[placed.length][];
+			for (int i = 0; i < placed.length; i++) {
+				if (placed[i] != null) {
+					turn(placed[i], centroid, turned);
+					placedHome[i] = new float[] {centerX + turned[0] * scale, centerY + turned[1] * scale};
+				}
+			}
+			placedHomeLocations = placedHome;
+		} else {
+			placedHomeLocations = null;
+		}
+	}
+
+	/** Returns the distance of point from the centroid in the first three dimensions (missing coordinates count as 0) */
+	private static double distanceFrom(double[] centroid, float[] point) {
+		double sum = 0;
+		for (int c = 0; c < 3; c++) {
+			double d = (c < point.length ? point[c] : 0) - centroid[c];
+			sum += d * d;
+		}
+		return Math.sqrt(sum);
+	}
+
+	/** Puts into turned the point's offset from the centroid, turned by the rotation into screen axes */
+	private void turn(float[] point, double[] centroid, float[] turned) {
+		double x = point[0] - centroid[0];
+		double y = point[1] - centroid[1];
+		double z = (point.length > 2 ? point[2] : 0) - centroid[2];
+		for (int r = 0; r < 3; r++) {
+			turned[r] = (float) (rotation[r][0] * x + rotation[r][1] * y + rotation[r][2] * z);
+		}
+	}
+
+	/**
+	 * Turns the 3D view as if the embedding were a ball dragged dx, dy pixels: dragging
+	 * sideways turns it about the screen's vertical axis, up and down about the horizontal.
+	 */
+	protected void rotate(int dx, int dy) {
+		double yaw = dx * ROTATION_PER_PIXEL;
+		double pitch = -dy * ROTATION_PER_PIXEL;
+		double[][] turned = new double[3][3];
+		double cosYaw = Math.cos(yaw), sinYaw = Math.sin(yaw);
+		double cosPitch = Math.cos(pitch), sinPitch = Math.sin(pitch);
+		for (int c = 0; c < 3; c++) {
+			// about the vertical (y) axis: mixes the x and depth rows
+			double x = cosYaw * rotation[0][c] - sinYaw * rotation[2][c];
+			double z = sinYaw * rotation[0][c] + cosYaw * rotation[2][c];
+			// then about the horizontal (x) axis: mixes the y and depth rows
+			turned[0][c] = x;
+			turned[1][c] = cosPitch * rotation[1][c] - sinPitch * z;
+			turned[2][c] = sinPitch * rotation[1][c] + cosPitch * z;
+		}
+		orthonormalize(turned);
+		rotation = turned;
+		transformStale = true;
+		repaint();
+	}
+
+	/** Turns the 3D view back to looking down the third axis */
+	protected void resetRotation() {
+		rotation = new double[][] {{1, 0, 0}, {0, 1, 0}, {0, 0, 1}};
+		transformStale = true;
+		repaint();
+	}
+
+	/** Removes the rounding error built up by many small turns, by Gram-Schmidt on the rows */
+	private static void orthonormalize(double[][] m) {
+		for (int r = 0; r < 3; r++) {
+			for (int q = 0; q < r; q++) {
+				double dot = m[r][0] * m[q][0] + m[r][1] * m[q][1] + m[r][2] * m[q][2];
+				for (int c = 0; c < 3; c++) {
+					m[r][c] -= dot * m[q][c];
+				}
+			}
+			double length = Math.sqrt(m[r][0] * m[r][0] + m[r][1] * m[r][1] + m[r][2] * m[r][2]);
+			for (int c = 0; c < 3; c++) {
+				m[r][c] /= length;
+			}
+		}
+	}
+
+	/** Sets the number of dimensions of the embedding shown; in 3D it is projected through the rotation */
+	protected void setDimensions(int d) {
+		dimensions = d;
+		transformStale = true;
+	}
+
+	/** Finds the points to draw (those in the view, up to lastShown and in shownSet) and puts them on the screen */
+	private void updateView() {
+		int n = pointsFromMDS.length;
+		if (drawnItems == null || drawnItems.length < n) {
+			drawnItems = new int[n];
+		}
+		int last = Math.min(lastShown, n - 1);
+		BitSet shown = shownSet;
+		int candidates;
+		if (zoomed) {
+			candidates = homeGrid.collectInRectangle(viewInHome(), drawnItems);
+			// put them back in order, so points overlap as they do when not zoomed
+			java.util.Arrays.sort(drawnItems, 0, candidates);
+		} else {
+			candidates = n;
+			for (int i = 0; i < n; i++) {
+				drawnItems[i] = i;
+			}
+		}
+		int count = 0;
+		for (int k = 0; k < candidates; k++) {
+			int i = drawnItems[k];
+			if (i <= last && (shown == null || shown.get(i))) {
+				drawnItems[count++] = i;
+				localPoints[i].setLocation(screenX(homeX[i]), screenY(homeY[i]));
+			}
+		}
+		numberDrawn = count;
+		revealedUpTo = lastShown;
+		animationFrameStale = true;
+		float[][] placedHome = placedHomeLocations;
+		if (placedHome != null) {
+			Point[] placedLocal = new Point[placedHome.length];
+			for (int i = 0; i < placedHome.length; i++) {
+				if (placedHome[i] != null) {
+					placedLocal[i] = new Point(screenX(placedHome[i][0]), screenY(placedHome[i][1]));
+				}
+			}
+			placedLocalPoints = placedLocal;
+		} else {
+			placedLocalPoints = null;
+		}
+		screenPointsChanged();
+	}
+
+	/** Returns the screen x coordinate of home x coordinate x */
+	private int screenX(float x) {
+		return Math.round(viewX(x));
+	}
+
+	/** Returns the screen y coordinate of home y coordinate y */
+	private int screenY(float y) {
+		return Math.round(viewY(y));
+	}
+
+	/** Returns the screen x coordinate of home x coordinate x, unrounded */
+	private float viewX(float x) {
+		if (!zoomed) {
+			return x;
+		}
+		return (x - viewCenterX) * zoom + getWidth() / 2f;
+	}
+
+	/** Returns the screen y coordinate of home y coordinate y, unrounded */
+	private float viewY(float y) {
+		if (!zoomed) {
+			return y;
+		}
+		return (y - viewCenterY) * zoom + getHeight() / 2f;
+	}
+
+	/** Zooms in (factor above 1) or out by factor, keeping the point under screen location (x, y) where it is */
+	protected void zoomAbout(int x, int y, float factor) {
+		if (!zoomed) {
+			viewCenterX = getWidth() / 2f;
+			viewCenterY = getHeight() / 2f;
+		}
+		float homeXAtPointer = (x - getWidth() / 2f) / zoom + viewCenterX;
+		float homeYAtPointer = (y - getHeight() / 2f) / zoom + viewCenterY;
+		float newZoom = Math.min(MAX_ZOOM, zoom * factor);
+		if (newZoom <= 1) {
+			resetZoom(); // zooming out past the whole embedding just shows all of it
+			return;
+		}
+		zoom = newZoom;
+		viewCenterX = homeXAtPointer - (x - getWidth() / 2f) / zoom;
+		viewCenterY = homeYAtPointer - (y - getHeight() / 2f) / zoom;
+		zoomed = true;
+		viewStale = true;
+		repaint();
+	}
+
+	/** Moves the view so that the points move dx, dy pixels on the screen */
+	protected void pan(int dx, int dy) {
+		if (!zoomed) {
+			return; // the whole embedding is in view already
 		}
+		viewCenterX -= dx / zoom;
+		viewCenterY -= dy / zoom;
+		viewStale = true;
+		repaint();
+	}
+
+	/** Shows the whole embedding again */
+	protected void resetZoom() {
+		zoom = 1;
+		zoomed = false;
+		viewStale = true;
+		repaint();
 	}
 
 
@@ -2149,71 +4016,190 @@ class PointIcons {
  * This is a class I wrote to encapsulate all of the interaction between the mds
  * thread and the display (main) thread. The two threads communicate through
  * shared data (a set of points that represents the current embedding). There is
- * no other shared resouce. (Except for processor time on a single-processor
- * system. The two threads will have the same priority and yield to each other
- * after each loop iteration to make sure that one of them doesn't hog the CPU.)
+ * no other shared resouce.
+ *
+ * Finished embeddings are handed from the MDS thread to the display without either side
+ * waiting for the other.  There are three buffers: the writer fills its own back
+ * buffer and then swaps it with the middle one, marking it fresh; the reader swaps
+ * its front buffer with the middle one only when the middle one is fresh.  The swaps
+ * are atomic, so the reader always gets the most recent complete embedding and
+ * never one half written.  Writers (the MDS thread, and the main thread when it
+ * scrambles or resizes the embedding) are serialized among themselves; the reader
+ * takes no lock.
  *
  *@author     Jeff Klingner
  */
 class SharedPoints {
 
-	private MDSPoint[] points;
-	private float[][] bare_points;
+	/** One complete copy of the embedding */
+	private static class Buffer {
+		final float[][] points;
+		/** true if written since the reader last took it */
+		boolean fresh;
+
+		Buffer(int number_of_points, int number_of_dimensions) {
+			points = new float[number_of_points][number_of_dimensions];
+		}
+	}
+
+	/** Holds the middle buffer; both sides exchange it atomically */
+	private static class Handover {
+		private final java.util.concurrent.atomic.AtomicReference buffer = new java.util.concurrent.atomic.AtomicReference();
+
+		Buffer get() {
+			return (Buffer) buffer.get();
+		}
+
+		void set(Buffer newBuffer) {
+			buffer.set(newBuffer);
+		}
+
+		/** Puts newBuffer in the middle and returns the one that was there */
+		Buffer exchange(Buffer newBuffer) {
+			return (Buffer) buffer.getAndSet(newBuffer);
+		}
+	}
+
 	private int n_dims;
-	private float stress;
+	/** owned by the writer */
+	private Buffer back;
+	/** the buffer being handed over; exchanged atomically by both sides */
+	private final Handover middle = new Handover();
+	/** owned by the reader */
+	private Buffer front;
+	private volatile float stress;
 
 	public SharedPoints(int number_of_points, int number_of_dimensions) {
 		n_dims = number_of_dimensions;
-		points = new MDSPoint[number_of_points];
-		bare_points = new float[number_of_points][];
-		for (int i = 0; i < number_of_points; i++) {
-			points[i] = new MDSPoint(number_of_dimensions);
-			bare_points[i] = new float[number_of_dimensions];
-		}
+		resetNumberOfPoints(number_of_points);
 	}
 
 	public synchronized void resetNumberOfPoints(int newNumberOfPoints) {
-		points = new MDSPoint[newNumberOfPoints];
-		bare_points = new float[newNumberOfPoints][];
-		for (int i = 0; i < newNumberOfPoints; i++) {
-			points[i] = new MDSPoint(n_dims);
-			bare_points[i] = new float[n_dims];
+		back = new Buffer(newNumberOfPoints, n_dims);
+		Buffer newMiddle = new Buffer(newNumberOfPoints, n_dims);
+		newMiddle.fresh = true; // so that the reader switches to the new number of points at once
+		if (front == null) {
+			front = new Buffer(newNumberOfPoints, n_dims);
 		}
+		middle.set(newMiddle);
 	}
 
+	/** Called by the writer to publish a new embedding */
 	public synchronized void setPoints(MDSPoint[] new_points) {
-		// At entry (when called by the mds thread) this class is locked and
-		// the display window can't access the points.
+		if (new_points.length > 0) {
+			n_dims = new_points[0].getDimensionality(); // follows the writer when the embedding changes dimension
+		}
+		if (back.points.length != new_points.length || (new_points.length > 0 && back.points[0].length != n_dims)) {
+			back = new Buffer(new_points.length, n_dims);
+		}
+		float[][] points = back.points;
 		for (int i = 0; i < points.length; i++) {
-			for (int j = 0; j < n_dims; j++) {
-				points[i].setComponent(j, new_points[i].getComponent(j));
-			}
+			new_points[i].copyInto(points[i]);
 		}
-		// At exit, the lock is released (by the mds thread) and getPoints
-		// can be called by the main thread (to do display).
+		back.fresh = true;
+		back = middle.exchange(back);
 	}
 
-	public synchronized void setStress(float stress) {
+	public void setStress(float stress) {
 		this.stress = stress;
 	}
 
-	public synchronized float getStress() {
+	public float getStress() {
 		return stress;
 	}
 
-	/** Called by the display/interaction class to get the current embedding */
-	public synchronized float[][] getPoints() {
-		// At entry (when called by the main thread to get the points for display)
-		// a lock is acquired.  If the mds thread wants to write these points, it
-		// will block until the lock is released.
-		for (int i = 0; i < points.length; i++) {
-			for (int j = 0; j < n_dims; j++) {
-				bare_points[i][j] = points[i].getComponent(j);
+	/** Called by the display/interaction class to get the current embedding.  The array
+	 *  returned stays unchanged until the next call. */
+	public float[][] getPoints() {
+		if (middle.get().fresh) {
+			front.fresh = false;
+			front = middle.exchange(front);
+		}
+		return front.points;
+	}
+}
+
+/**
+ * Paces the redrawing of the embedding while MDS runs.  Requests for a frame (one per MDS
+ * iteration) only set a flag; this thread turns them into at most frameRate frames a second,
+ * each drawn on the event thread.  Requests arriving while a frame is waiting for its time or
+ * still being drawn are merged into the next frame, so a renderer that falls behind skips
+ * frames instead of queueing them.
+ */
+class FrameScheduler extends Thread {
+	public static final int DEFAULT_FRAME_RATE = 30;
+	/** draws one frame; run on the event thread */
+	private Runnable frame;
+	private int frameRate;
+	/** true if a frame has been asked for since the last one was started */
+	private boolean requested;
+	/** true from when a frame is handed to the event thread until it is drawn */
+	private boolean drawing;
+	private boolean exitFlag;
+	/** when the last frame was started, in milliseconds */
+	private long lastFrameTime;
+
+	public FrameScheduler(Runnable frame, int frameRate) {
+		super("Embedding frames");
+		setDaemon(true);
+		this.frame = frame;
+		this.frameRate = frameRate;
+	}
+
+	public synchronized void requestFrame() {
+		requested = true;
+		notify();
+	}
+
+	public synchronized void setFrameRate(int frameRate) {
+		this.frameRate = Math.max(1, frameRate);
+		notify();
+	}
+
+	/** Ends the thread */
+	public synchronized void halt() {
+		exitFlag = true;
+		notify();
+	}
+
+	public void run() {
+		Runnable drawTask = new Runnable() {
+			public void run() {
+				try {
+					frame.run();
+				} finally {
+					frameDrawn();
+				}
+			}
+		};
+		while (true) {
+			synchronized (this) {
+				try {
+					while (!exitFlag && (!requested || drawing)) {
+						wait();
+					}
+					if (exitFlag) {
+						return;
+					}
+					long delay = lastFrameTime + 1000 / frameRate - System.currentTimeMillis();
+					if (delay > 0) {
+						wait(delay);
+						continue; // look again; more requests may have been merged in meanwhile
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				requested = false;
+				drawing = true;
+				lastFrameTime = System.currentTimeMillis();
 			}
+			EventQueue.invokeLater(drawTask);
 		}
-		return bare_points;
-		// At exit, the lock held by the display thread is released and the
-		// mds thread is free to write to the points again.
+	}
+
+	private synchronized void frameDrawn() {
+		drawing = false;
+		notify();
 	}
 }
 
@@ -2226,6 +4212,13 @@ class MDSThread extends Thread {
 	public boolean waitFlag;
 	/** set by MDSWindow during exit and cleanup.  Causes thread to return and die. */
 	public boolean exitFlag;
+	/** true if the thread suspended itself because the embedding converged, rather than
+	 *  at the user's request.  Only a thread idle for this reason is woken by inputsChanged(). */
+	private boolean idleFromConvergence;
+	/** set when the inputs to the embedding change, so that convergence is judged afresh */
+	private boolean resetRequested;
+	/** decides when the embedding has converged, and adapts the step size along the way */
+	private ConvergenceMonitor convergenceMonitor;
 
 	/** the object in which the calculations happen */
 	private MDS mds;
@@ -2241,6 +4234,47 @@ class MDSThread extends Thread {
 		this.mdsWindow = mdsWindow;
 		waitFlag = false;
 		exitFlag = false;
+		idleFromConvergence = false;
+		resetRequested = false;
+		convergenceMonitor = new ConvergenceMonitor();
+	}
+
+	/**
+	 * Called when the difference matrix, the sample, or the step size changes.  The
+	 * convergence test starts over, and if the thread had gone idle because the old
+	 * embedding converged, it is woken to work on the new one.
+	 *
+	 * @return  true if the thread was idle from convergence and has been woken
+	 */
+	public synchronized boolean inputsChanged() {
+		resetRequested = true;
+		if (idleFromConvergence) {
+			idleFromConvergence = false;
+			waitFlag = false;
+			notify();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Hands the thread a different MDS object to iterate, for example when the user
+	 * switches to another kind of MDS.  Takes effect before the next iteration.
+	 */
+	public synchronized void setMDS(MDS newMds) {
+		mds = newMds;
+		resetRequested = true;
+	}
+
+	/** Called when the user presses Stop, so that later input changes don't restart the thread. */
+	public synchronized void userStopped() {
+		waitFlag = true;
+		idleFromConvergence = false;
+	}
+
+	/** Returns true if the thread is idle because the embedding converged. */
+	public synchronized boolean isIdleFromConvergence() {
+		return idleFromConvergence;
 	}
 
 
@@ -2273,9 +4307,24 @@ class MDSThread extends Thread {
 				return;// stop execution, ending the life of this MDSThread
 			}
 
+			MDS mds;
+			synchronized (this) {
+				mds = this.mds; // may have been replaced since the last iteration
+				if (resetRequested) {
+					resetRequested = false;
+					convergenceMonitor.reset();
+					mds.restart();
+				}
+			}
+
 			// Do a computational step.
 			mds.doOneIteration();
 
+			// Draw a new sample if the resampling interval has passed
+			if (mds.getTargetDistances().iterationComplete()) {
+				mdsWindow.mds_resampled();
+			}
+
 			// Every CENTERING_CHECK_PERIOD iterations, recenter (recentering only has an effect if
 			// the embedding has drifted beyond a given threshold.
 			centering_check_counter = (centering_check_counter + 1) % mds.CENTERING_CHECK_PERIOD;
@@ -2295,6 +4344,25 @@ class MDSThread extends Thread {
 			// This will induce a redraw of the embedding display and the stress display
 			mdsWindow.mds_iteration_complete();
 
+			// Adapt the step size, and go idle if the embedding has stopped changing.
+			boolean converged = convergenceMonitor.iterationComplete(mds);
+			if (convergenceMonitor.getStepSizeChanged()) {
+				mdsWindow.mds_step_size_adapted(mds.getStepSize());
+			}
+			if (converged) {
+				boolean wentIdle = false;
+				synchronized (this) {
+					if (!waitFlag && !resetRequested) { // don't override a Stop or a change that arrived meanwhile
+						waitFlag = true;
+						idleFromConvergence = true;
+						wentIdle = true;
+					}
+				}
+				if (wentIdle) {
+					mdsWindow.mds_converged(convergenceMonitor.getIterations(), convergenceMonitor.getElapsedTime());
+				}
+			}
+
 			//System.out.println("MDS thread ran an iteration. Priority = " + Thread.currentThread().getPriority());
 		}
 	}
@@ -0,0 +1,298 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import mesquite.lib.*;
+import mesquite.consensusTSV.common.PSWTree;
+
+/**
+ * Embeds trees without computing any differences between them.  A tree is a sparse vector
+ * over the universe of splits (bipartitions of the taxa), with a 1 for each of its splits,
+ * or the length of the split's branch; the squared Euclidean distance between two such
+ * vectors is the (weighted) Robinson-Foulds difference.  Each split is hashed to a column
+ * of a sparse random projection in the manner of Achlioptas ("Database-friendly random
+ * projections", 2003): each of PROJECTION_DIMENSIONS coordinates is sqrt(3/D) times +1 or -1
+ * with probability 1/6 each, and 0 otherwise.  A tree's projected vector is the sum of the
+ * columns of its splits, which by the Johnson-Lindenstrauss lemma roughly preserves the
+ * distances between trees.  The splits are read with the PSW representation used by the
+ * Robinson-Foulds modules, so projecting a tree costs O(n) for n taxa; nothing is pairwise.
+ * <p>
+ * A split is identified by the side not containing taxon 0 (the PSW traversal is rooted at
+ * taxon 0), hashed as the sum of a random 64-bit number for each taxon on that side, which
+ * can be accumulated up the traversal.  principalComponents() then reduces the projected
+ * vectors to the few dimensions of the display.
+ */
+class SplitProjection {
+	/** number of coordinates of the random projection */
+	protected static final int PROJECTION_DIMENSIONS = 64;
+	/** iterations of the power method for each principal component */
+	protected static final int POWER_ITERATIONS = 100;
+
+	/** true if splits are weighted by their branch lengths; otherwise each counts 1 */
+	private boolean weighted;
+	/** random 64-bit number for each taxon */
+	private long[] taxonHashes = new long[0];
+	private float scale = (float) Math.sqrt(3.0 / PROJECTION_DIMENSIONS);
+
+	public SplitProjection(boolean weighted) {
+		this.weighted = weighted;
+	}
+
+	/** SplitMix64 finalizer; spreads the bits of x over the whole word */
+	private static long mix(long x) {
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
+	private long taxonHash(int taxon) {
+		if (taxon >= taxonHashes.length) {
+			long[] newHashes = new long[Math.max(taxon + 1, 2 * taxonHashes.length)];
+			for (int t = 0; t < newHashes.length; ++t) {
+				newHashes[t] = mix(t + 0x9e3779b97f4a7c15L); // the same for every run, so projections can be compared
+			}
+			taxonHashes = newHashes;
+		}
+		return taxonHashes[taxon];
+	}
+
+	/** Adds weight times the projection column of the split with the given hash to vector */
+	private void addSplit(float[] vector, long splitHash, float weight) {
+		float amount = scale * weight;
+		for (int c = 0; c < PROJECTION_DIMENSIONS; ++c) {
+			long r = (mix(splitHash + c * 0x9e3779b97f4a7c15L) >>> 1) % 6;
+			if (r == 0) {
+				vector[c] += amount;
+			} else if (r == 1) {
+				vector[c] -= amount;
+			}
+		}
+	}
+
+	/**
+	 * Returns the projected vector of a tree.  Trivial splits (one taxon against the rest)
+	 * are in every tree, so they only count when splits are weighted by branch length.
+	 */
+	public float[] project(Tree tree) {
+		float[] vector = new float[PROJECTION_DIMENSIONS];
+		PSWTree psw = new PSWTree(tree);
+		int n = psw.getN();
+		// per vertex on the stack: hash of the taxa below, number of taxa, PSW weight, and node
+		long[] hashStack = new long[2 * n + 2];
+		int[] sizeStack = new int[2 * n + 2];
+		int[] weightStack = new int[2 * n + 2];
+		int[] nodeStack = new int[2 * n + 2];
+		int top = 0;
+		psw.prepareForEnumeration();
+		for (int[] vw = psw.nextVertex(); vw != null; vw = psw.nextVertex()) {
+			long hash = 0;
+			int size = 0;
+			int weight = 1;
+			int node;
+			if (vw[1] == 0) { // leaf
+				hash = taxonHash(vw[0]);
+				size = 1;
+				node = tree.nodeOfTaxonNumber(vw[0]);
+			} else { // interior vertex: gather its children off the stack
+				int w = vw[1];
+				int firstChild = top;
+				while (w > 0 && top > 0) {
+					--top;
+					hash += hashStack[top];
+					size += sizeStack[top];
+					weight += weightStack[top];
+					w -= weightStack[top];
+				}
+				node = vw[0] - n - 1; // PSW labels interior vertices node + n + 1
+				if (vw[0] == n + 1) { // the pseudo-root, joining taxon 0 to the rest; their branch is taxon 0's
+					if (weighted && firstChild - top == 2) {
+						int rest = (sizeStack[top] == 1) ? top + 1 : top;
+						int taxonZero = (rest == top) ? top + 1 : top;
+						addBranch(vector, tree, nodeStack[rest], nodeStack[taxonZero], hashStack[rest], sizeStack[rest], n);
+					}
+				} else {
+					for (int k = top; k < firstChild; ++k) { // the children's branches end here
+						if (weighted) {
+							addBranch(vector, tree, nodeStack[k], node, hashStack[k], sizeStack[k], n);
+						} else if (sizeStack[k] > 1 && sizeStack[k] < n - 1) {
+							addSplit(vector, hashStack[k], 1);
+						}
+					}
+				}
+			}
+			hashStack[top] = hash;
+			sizeStack[top] = size;
+			weightStack[top] = weight;
+			nodeStack[top] = node;
+			++top;
+		}
+		return vector;
+	}
+
+	/** Adds the split below node a (toward b), weighted by the length of the path between nodes a and b */
+	private void addBranch(float[] vector, Tree tree, int a, int b, long hash, int size, int n) {
+		if (size < 1 || size > n - 1 || !tree.nodeExists(a) || !tree.nodeExists(b)) {
+			return;
+		}
+		float length = (float) pathLength(tree, a, b);
+		if (length > 0) {
+			addSplit(vector, hash, length);
+		}
+	}
+
+	/**
+	 * Returns the total branch length between two nodes that are neighbours in the PSW
+	 * traversal: adjacent, or joined through nodes of degree two, which PSW skips (one of
+	 * which may be the root).  Missing lengths count as 1, the weighted Robinson-Foulds
+	 * modules' default.
+	 */
+	private static double pathLength(Tree tree, int a, int b) {
+		double upFromA = climb(tree, a, b);
+		if (upFromA >= 0) {
+			return upFromA;
+		}
+		double upFromB = climb(tree, b, a);
+		if (upFromB >= 0) {
+			return upFromB;
+		}
+		if (upFromA != NOT_FOUND && upFromB != NOT_FOUND) { // both reached the root; the path passes through it
+			return -upFromA - 1 - upFromB - 1;
+		}
+		return 0;
+	}
+
+	private static final double NOT_FOUND = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Climbs from node toward the root through nodes of degree two, looking for target.
+	 * Returns the length climbed if target is found; -1 - the length climbed if the root is
+	 * reached first; NOT_FOUND if a node of higher degree is reached first.
+	 */
+	private static double climb(Tree tree, int node, int target) {
+		double length = 0;
+		while (node != tree.getRoot()) {
+			length += tree.getBranchLength(node, 1.0);
+			node = tree.motherOfNode(node);
+			if (node == target) {
+				return length;
+			}
+			int daughters = 0;
+			for (int d = tree.firstDaughterOfNode(node); tree.nodeExists(d); d = tree.nextSisterOfNode(d)) {
+				++daughters;
+			}
+			boolean degreeTwo = (node == tree.getRoot()) ? daughters == 2 : daughters == 1;
+			if (!degreeTwo) {
+				return NOT_FOUND;
+			}
+		}
+		return -1 - length;
+	}
+
+	/**
+	 * Reduces vectors to their first few principal components, found by the power method
+	 * on their covariance matrix with deflation.  Costs O(n * D^2) for n vectors of D coordinates.
+	 *
+	 * @return  coordinates[i][c] = the c'th principal component score of vector i
+	 */
+	public static float[][] principalComponents(float[][] vectors, int components) {
+		int n = vectors.length;
+		int d = (n > 0) ? vectors[0].length : 0;
+		double[] mean = new double[d];
+		for (int i = 0; i < n; ++i) {
+			for (int c = 0; c < d; ++c) {
+				mean[c] += vectors[i][c];
+			}
+		}
+		for (int c = 0; c < d; ++c) {
+			mean[c] /= Math.max(1, n);
+		}
+		double[][] covariance = new double[d][d];
+		double[] centered = new double[d];
+		for (int i = 0; i < n; ++i) {
+			for (int c = 0; c < d; ++c) {
+				centered[c] = vectors[i][c] - mean[c];
+			}
+			for (int a = 0; a < d; ++a) {
+				for (int b = 0; b <= a; ++b) {
+					covariance[a][b] += centered[a] * centered[b];
+				}
+			}
+		}
+		for (int a = 0; a < d; ++a) {
+			for (int b = 0; b < a; ++b) {
+				covariance[b][a] = covariance[a][b];
+			}
+		}
+		double[][] axes = new double[components][d];
+		java.util.Random random = new java.util.Random(1);
+		for (int k = 0; k < components; ++k) {
+			double[] axis = axes[k];
+			for (int c = 0; c < d; ++c) {
+				axis[c] = random.nextDouble() - 0.5;
+			}
+			for (int iteration = 0; iteration < POWER_ITERATIONS; ++iteration) {
+				double[] next = new double[d];
+				for (int a = 0; a < d; ++a) {
+					for (int b = 0; b < d; ++b) {
+						next[a] += covariance[a][b] * axis[b];
+					}
+				}
+				for (int j = 0; j < k; ++j) { // keep it orthogonal to the components already found
+					double dot = 0;
+					for (int c = 0; c < d; ++c) {
+						dot += next[c] * axes[j][c];
+					}
+					for (int c = 0; c < d; ++c) {
+						next[c] -= dot * axes[j][c];
+					}
+				}
+				double norm = 0;
+				for (int c = 0; c < d; ++c) {
+					norm += next[c] * next[c];
+				}
+				norm = Math.sqrt(norm);
+				if (norm == 0) {
+					break; // no variance left
+				}
+				for (int c = 0; c < d; ++c) {
+					axis[c] = next[c] / norm;
+				}
+			}
+		}
+		float[][] coordinates = new float[n][components];
+		for (int i = 0; i < n; ++i) {
+			for (int k = 0; k < components; ++k) {
+				double score = 0;
+				for (int c = 0; c < d; ++c) {
+					score += (vectors[i][c] - mean[c]) * axes[k][c];
+				}
+				coordinates[i][k] = (float) score;
+			}
+		}
+		return coordinates;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * Multi-Dimensional Scaling by stochastic gradient descent, after Zheng, Pawar and
+ * Goodman ("Graph Drawing by Stochastic Gradient Descent", 2018).  Instead of summing
+ * the pull of every other point before moving anything, each pair term is visited in
+ * random order and both of its points are moved right away.  The step for a pair is
+ * weighted by 1/d^2 and the learning rate is annealed exponentially, so that a usable
+ * layout appears within a few dozen epochs (one epoch = one pass over all pairs).
+ *
+ * When the pair list is small enough it is shuffled outright.  Beyond that, an epoch
+ * streams over the rows of the triangular difference matrix in shuffled row order,
+ * starting each row at a random column, which keeps the memory access sequential.
+ *
+ * Sampling in the SampledDiffMatrix is honored the same way as in MDS: a point is only
+ * moved by the pair terms that are in the sample.
+ */
+class StochasticMDS extends MDS {
+
+	/** number of epochs over which the learning rate is annealed from its maximum to its minimum */
+	protected static final int ANNEALING_EPOCHS = 30;
+	/** sets the final learning rate relative to the largest weight (Zheng et al.'s epsilon) */
+	protected static final float EPSILON = 0.1f;
+	/** after annealing, the embedding is converged when an epoch changes the stress by less than this fraction */
+	protected static final float TOLERANCE = 1e-3f;
+	/** after a warm start the schedule begins at this epoch, so the early large steps don't scramble the old layout */
+	protected static final int WARM_START_EPOCH = ANNEALING_EPOCHS / 2;
+	/** largest number of pairs for which an explicit, fully shuffled, pair list is kept */
+	protected static final int MAX_SHUFFLED_PAIRS = 1 << 22; // 16 MB of ints
+
+	/** number of epochs completed since the schedule was last started over */
+	private int epoch;
+	/** generation of the differences the schedule was computed from; see scheduled */
+	private int scheduledGeneration;
+	/** false until a schedule has been computed from some positive distances, and after the number of items changes */
+	private boolean scheduled = false;
+	/** learning rate schedule: eta(epoch) = etaMax * exp(-lambda * epoch), never below etaMin */
+	private float etaMax, etaMin, lambda;
+	/** weight given to pairs at distance zero, which would otherwise have infinite weight */
+	private float maxWeight;
+	/** stress after the previous epoch, for the convergence test */
+	private float previousStress;
+	/** all pairs (i,j), i>j, packed as i*n_nodes+j; null if there are too many pairs to list */
+	private int[] pairs;
+	/** order in which the rows are visited when streaming; reshuffled every epoch */
+	private int[] rowOrder;
+	private java.util.Random randomSource;
+
+	/** accumulators for the stress of the current epoch */
+	private float stress_diff_accum, stress_norm_accum;
+
+	public StochasticMDS(SampledDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+		randomSource = new java.util.Random();
+		restart();
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		scheduled = false;
+		restart();
+	}
+
+	/** Randomizes the embedding, and starts the annealing schedule over at the next restart. */
+	public synchronized void randomize_nodes(java.util.Random random_source) {
+		super.randomize_nodes(random_source);
+		scheduled = false;
+	}
+
+	/**
+	 * Starts the annealing schedule over, recomputing it from the current distances, if the
+	 * distances have changed since it was computed.  Otherwise (the user stopped and started
+	 * MDS, or changed the sample) the schedule carries on where it was, so the layout is kept.
+	 */
+	public synchronized void restart() {
+		previousStress = -1;
+		if (scheduled && scheduledGeneration == targetDistances.getGeneration()) {
+			warmStarted = false;
+			return;
+		}
+		epoch = warmStarted ? WARM_START_EPOCH : 0;
+		warmStarted = false;
+		scheduledGeneration = targetDistances.getGeneration();
+		float minDiff = Float.MAX_VALUE;
+		float maxDiff = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			float[] row = targetDistances.getRow(i);
+			for (int j = 0; j < i; ++j) {
+				if (row[j] > 0) {
+					minDiff = Math.min(minDiff, row[j]);
+					maxDiff = Math.max(maxDiff, row[j]);
+				}
+			}
+		}
+		scheduled = maxDiff > 0;
+		if (!scheduled) { // no positive distances (yet); any schedule will do until there are
+			minDiff = maxDiff = 1;
+		}
+		maxWeight = 1 / (minDiff * minDiff);
+		etaMax = maxDiff * maxDiff;            // 1 / smallest weight
+		etaMin = EPSILON * minDiff * minDiff;  // epsilon / largest weight
+		lambda = (float) (Math.log(etaMax / etaMin) / (ANNEALING_EPOCHS - 1));
+
+		long numberOfPairs = ((long) n_nodes * (n_nodes - 1)) / 2;
+		if (numberOfPairs <= MAX_SHUFFLED_PAIRS && (long) n_nodes * n_nodes <= Integer.MAX_VALUE) {
+			if (pairs == null || pairs.length != numberOfPairs) {
+				pairs = new int[(int) numberOfPairs];
+				int k = 0;
+				for (int i = 0; i < n_nodes; ++i) {
+					for (int j = 0; j < i; ++j) {
+						pairs[k++] = i * n_nodes + j;
+					}
+				}
+			}
+			rowOrder = null;
+		} else {
+			pairs = null;
+			if (rowOrder == null || rowOrder.length != n_nodes) {
+				rowOrder = new int[n_nodes];
+				for (int i = 0; i < n_nodes; ++i) {
+					rowOrder[i] = i;
+				}
+			}
+		}
+	}
+
+	/** SGD follows its own learning rate schedule; the step size is not tuned. */
+	public boolean getAdaptiveStepSize() {
+		return false;
+	}
+
+	/** Converged once annealing is over and an epoch no longer changes the stress appreciably. */
+	public synchronized boolean hasConverged() {
+		return epoch > ANNEALING_EPOCHS && previousStress > 0
+				&& Math.abs(previousStress - stress) / previousStress < TOLERANCE;
+	}
+
+	/** Performs one epoch: every pair term in the sample is visited once, in random order. */
+	public synchronized void doOneIteration() {
+		float eta = Math.max(etaMin, (float) (etaMax * Math.exp(-lambda * epoch)));
+		boolean sampling = targetDistances.getSampling();
+		stress_diff_accum = 0;
+		stress_norm_accum = 0;
+
+		if (pairs != null) {
+			shuffle(pairs);
+			for (int k = 0; k < pairs.length; ++k) {
+				updatePair(pairs[k] / n_nodes, pairs[k] % n_nodes, targetDistances.getElement(pairs[k] / n_nodes, pairs[k] % n_nodes), eta, sampling);
+			}
+		} else {
+			shuffle(rowOrder);
+			for (int r = 0; r < n_nodes; ++r) {
+				int i = rowOrder[r];
+				if (i == 0) {
+					continue; // row zero has no off-diagonal entries
+				}
+				float[] row = targetDistances.getRow(i);
+				int start = randomSource.nextInt(i);
+				for (int j = start; j < i; ++j) {
+					updatePair(i, j, row[j], eta, sampling);
+				}
+				for (int j = 0; j < start; ++j) {
+					updatePair(i, j, row[j], eta, sampling);
+				}
+			}
+		}
+
+		if (epoch > ANNEALING_EPOCHS) {
+			previousStress = stress;
+		}
+		++epoch;
+		/* Compute stress (this is a normalized stress, called Kruskal-1).  Points move during
+		 * the epoch, so this is measured along the way rather than at the end. */
+		if (stress_norm_accum > 0) {
+			stress = (float) Math.sqrt(stress_diff_accum/stress_norm_accum);
+		}
+	}
+
+	/**
+	 * Moves points i and j toward their target distance.  With learning rate eta, the pair
+	 * is corrected by the fraction min(eta / diff^2, 1) of its residual, split between the
+	 * two points (or given entirely to one, if only that one is in the sample).
+	 */
+	private final void updatePair(int i, int j, float diff, float eta, boolean sampling) {
+		if (diff < 0) {
+			return; // not computed yet
+		}
+		boolean moveI = !sampling || targetDistances.diffInSample(i,j);
+		boolean moveJ = !sampling || targetDistances.diffInSample(j,i);
+		if (!moveI && !moveJ) {
+			return;
+		}
+		d.setToDifference(nodes[i], nodes[j]);
+		float d_length = d.magnitude();
+		// If two points are on top of each other, we need to pick an arbitrary direction to nudge them apart.
+		if (d_length == 0) {
+			d.add(nudgeVector);
+			d_length = nudgeVectorLength;
+		}
+		float resid = d_length - diff;
+		stress_diff_accum += resid * resid;
+		stress_norm_accum += d_length * d_length;
+
+		float weight = (diff > 0) ? 1 / (diff * diff) : maxWeight;
+		float mu = Math.min(weight * eta, 1);
+		if (moveI && moveJ) {
+			d.scale(mu * resid / (2 * d_length));
+			nodes[i].subtract(d);
+			nodes[j].add(d);
+		} else {
+			d.scale(mu * resid / d_length);
+			if (moveI) {
+				nodes[i].subtract(d);
+			} else {
+				nodes[j].add(d);
+			}
+		}
+	}
+
+	/** Fisher-Yates shuffle */
+	private void shuffle(int[] a) {
+		for (int k = a.length - 1; k > 0; --k) {
+			int r = randomSource.nextInt(k + 1);
+			int temp = a[k];
+			a[k] = a[r];
+			a[r] = temp;
+		}
+	}
+}
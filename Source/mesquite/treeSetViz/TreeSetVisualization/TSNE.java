@@ -0,0 +1,581 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * t-distributed stochastic neighbour embedding (t-SNE), with the Barnes-Hut approximation
+ * of van der Maaten ("Accelerating t-SNE using Tree-Based Algorithms", 2014).  Where MDS
+ * tries to preserve every difference, t-SNE preserves which trees are near which, so the
+ * separate peaks of a multimodal tree set come out as separate clusters.
+ * <p>
+ * The affinities are found from the 3 * perplexity nearest neighbours of each tree, with
+ * the Gaussian bandwidth of each row chosen by bisection to give the requested perplexity,
+ * and then symmetrized.  They are kept as sparse rows, so after they are found the
+ * memory used is O(n * perplexity).  Each iteration is one step of gradient descent with
+ * momentum and per-coordinate gains: the attraction is summed over the sparse affinities,
+ * and the repulsion of all other points is approximated with a SpaceTree (a quadtree in
+ * two dimensions), treating a cell as a single point when its width is less than THETA
+ * times its distance.  An iteration therefore costs O(n log n).  For the first
+ * EXAGGERATION_ITERATIONS the affinities are exaggerated so that clusters can form.
+ * <p>
+ * t-SNE has no stress; the cost it reports in its place is the Kullback-Leibler divergence
+ * between the affinities and the similarities of the layout.  Sampling in the
+ * SampledDiffMatrix is not used.
+ */
+class TSNE extends MDS {
+
+	/** perplexity used unless set otherwise; roughly, the number of neighbours each tree is compared with */
+	protected static final float DEFAULT_PERPLEXITY = 30;
+	/** a cell of the SpaceTree is treated as one point if its width is less than THETA times its distance */
+	protected static final float THETA = 0.5f;
+	/** factor by which the affinities are exaggerated at the start */
+	protected static final float EXAGGERATION = 12;
+	/** number of iterations with exaggerated affinities and low momentum */
+	protected static final int EXAGGERATION_ITERATIONS = 250;
+	/** number of iterations after which the layout is considered converged */
+	protected static final int MAX_ITERATIONS = 1000;
+	/** momentum during and after the exaggeration phase */
+	protected static final float INITIAL_MOMENTUM = 0.5f, FINAL_MOMENTUM = 0.8f;
+	/** smallest gain a coordinate may have */
+	protected static final float MIN_GAIN = 0.01f;
+	/** standard deviation to which the starting layout is scaled */
+	protected static final float INITIAL_SCALE = 1e-4f;
+	/** bisection for a row's bandwidth stops when its entropy is this close to the log of the perplexity */
+	protected static final double ENTROPY_TOLERANCE = 1e-5;
+	protected static final int MAX_BISECTION_STEPS = 100;
+	/** the cost is computed every this many iterations, since it takes a logarithm per affinity */
+	protected static final int COST_PERIOD = 10;
+
+	private float perplexity = DEFAULT_PERPLEXITY;
+	/** the neighbours the affinities were found from; null until found */
+	private NearestNeighbors neighbors;
+	/** symmetrized affinities in sparse rows: row i holds columns[rowStart[i]] .. columns[rowStart[i+1]-1]; null until found */
+	private int[] rowStart, columns;
+	private float[] affinities;
+	/** the layout, gradient, last update and gains, with the coordinates of point i at [i*n_dims] .. [i*n_dims + n_dims-1] */
+	private float[] positions, gradient, updates, gains;
+	/** the repulsion on each point, reused from one iteration to the next */
+	private float[] repulsion;
+	private SpaceTree spaceTree;
+	/** iterations done since the schedule was last started over */
+	private int iteration;
+	/** generation of the differences the schedule was started for; -1 to start it over at the next restart */
+	private int scheduledGeneration = -1;
+
+	public TSNE(SampledDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+		spaceTree = new SpaceTree(n_dims);
+		restart();
+	}
+
+	public synchronized void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		affinities = null;
+		scheduledGeneration = -1;
+		restart();
+	}
+
+	/** Randomizes the embedding, and starts the schedule over at the next restart. */
+	public synchronized void randomize_nodes(java.util.Random random_source) {
+		super.randomize_nodes(random_source);
+		scheduledGeneration = -1;
+	}
+
+	/** Sets the perplexity.  The affinities are found again before the next iteration. */
+	public synchronized void setPerplexity(float newPerplexity) {
+		if (newPerplexity != perplexity) {
+			perplexity = newPerplexity;
+			affinities = null;
+		}
+	}
+
+	public synchronized float getPerplexity() {
+		return perplexity;
+	}
+
+	/**
+	 * Starts the optimization over if the differences have changed since it was started.  The
+	 * current layout is kept as the starting point, but scaled down to INITIAL_SCALE as t-SNE
+	 * requires; after a warm start it is kept as it is and the exaggeration phase is skipped.
+	 * Otherwise (the user stopped and started t-SNE, or changed the sample) it carries on from
+	 * the layout as it is, without exaggeration if it had converged, so the layout is kept.
+	 */
+	public synchronized void restart() {
+		if (neighbors != null && neighbors.getGeneration() != targetDistances.getGeneration()) {
+			affinities = null;
+		}
+		int size = n_nodes * n_dims;
+		if (scheduledGeneration == targetDistances.getGeneration() && positions != null && positions.length == size) {
+			warmStarted = false;
+			if (iteration >= MAX_ITERATIONS) {
+				iteration = EXAGGERATION_ITERATIONS; // refine further
+			}
+			readPositions();
+			return;
+		}
+		scheduledGeneration = targetDistances.getGeneration();
+		if (positions == null || positions.length != size) {
+			positions = new float[size];
+			gradient = new float[size];
+			updates = new float[size];
+			gains = new float[size];
+		}
+		java.util.Arrays.fill(updates, 0);
+		java.util.Arrays.fill(gains, 1);
+		readPositions();
+		if (warmStarted) {
+			iteration = EXAGGERATION_ITERATIONS;
+		} else {
+			iteration = 0;
+			center();
+			double sumSquares = 0;
+			for (int k = 0; k < size; ++k) {
+				sumSquares += positions[k] * positions[k];
+			}
+			if (sumSquares > 0) {
+				float scale = (float) (INITIAL_SCALE / Math.sqrt(sumSquares / size));
+				for (int k = 0; k < size; ++k) {
+					positions[k] *= scale;
+				}
+			}
+			writePositions();
+		}
+		warmStarted = false;
+	}
+
+	/** The scale of a t-SNE layout has nothing to do with the differences, so a warm start keeps it as it is. */
+	public synchronized float warmStart() {
+		warmStarted = true;
+		return 1;
+	}
+
+	/** t-SNE follows its own schedule; the step size is not tuned. */
+	public boolean getAdaptiveStepSize() {
+		return false;
+	}
+
+	/** Converged after MAX_ITERATIONS */
+	public synchronized boolean hasConverged() {
+		return iteration >= MAX_ITERATIONS;
+	}
+
+	private void readPositions() {
+		float[] point = new float[n_dims];
+		for (int i = 0; i < n_nodes; ++i) {
+			nodes[i].copyInto(point);
+			System.arraycopy(point, 0, positions, i * n_dims, n_dims);
+		}
+	}
+
+	private void writePositions() {
+		for (int i = 0; i < n_nodes; ++i) {
+			for (int c = 0; c < n_dims; ++c) {
+				nodes[i].setComponent(c, positions[i * n_dims + c]);
+			}
+		}
+	}
+
+	/** Returns the repulsion array, cleared */
+	private float[] clearedRepulsion() {
+		if (repulsion == null || repulsion.length != gradient.length) {
+			repulsion = new float[gradient.length];
+		} else {
+			java.util.Arrays.fill(repulsion, 0);
+		}
+		return repulsion;
+	}
+
+	/** Moves the centroid of the layout to the origin */
+	private void center() {
+		for (int c = 0; c < n_dims; ++c) {
+			double sum = 0;
+			for (int i = 0; i < n_nodes; ++i) {
+				sum += positions[i * n_dims + c];
+			}
+			float mean = (float) (sum / n_nodes);
+			for (int i = 0; i < n_nodes; ++i) {
+				positions[i * n_dims + c] -= mean;
+			}
+		}
+	}
+
+	/**
+	 * Finds the affinities: for each tree, a Gaussian over the differences to its nearest
+	 * neighbours, with the bandwidth chosen to give the requested perplexity; then
+	 * p_ij = (p_j|i + p_i|j) / 2n.
+	 */
+	private void computeAffinities() {
+		int k = (int) Math.min(3 * perplexity, n_nodes - 1);
+		neighbors = NearestNeighbors.find(targetDistances, k);
+		double targetEntropy = Math.log(perplexity);
+		float[][] conditional = new float[n_nodes][];
+		for (int i = 0; i < n_nodes; ++i) {
+			conditional[i] = rowAffinities(neighbors.getDistances(i), targetEntropy);
+		}
+		SparseAffinities symmetric = new SparseAffinities(neighbors, conditional, false);
+		rowStart = symmetric.rowStart;
+		columns = symmetric.columns;
+		affinities = symmetric.values;
+		double total = 0;
+		for (int e = 0; e < affinities.length; ++e) {
+			total += affinities[e];
+		}
+		if (total > 0) {
+			for (int e = 0; e < affinities.length; ++e) {
+				affinities[e] /= total;
+			}
+		}
+	}
+
+	/** Returns p_j|i over one tree's neighbours, with the bandwidth found by bisection on the entropy. */
+	private float[] rowAffinities(float[] dists, double targetEntropy) {
+		int m = dists.length;
+		float[] p = new float[m];
+		if (m == 0) {
+			return p;
+		}
+		double[] squared = new double[m];
+		double meanSquared = 0;
+		for (int e = 0; e < m; ++e) {
+			squared[e] = (double) dists[e] * dists[e] - (double) dists[0] * dists[0]; // shifted for stability; dists[0] is the smallest
+			meanSquared += squared[e];
+		}
+		meanSquared /= m;
+		double beta = (meanSquared > 0) ? 1 / meanSquared : 1;
+		double betaMin = 0, betaMax = Double.POSITIVE_INFINITY;
+		double sum = 0;
+		for (int step = 0; step < MAX_BISECTION_STEPS; ++step) {
+			sum = 0;
+			double weightedSum = 0;
+			for (int e = 0; e < m; ++e) {
+				double value = Math.exp(-beta * squared[e]);
+				p[e] = (float) value;
+				sum += value;
+				weightedSum += value * squared[e];
+			}
+			double entropy = Math.log(sum) + beta * weightedSum / sum;
+			if (Math.abs(entropy - targetEntropy) < ENTROPY_TOLERANCE) {
+				break;
+			}
+			if (entropy > targetEntropy) { // too flat; narrow the Gaussian
+				betaMin = beta;
+				beta = (betaMax == Double.POSITIVE_INFINITY) ? beta * 2 : (beta + betaMax) / 2;
+			} else {
+				betaMax = beta;
+				beta = (beta + betaMin) / 2;
+			}
+		}
+		for (int e = 0; e < m; ++e) {
+			p[e] /= sum;
+		}
+		return p;
+	}
+
+	/** Performs one step of gradient descent */
+	public synchronized void doOneIteration() {
+		if (affinities == null) {
+			computeAffinities();
+		}
+		if (n_nodes < 2) {
+			return;
+		}
+		float exaggeration = (iteration < EXAGGERATION_ITERATIONS) ? EXAGGERATION : 1;
+		float momentum = (iteration < EXAGGERATION_ITERATIONS) ? INITIAL_MOMENTUM : FINAL_MOMENTUM;
+		float learningRate = Math.max(200, n_nodes / EXAGGERATION);
+
+		// attraction, over the sparse affinities; also the part of the KL divergence that doesn't depend on Z
+		boolean computeCost = iteration % COST_PERIOD == 0 || iteration == MAX_ITERATIONS - 1;
+		double klSum = 0;
+		java.util.Arrays.fill(gradient, 0);
+		for (int i = 0; i < n_nodes; ++i) {
+			int base = i * n_dims;
+			for (int e = rowStart[i]; e < rowStart[i + 1]; ++e) {
+				int other = columns[e] * n_dims;
+				float d2 = 0;
+				for (int c = 0; c < n_dims; ++c) {
+					float delta = positions[base + c] - positions[other + c];
+					d2 += delta * delta;
+				}
+				float q = 1 / (1 + d2);
+				float pull = exaggeration * affinities[e] * q;
+				for (int c = 0; c < n_dims; ++c) {
+					gradient[base + c] += pull * (positions[base + c] - positions[other + c]);
+				}
+				if (computeCost && affinities[e] > 0) {
+					klSum += affinities[e] * Math.log(affinities[e] / q);
+				}
+			}
+		}
+
+		// repulsion, approximated with the SpaceTree
+		spaceTree.build(positions, n_nodes);
+		float[] repulsion = clearedRepulsion();
+		double z = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			z += spaceTree.repulsion(i, positions, repulsion, THETA);
+		}
+		float zInverse = (z > 0) ? (float) (1 / z) : 0;
+
+		for (int k = 0; k < gradient.length; ++k) {
+			float g = 4 * (gradient[k] - repulsion[k] * zInverse);
+			// gains grow while the gradient keeps its direction and shrink when it reverses
+			if ((g > 0) != (updates[k] > 0)) {
+				gains[k] += 0.2f;
+			} else {
+				gains[k] = Math.max(MIN_GAIN, gains[k] * 0.8f);
+			}
+			updates[k] = momentum * updates[k] - learningRate * gains[k] * g;
+			positions[k] += updates[k];
+		}
+		center();
+		writePositions();
+		++iteration;
+		if (computeCost && z > 0) {
+			stress = (float) (klSum + Math.log(z));
+		}
+	}
+}
+
+/**
+ * A space-partitioning tree over points in any number of dimensions (a quadtree in two,
+ * an octree in three), kept in flat arrays so it can be rebuilt every iteration without
+ * allocating.  Each cell records the number of points in it and the sum of their
+ * positions, for the Barnes-Hut approximation: a distant cell acts as one heavy point at
+ * its centre of mass.
+ */
+class SpaceTree {
+	/** cells narrower than this fraction of the root stop dividing, so that coincident points don't recurse forever */
+	private static final float MIN_WIDTH_FRACTION = 1e-6f;
+
+	private int dims, childrenPerCell;
+	/** per cell: the corner with the smallest coordinates (dims per cell), and the width */
+	private float[] lower, width;
+	/** per cell: the sum of the positions of the points in it (dims per cell) */
+	private double[] massSum;
+	/** per cell: the centre of mass (dims per cell), found once the tree is built */
+	private float[] center;
+	/** per cell: the number of points, the index of the first child (-1 for a leaf), and the point of a leaf (-1 if none) */
+	private int[] count, firstChild, point;
+	private int numberOfCells;
+	private float minWidth;
+	private int[] stack = new int[64];
+	/** scratch for build and repulsion, so that neither allocates */
+	private float[] min, max, delta;
+
+	public SpaceTree(int dims) {
+		this.dims = dims;
+		childrenPerCell = 1 << dims;
+		min = new float[dims];
+		max = new float[dims];
+		delta = new float[dims];
+		allocate(1024);
+	}
+
+	private void allocate(int capacity) {
+		float[] newLower = new float[capacity * dims];
+		float[] newWidth = new float[capacity];
+		double[] newMassSum = new double[capacity * dims];
+		int[] newCount = new int[capacity];
+		int[] newFirstChild = new int[capacity];
+		int[] newPoint = new int[capacity];
+		if (lower != null) {
+			System.arraycopy(lower, 0, newLower, 0, numberOfCells * dims);
+			System.arraycopy(width, 0, newWidth, 0, numberOfCells);
+			System.arraycopy(massSum, 0, newMassSum, 0, numberOfCells * dims);
+			System.arraycopy(count, 0, newCount, 0, numberOfCells);
+			System.arraycopy(firstChild, 0, newFirstChild, 0, numberOfCells);
+			System.arraycopy(point, 0, newPoint, 0, numberOfCells);
+		}
+		lower = newLower;
+		width = newWidth;
+		massSum = newMassSum;
+		count = newCount;
+		firstChild = newFirstChild;
+		point = newPoint;
+	}
+
+	/** Adds an empty leaf cell and returns its index */
+	private int newCell(float cellWidth) {
+		if (numberOfCells == width.length) {
+			allocate(width.length * 2);
+		}
+		int cell = numberOfCells++;
+		width[cell] = cellWidth;
+		count[cell] = 0;
+		firstChild[cell] = -1;
+		point[cell] = -1;
+		for (int c = 0; c < dims; ++c) {
+			massSum[cell * dims + c] = 0;
+		}
+		return cell;
+	}
+
+	/** Builds the tree over the first n points of positions, whose coordinates are stored dims per point. */
+	public void build(float[] positions, int n) {
+		numberOfCells = 0;
+		float rootWidth = 0;
+		for (int c = 0; c < dims; ++c) {
+			min[c] = Float.MAX_VALUE;
+			max[c] = -Float.MAX_VALUE;
+		}
+		for (int i = 0; i < n; ++i) {
+			for (int c = 0; c < dims; ++c) {
+				min[c] = Math.min(min[c], positions[i * dims + c]);
+				max[c] = Math.max(max[c], positions[i * dims + c]);
+			}
+		}
+		for (int c = 0; c < dims; ++c) {
+			rootWidth = Math.max(rootWidth, max[c] - min[c]);
+		}
+		rootWidth = rootWidth * 1.001f + Float.MIN_NORMAL; // so that the largest coordinates fall inside
+		minWidth = rootWidth * MIN_WIDTH_FRACTION;
+		int root = newCell(rootWidth);
+		for (int c = 0; c < dims; ++c) {
+			lower[root * dims + c] = min[c];
+		}
+		for (int i = 0; i < n; ++i) {
+			insert(i, positions);
+		}
+		if (center == null || center.length < numberOfCells * dims) {
+			center = new float[lower.length];
+		}
+		for (int cell = 0; cell < numberOfCells; ++cell) {
+			for (int c = 0; c < dims; ++c) {
+				center[cell * dims + c] = (count[cell] > 0) ? (float) (massSum[cell * dims + c] / count[cell]) : 0;
+			}
+		}
+	}
+
+	private void insert(int p, float[] positions) {
+		int cell = 0;
+		while (true) {
+			++count[cell];
+			for (int c = 0; c < dims; ++c) {
+				massSum[cell * dims + c] += positions[p * dims + c];
+			}
+			if (firstChild[cell] < 0) {
+				if (count[cell] == 1) { // was empty
+					point[cell] = p;
+					return;
+				}
+				if (width[cell] < minWidth) { // keep coincident points together in one leaf
+					return;
+				}
+				// divide the cell, and move its point down into the child that contains it
+				int old = point[cell];
+				point[cell] = -1;
+				float childWidth = width[cell] / 2;
+				int first = numberOfCells;
+				for (int k = 0; k < childrenPerCell; ++k) {
+					int child = newCell(childWidth);
+					for (int c = 0; c < dims; ++c) {
+						lower[child * dims + c] = lower[cell * dims + c] + (((k >> c) & 1) != 0 ? childWidth : 0);
+					}
+				}
+				firstChild[cell] = first;
+				int oldChild = childContaining(cell, old, positions);
+				count[oldChild] = 1;
+				point[oldChild] = old;
+				for (int c = 0; c < dims; ++c) {
+					massSum[oldChild * dims + c] = positions[old * dims + c];
+				}
+			}
+			cell = childContaining(cell, p, positions);
+		}
+	}
+
+	private int childContaining(int cell, int p, float[] positions) {
+		float half = width[cell] / 2;
+		int k = 0;
+		for (int c = 0; c < dims; ++c) {
+			if (positions[p * dims + c] >= lower[cell * dims + c] + half) {
+				k |= 1 << c;
+			}
+		}
+		return firstChild[cell] + k;
+	}
+
+	private boolean contains(int cell, int p, float[] positions) {
+		for (int c = 0; c < dims; ++c) {
+			float x = positions[p * dims + c];
+			if (x < lower[cell * dims + c] || x >= lower[cell * dims + c] + width[cell]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds to force[p*dims ..] the unnormalized t-SNE repulsion on point p, the sum over
+	 * other points j of q_pj^2 (y_p - y_j) with q_pj = 1 / (1 + |y_p - y_j|^2), and returns
+	 * the sum of q_pj, both approximated by treating each cell narrower than theta times
+	 * its distance as a single point.
+	 */
+	public double repulsion(int p, float[] positions, float[] force, float theta) {
+		double z = 0;
+		float theta2 = theta * theta;
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int cell = stack[--top];
+			int n = count[cell];
+			if (n == 0) {
+				continue;
+			}
+			boolean leaf = firstChild[cell] < 0;
+			if (leaf && point[cell] == p && n == 1) {
+				continue;
+			}
+			float d2 = 0;
+			for (int c = 0; c < dims; ++c) {
+				delta[c] = positions[p * dims + c] - center[cell * dims + c];
+				d2 += delta[c] * delta[c];
+			}
+			if (leaf || width[cell] * width[cell] < theta2 * d2) {
+				if (leaf && n > 1 && contains(cell, p, positions)) {
+					--n; // a leaf of coincident points, including p itself
+				}
+				float q = 1 / (1 + d2);
+				z += n * q;
+				float push = n * q * q;
+				for (int c = 0; c < dims; ++c) {
+					force[p * dims + c] += push * delta[c];
+				}
+			} else {
+				if (top + childrenPerCell > stack.length) {
+					int[] newStack = new int[stack.length * 2];
+					System.arraycopy(stack, 0, newStack, 0, top);
+					stack = newStack;
+				}
+				for (int k = 0; k < childrenPerCell; ++k) {
+					stack[top++] = firstChild[cell] + k;
+				}
+			}
+		}
+		return z;
+	}
+}
@@ -78,6 +78,8 @@ public class TreeSetVisualization extends FileAssistantT {
 	
 	protected MesquiteBoolean frameDot;
 	protected 	MesquiteBoolean blackBackground;
+	/** if true, the window opens with a split projection overview, and the tree differences wait until MDS is started */
+	protected MesquiteBoolean openWithOverview;
 
 
     public String getName() { return "Tree Set Visualization "; }
@@ -119,6 +121,7 @@ public class TreeSetVisualization extends FileAssistantT {
 		temp.addLine("setSpotSize " + pointSize); 
 		temp.addLine("toggleFrameDot " + frameDot.toOffOnString()); 
 		temp.addLine("toggleBlackBackground " + blackBackground.toOffOnString());
+		temp.addLine("toggleOpenWithOverview " + openWithOverview.toOffOnString());
 
         Snapshot fromWindow = mainWindow.getSnapshot(file);
         temp.addLine("makeWindow");
@@ -220,9 +223,12 @@ public class TreeSetVisualization extends FileAssistantT {
 		frameDot = new MesquiteBoolean(false);
 		addCheckMenuItem(null, "Frame Spots", makeCommand("toggleFrameDot", this), frameDot);
 		addMenuItem( "Spot Size...", makeCommand("setSpotSize",  this));
+		openWithOverview = new MesquiteBoolean(false);
+		addCheckMenuItem(null, "Open With Split Projection Overview", makeCommand("toggleOpenWithOverview", this), openWithOverview);
 
         //Add a menu item for saving the visualization view as postscript
         addMenuItem( "Save as postscript...", makeCommand("saveAsPostscript",  (Commandable)this));
+        addMenuItem( "Export Embedding (EPS, SVG, PDF)...", makeCommand("exportEmbedding",  (Commandable)this));
 
         //--- edited by W. Maddison
         if (!MesquiteThread.isScripting()) {
@@ -305,6 +311,9 @@ public class TreeSetVisualization extends FileAssistantT {
 	           }
 			if (!MesquiteThread.isScripting()) parametersChanged();
 		}
+		else if (checker.compare(this.getClass(), "Sets whether the window opens with a split projection overview, leaving the tree differences to be computed when MDS is first started", "[on; off]", commandName, "toggleOpenWithOverview")) {
+			openWithOverview.toggleValue(parser.getFirstToken(arguments));
+		}
 		else	if (checker.compare(this.getClass(), "Sets the spot size", "[width in pixels]", commandName, "setSpotSize")) {
 			int newSize= MesquiteInteger.fromFirstToken(arguments, pos);
 			if (!MesquiteInteger.isCombinable(newSize))
@@ -349,6 +358,11 @@ public class TreeSetVisualization extends FileAssistantT {
                 mainWindow.saveAsPostscript();
             }
             return null;
+        } else if (checker.compare(this.getClass(), "exports the embedding as EPS, SVG or PDF, by the extension of the file chosen", null, commandName, "exportEmbedding")) {
+            if (mainWindow != null) {
+                mainWindow.exportEmbedding();
+            }
+            return null;
 
         }
         //WPM Oct05 handler for majority percentage settings removed because it belongs in that module
@@ -392,6 +406,9 @@ public class TreeSetVisualization extends FileAssistantT {
 	public void setFrameDot(boolean frameDot) {
 		this.frameDot.setValue(frameDot);
 	}
+	public boolean getOpenWithOverview() {
+		return openWithOverview.getValue();
+	}
 	public Color getBackGroundColor() {
 		if (blackBackground.getValue())
 			return Color.black;
@@ -65,15 +65,34 @@ right panel will display the trees. */
 	//private Panel rightPanel;
 	//private MesquiteMenuItemSpec numTreesItem;
 	private int numberOfTrees;
+	/** true once a difference matrix has been computed, so that a later one can start from its embedding */
+	private boolean differencesComputedBefore = false;
+	/** true if the matrix being computed replaces one whose embedding should be continued from */
+	private boolean warmStartPending = false;
+	/** true while the window shows the split projection overview it opened with, and no differences have been computed */
+	private boolean differencesDeferred = false;
+	/** a signature of each tree, as of the last computeDM, to tell whether a changed tree source still gives the same trees */
+	private long[] treeSignatures;
+	/** computes differences in the background when they are computed on demand; null otherwise */
+	private DifferenceWorker differenceWorker;
+	/** held while the tree source or the difference module is used, since the DifferenceWorker uses them from its own thread */
+	private final Object treeTaskLock = new Object();
+	/** most rounds of NN-descent when finding nearest neighbours */
+	private static final int NN_DESCENT_ROUNDS = 12;
+	/** NN-descent stops when fewer than this fraction of the n*k neighbour entries change in a round */
+	private static final double NN_DESCENT_DELTA = 0.001;
+	/** each round of NN-descent compares at most this many new neighbours of each tree */
+	private static final int NN_DESCENT_SAMPLE = 10;
 
 	private Map treeWindowMap;
-	private TreeDisplay[] treeDisplayPool;
-	private int treeDisplayPoolSize = 100;
-	private int nextAvailableTreeDisplay;
+	/** the tree displays of the consensus tree windows, made as they are needed */
+	private TreeDisplayPool treeDisplayPool;
 	private static int treeWindowWidth = 400;
 	private static int treeWindowHeight = 600;
 	private static int treeWindowXLocation = 550;
 	private static int treeWindowYLocation = 50;
+	/** number of consensus tree windows opened so far, by which each new one is offset from the last */
+	private int treeWindowsOpened = 0;
 
 	public TreeSetViz(MesquiteModule ownerModule,DrawTreeCoordinator treeDrawCoordTask, TreeSourceDefinite treeSourceTask, Consenser consensusTask,DistanceBetween2Trees treeDifferenceTask, Taxa taxa, int numberOfTrees)
 	{
@@ -86,7 +105,17 @@ right panel will display the trees. */
 		treeSourceTask.initialize(taxa);
 		this.taxa = taxa;
 		this.numberOfTrees = numberOfTrees;
-		setTreeDifferenceTask(treeDifferenceTask);
+		if (((TreeSetVisualization) ownerModule).getOpenWithOverview()) {
+			// an instant overview; the differences are computed when MDS is first started
+			this.treeDifferenceTask = treeDifferenceTask;
+			differencesDeferred = true;
+			if (usesFullMatrix()) {
+				itemDiffMatrix.markAllUncomputed();
+			}
+			projectSplits();
+		} else {
+			setTreeDifferenceTask(treeDifferenceTask);
+		}
 
 		/* set myself up as a listener in order to synchronize my first selection with Mesquite's
 		   general selection facility. */
@@ -95,8 +124,7 @@ right panel will display the trees. */
 		}
 
 		treeWindowMap = new HashMap(); // efficient map implementation; sorting is not needed
-		treeDisplayPool = treeDrawCoordTask.createTreeDisplays(treeDisplayPoolSize,taxa,this);
-		nextAvailableTreeDisplay = 0;
+		treeDisplayPool = new TreeDisplayPool(treeDrawCoordTask, taxa, this); // no displays are made until the first selection
 		//attempt to command the tree drawing module to make it's lines narrower.
 		( (DrawTree) treeDrawCoordTask.doCommand("getTreeDrawer",null,new CommandChecker()) ).doCommand("setEdgeWidth","4",new CommandChecker());
 		( (DrawTree) treeDrawCoordTask.doCommand("getTreeDrawer",null,new CommandChecker()) ).doCommand("orientRight",null,new CommandChecker());
@@ -104,16 +132,19 @@ right panel will display the trees. */
 		// Set it up so that if the main window goes away, so do all the tree windows
 		addWindowListener(new java.awt.event.WindowAdapter() {
 			public void windowClosing(java.awt.event.WindowEvent e) {
-				java.util.Iterator iter = treeWindowMap.keySet().iterator();
-				String selectName = "";
+				java.util.Iterator iter = treeWindowMap.values().iterator();
 				while (iter.hasNext()) {
-					selectName = (String) iter.next();
-					((ConsensusTreeWindow) treeWindowMap.get(selectName)).hide();
-					((ConsensusTreeWindow) treeWindowMap.get(selectName)).dispose();
-					treeWindowMap.remove(selectName);
+					ConsensusTreeWindow window = (ConsensusTreeWindow) iter.next();
+					iter.remove(); // through the iterator, so the map can be changed while it is walked
+					treeDisplayPool.release(window);
+					window.hide();
+					window.dispose();
 				}
 			}
 		});
+		ownerModule.addMenuItem("Place Trees...", ownerModule.makeCommand("placeTrees", this));
+		ownerModule.addMenuItem("Clear Placed Trees", ownerModule.makeCommand("clearPlacedTrees", this));
+		ownerModule.addMenuItem("Split Projection Overview", ownerModule.makeCommand("projectSplits", this));
 		copyTreeSelectionFromMesquite();
 		toFront();
 		repaintAll();
@@ -185,6 +216,21 @@ right panel will display the trees. */
 			}*/
 			return w;
 
+		} else if (checker.compare(this.getClass(), "Places trees that are not in the tree set into the embedding, without moving the trees that are", "[tree descriptions, each ending in a semicolon, optionally as NEXUS TREE statements: TREE name = description;]", commandName, "placeTrees")) {
+			String descriptions = arguments;
+			if (StringUtil.blank(descriptions) && !MesquiteThread.isScripting()) {
+				descriptions = MesquiteString.queryString(this, "Place Trees", "Descriptions (Newick) of the trees to place, each ending in a semicolon, or NEXUS TREE statements (TREE name = description;):", "");
+			}
+			if (!StringUtil.blank(descriptions)) {
+				placeTrees(readPlacedTrees(descriptions));
+			}
+			return null;
+		} else if (checker.compare(this.getClass(), "Removes the placed trees from the embedding display", null, commandName, "clearPlacedTrees")) {
+			clearPlacedItems();
+			return null;
+		} else if (checker.compare(this.getClass(), "Lays out the trees by a random projection of their splits, without computing any tree differences", null, commandName, "projectSplits")) {
+			projectSplits();
+			return null;
 		} else {
 			/* All other commands are passed to our superclass (MesquiteWindow) for handling. */
 			return  super.doCommand(commandName, arguments, checker);
@@ -227,6 +273,7 @@ right panel will display the trees. */
 	public void setTreeDifferenceTask(DistanceBetween2Trees treeDifferenceTask) {
 		if (treeDifferenceTask != null) {
 			this.treeDifferenceTask = treeDifferenceTask;
+			warmStartPending = differencesComputedBefore; // same trees; the old layout is a good start
 			computeDM();
 		}
 	}//setTreeDifferenceTask
@@ -253,8 +300,41 @@ right panel will display the trees. */
 			resetNumberOfItems(newNumberOfTrees);
 			numberOfTrees = newNumberOfTrees;
 		}
-		if (recomputeDM) //WPM Oct05 computeDM had been commented out; but this meant changes of tree source failed to update the calculations
+		if (recomputeDM) { //WPM Oct05 computeDM had been commented out; but this meant changes of tree source failed to update the calculations
+			// the old layout is only a good start if these are the trees it was made from
+			warmStartPending = differencesComputedBefore && java.util.Arrays.equals(treeSignatures, computeTreeSignatures());
 			computeDM();
+		}
+	}
+
+	/** Returns a signature of each tree from the tree source */
+	private long[] computeTreeSignatures() {
+		long[] signatures = new long[getNumberOfTrees()];
+		synchronized (treeTaskLock) {
+			for (int i = 0; i < signatures.length; ++i) {
+				Tree tree = treeSourceTask.getTree(taxa, i);
+				if (tree != null) {
+					signatures[i] = treeSignature(tree, tree.getRoot(), 1);
+				}
+			}
+		}
+		return signatures;
+	}
+
+	/**
+	 * Hashes the topology, taxa and branch lengths of the clade of tree at node into signature.
+	 * Trees that differ only in the order of their clades are taken to be different.
+	 */
+	private static long treeSignature(Tree tree, int node, long signature) {
+		signature = signature * 31 + Double.doubleToLongBits(tree.getBranchLength(node));
+		if (tree.nodeIsTerminal(node)) {
+			return signature * 31 + tree.taxonNumberOfNode(node);
+		}
+		signature = signature * 31 + '(';
+		for (int daughter = tree.firstDaughterOfNode(node); tree.nodeExists(daughter); daughter = tree.nextSisterOfNode(daughter)) {
+			signature = treeSignature(tree, daughter, signature);
+		}
+		return signature * 31 + ')';
 	}
 
 	/** WPM Oct05: this method was moved from PointSetVisualization, where it had been called "readOptimalityScores".
@@ -283,10 +363,12 @@ right panel will display the trees. */
 			for (int i=0; i< numberOfScores; i++){
 				CommandRecord.tick("Calculating score for tree " +(i+1));
 				if (progIndicator!=null && (i+1) % 5 == 0) progIndicator.setCurrentAndText((i+1), "Calculating score for tree " + (i+1));
-				Tree tree = treeSourceTask.getTree(taxa, i);
-				result.setToUnassigned();
-				if (tree != null)
-					treeScoresTask.calculateNumber(tree, result, null);
+				synchronized (treeTaskLock) {
+					Tree tree = treeSourceTask.getTree(taxa, i);
+					result.setToUnassigned();
+					if (tree != null)
+						treeScoresTask.calculateNumber(tree, result, null);
+				}
 				treeScores[i] = result.getDoubleValue();
 			}
 			if (progIndicator!=null)
@@ -327,6 +409,23 @@ right panel will display the trees. */
 	 * cancelled by the user before completion.
 	 */
 	public boolean computeDM() {
+		stopDifferenceWorker();
+		differencesDeferred = false;
+		clearPlacedItemsIfAny(); // their differences were by the old measure or to the old trees
+		treeSignatures = computeTreeSignatures();
+		if (itemDiffMatrix instanceof LandmarkDiffMatrix) {
+			return computeLandmarkDM((LandmarkDiffMatrix) itemDiffMatrix);
+		}
+		if (itemDiffMatrix instanceof NeighborDiffMatrix) {
+			return computeNeighborDM((NeighborDiffMatrix) itemDiffMatrix);
+		}
+		if (getLazyDifferences() || getProgressiveEmbedding()) {
+			// Nothing to fit the scale to yet.  On demand, MDS carries on from the old layout;
+			// progressively, every point is placed afresh as it is added.
+			warmStartPending = false;
+			differencesComputedBefore = true;
+			return computeLazyDM(getProgressiveEmbedding());
+		}
 		int numberOfTrees = getNumberOfTrees();
 		Tree tree1;
 		Tree tree2;
@@ -359,25 +458,551 @@ right panel will display the trees. */
 					return false;// Calculation aborted
 				}
 			}
-			if (treeDifferenceTask.getName().equals("Weighted Robinson-Foulds Tree Difference(Rooted)") &&
-					!((MesquiteTree)tree1).allLengthsAssigned()) {
+			if (isLengthlessTree(tree1)) {
 				sawLengthlessTree = true;
 			}
-			if (treeDifferenceTask.getName().equals("Weighted Robinson-Foulds Tree Difference(unrooted)") &&
-					!((MesquiteTree)tree1).allLengthsAssigned()) {
+		}
+		if (sawLengthlessTree) {
+			warnLengthlessTrees();
+		}
+		if (embeddingDisplay!= null)
+			embeddingDisplay.repaint();
+
+		progressMeter.goAway();
+		differencesReady();
+		return true;// Calculation completed
+	}//computeDM
+
+	/** Computes the differences put off when the window opened with the overview; MDS continues from the overview. */
+	protected boolean prepareDifferences() {
+		if (!differencesDeferred) {
+			return true;
+		}
+		warmStartPending = true; // the overview's layout, rescaled to the differences
+		if (computeDM()) {
+			return true;
+		}
+		warmStartPending = false;
+		differencesDeferred = true; // cancelled part way; start over at the next start
+		if (usesFullMatrix()) {
+			itemDiffMatrix.markAllUncomputed();
+		}
+		return false;
+	}
+
+	/** Called when a complete difference matrix (or set of landmark rows) has been computed. */
+	private void differencesReady() {
+		if (!(itemDiffMatrix instanceof LandmarkDiffMatrix)) {
+			itemDiffMatrix.contentsChanged(); // (a landmark matrix has already been told, by landmarksComplete)
+		}
+		if (warmStartPending) {
+			warmStartPending = false;
+			warmStartEmbedding();
+		}
+		differencesComputedBefore = true;
+		embeddingInputsChanged(); // the old embedding's convergence says nothing about the new matrix
+	}
+
+	/**
+	 * Computes only the differences between a set of landmark trees and every tree,
+	 * L*n differences instead of n*n/2.  With maxmin landmarks, the first landmark is
+	 * chosen at random and each later one is the tree farthest from all landmarks so far,
+	 * which spreads them across the tree space; otherwise they are chosen at random.
+	 */
+	private boolean computeLandmarkDM(LandmarkDiffMatrix landmarkMatrix) {
+		int numberOfTrees = getNumberOfTrees();
+		landmarkMatrix.clearLandmarks();
+		int numberOfLandmarks = landmarkMatrix.getRequestedLandmarks();
+		boolean maxmin = getMaxminLandmarks();
+		java.util.Random rng = new java.util.Random();
+		int[] randomOrder = null;
+		float[] minDiff = null;
+		if (maxmin) {
+			minDiff = new float[numberOfTrees];
+			for (int i = 0; i < numberOfTrees; ++i) {
+				minDiff[i] = Float.MAX_VALUE;
+			}
+		} else {
+			randomOrder = new int[numberOfTrees];
+			for (int i = 0; i < numberOfTrees; ++i) {
+				randomOrder[i] = i;
+			}
+		}
+		Tree landmarkTree;
+		Tree tree2;
+		MesquiteNumber result = new MesquiteNumber();
+		long totalToDo = (long) numberOfLandmarks * numberOfTrees; // can be past the range of an int
+		long onePercent = totalToDo / 100;
+		if (onePercent == 0) {onePercent = 1;}
+		ProgressIndicator progressMeter = new ProgressIndicator(project, "Calculating Landmark Tree Differences", totalToDo, true);
+		progressMeter.start();
+		String progressString;
+		long numberOfDistancesCalculated = 0;
+
+		boolean sawLengthlessTree = false;
+		int nextLandmark = rng.nextInt(numberOfTrees);
+		for (int a = 0; a < numberOfLandmarks; ++a) {
+			if (!maxmin) { // partial Fisher-Yates shuffle; the first a entries are the landmarks so far
+				int k = a + rng.nextInt(numberOfTrees - a);
+				nextLandmark = randomOrder[k];
+				randomOrder[k] = randomOrder[a];
+				randomOrder[a] = nextLandmark;
+			}
+			landmarkMatrix.addLandmark(nextLandmark);
+			landmarkTree = treeSourceTask.getTree(taxa, nextLandmark);
+			if (isLengthlessTree(landmarkTree)) {
 				sawLengthlessTree = true;
 			}
+			float[] row = landmarkMatrix.getLandmarkRow(a);
+			int farthest = -1;
+			for (int j = 0; j < numberOfTrees; j++) {
+				if (j != nextLandmark) {
+					int otherLandmark = landmarkMatrix.getLandmarkNumber(j);
+					if (otherLandmark >= 0) { // already computed in the other landmark's row
+						row[j] = landmarkMatrix.getLandmarkRow(otherLandmark)[nextLandmark];
+					} else {
+						tree2 = treeSourceTask.getTree(taxa, j);
+						treeDifferenceTask.calculateNumber(landmarkTree, tree2, result, null);
+						row[j] = (float) result.getDoubleValue();
+					}
+				}
+				if (maxmin) {
+					if (row[j] < minDiff[j]) {
+						minDiff[j] = row[j];
+					}
+					if (!landmarkMatrix.isLandmark(j) && (farthest < 0 || minDiff[j] > minDiff[farthest])) {
+						farthest = j;
+					}
+				}
+				numberOfDistancesCalculated++;
+				if (numberOfDistancesCalculated % onePercent == 0) {
+					progressString = "Computed " + numberOfDistancesCalculated + "/" + totalToDo + " landmark differences (" + ((numberOfDistancesCalculated * 100) / totalToDo) + "%)";
+					progressMeter.setCurrentAndText(numberOfDistancesCalculated, progressString);
+				}
+				if (progressMeter.isAborted()) {
+					progressMeter.goAway();
+					return false;// Calculation aborted
+				}
+			}
+			if (maxmin && farthest >= 0) {
+				nextLandmark = farthest;
+			}
 		}
 		if (sawLengthlessTree) {
-			System.out.println("Warning: At least one tree has an unassigned branch length.");
-			System.out.println("Unassigned branch lengths are treated as having unit length.");
+			warnLengthlessTrees();
 		}
+		landmarkMatrix.landmarksComplete();
 		if (embeddingDisplay!= null)
 			embeddingDisplay.repaint();
 
 		progressMeter.goAway();
+		differencesReady();
 		return true;// Calculation completed
-	}//computeDM
+	}//computeLandmarkDM
+
+	/**
+	 * Finds the k nearest neighbours of every tree by NN-descent (Dong, Charikar and Li,
+	 * "Efficient K-Nearest Neighbor Graph Construction for Generic Similarity Measures",
+	 * 2011), without computing all n*n/2 differences.  Each tree starts with k random
+	 * neighbours; then, in each round, the neighbours of a tree (and the trees that have it
+	 * as a neighbour) are compared with one another, on the principle that a neighbour of a
+	 * neighbour is likely to be a neighbour.  Only pairs in which at least one member joined
+	 * a list in the last round are compared, and at most NN_DESCENT_SAMPLE of each kind per
+	 * tree.  Rounds stop when fewer than NN_DESCENT_DELTA * n * k list entries change, or
+	 * after NN_DESCENT_ROUNDS rounds.
+	 */
+	private boolean computeNeighborDM(NeighborDiffMatrix neighborMatrix) {
+		int numberOfTrees = getNumberOfTrees();
+		int k = Math.min(neighborMatrix.getNeighborsPerItem(), numberOfTrees - 1);
+		neighborMatrix.markAllUncomputed();
+		java.util.Random rng = new java.util.Random();
+		MesquiteNumber result = new MesquiteNumber();
+		long numberOfDistancesCalculated = 0;
+		ProgressIndicator progressMeter = new ProgressIndicator(project, "Finding Nearest Trees", NN_DESCENT_ROUNDS + 1, true);
+		progressMeter.start();
+
+		boolean sawLengthlessTree = false;
+		for (int i = 0; i < numberOfTrees; ++i) { // random starting neighbours
+			Tree tree1 = treeSourceTask.getTree(taxa, i);
+			if (isLengthlessTree(tree1)) {
+				sawLengthlessTree = true;
+			}
+			for (int t = 0; t < k; ++t) {
+				int j = rng.nextInt(numberOfTrees);
+				if (j != i) {
+					neighborMatrix.offerPair(i, j, computeTreeDifference(tree1, j, result));
+					numberOfDistancesCalculated++;
+				}
+			}
+			if (progressMeter.isAborted()) {
+				progressMeter.goAway();
+				return false;// Calculation aborted
+			}
+		}
+
+		int sample = Math.min(NN_DESCENT_SAMPLE, k);
+		for (int round = 0; round < NN_DESCENT_ROUNDS; ++round) {
+			// for each tree, up to sample neighbours new since the last round and all the old ones,
+			// then a random sample of the trees that have it as a new or old neighbour
+			int[][] newCandidates = new int[numberOfTrees][2 * sample];
+			int[][] oldCandidates = new int[numberOfTrees][k + sample];
+			int[] newCount = new int[numberOfTrees];
+			int[] oldCount = new int[numberOfTrees];
+			for (int i = 0; i < numberOfTrees; ++i) {
+				for (int e = 0; e < neighborMatrix.getNeighborCount(i); ++e) {
+					if (!neighborMatrix.isNew(i, e)) {
+						oldCandidates[i][oldCount[i]++] = neighborMatrix.getNeighbor(i, e);
+					} else if (newCount[i] < sample) {
+						neighborMatrix.takeNewFlag(i, e);
+						newCandidates[i][newCount[i]++] = neighborMatrix.getNeighbor(i, e);
+					}
+				}
+			}
+			int[] forwardNewCount = newCount.clone();
+			int[] forwardOldCount = oldCount.clone();
+			int[] newSeen = new int[numberOfTrees];
+			int[] oldSeen = new int[numberOfTrees];
+			for (int i = 0; i < numberOfTrees; ++i) {
+				for (int a = 0; a < forwardNewCount[i]; ++a) {
+					int j = newCandidates[i][a];
+					addSampled(newCandidates[j], newCount, newSeen, j, forwardNewCount[j], i, rng);
+				}
+				for (int a = 0; a < forwardOldCount[i]; ++a) {
+					int j = oldCandidates[i][a];
+					addSampled(oldCandidates[j], oldCount, oldSeen, j, forwardOldCount[j], i, rng);
+				}
+			}
+			int updates = 0;
+			for (int i = 0; i < numberOfTrees; ++i) {
+				int[] news = newCandidates[i];
+				int[] olds = oldCandidates[i];
+				for (int a = 0; a < newCount[i]; ++a) {
+					int u = news[a];
+					Tree treeU = treeSourceTask.getTree(taxa, u);
+					for (int b = a + 1; b < newCount[i]; ++b) {
+						if (news[b] != u) {
+							updates += neighborMatrix.offerPair(u, news[b], computeTreeDifference(treeU, news[b], result));
+							numberOfDistancesCalculated++;
+						}
+					}
+					for (int b = 0; b < oldCount[i]; ++b) {
+						if (olds[b] != u) {
+							updates += neighborMatrix.offerPair(u, olds[b], computeTreeDifference(treeU, olds[b], result));
+							numberOfDistancesCalculated++;
+						}
+					}
+				}
+				if (progressMeter.isAborted()) {
+					progressMeter.goAway();
+					return false;// Calculation aborted
+				}
+			}
+			progressMeter.setCurrentAndText(round + 1, "Round " + (round + 1) + ": " + updates + " neighbours improved; " + numberOfDistancesCalculated + " differences computed");
+			if (updates < NN_DESCENT_DELTA * numberOfTrees * k) {
+				break;
+			}
+		}
+		System.out.println("Found the " + k + " nearest neighbours of " + numberOfTrees + " trees from " + numberOfDistancesCalculated + " differences (of " + ((long) numberOfTrees * (numberOfTrees - 1) / 2) + ")");
+		if (sawLengthlessTree) {
+			warnLengthlessTrees();
+		}
+		if (embeddingDisplay!= null)
+			embeddingDisplay.repaint();
+
+		progressMeter.goAway();
+		differencesReady();
+		return true;// Calculation completed
+	}//computeNeighborDM
+
+	/**
+	 * Adds value to the end of list, past its first fixed entries, keeping a uniform random
+	 * sample (reservoir sampling) of the values offered that fits in the list; counts[item] is
+	 * the number of entries in the list, and seen[item] the number of values offered.
+	 */
+	private static void addSampled(int[] list, int[] counts, int[] seen, int item, int fixed, int value, java.util.Random rng) {
+		int offered = seen[item]++;
+		if (counts[item] < list.length) {
+			list[counts[item]++] = value;
+		} else {
+			int slot = rng.nextInt(offered + 1);
+			if (slot < list.length - fixed) {
+				list[fixed + slot] = value;
+			}
+		}
+	}
+
+	/**
+	 * Starts computing the difference matrix in the background instead of all at once.
+	 * Every difference is flagged as not yet computed (MDS skips those), and a
+	 * DifferenceWorker fills in the columns of the sampled points first, then the rest, so
+	 * that the embedding can start at once and sharpen as the matrix fills in.
+	 * If progressive, the worker instead adds the trees to the embedding one at a time in
+	 * random order, each once its differences from those already added are known.
+	 */
+	private boolean computeLazyDM(boolean progressive) {
+		itemDiffMatrix.markAllUncomputed();
+		differenceWorker = new DifferenceWorker(this, itemDiffMatrix, progressive);
+		if (progressive) {
+			beginProgressiveEmbedding();
+		} else if (itemDiffMatrix.getSamplingByPoint()) {
+			differenceWorker.prioritize(getSampleSet());
+		}
+		differenceWorker.start();
+		if (embeddingDisplay!= null)
+			embeddingDisplay.repaint();
+		embeddingInputsChanged();
+		return true;
+	}
+
+	/**
+	 * Stops the DifferenceWorker, if there is one, and waits for it to finish the difference
+	 * it is computing, so that it doesn't write into a matrix that is being reset or resized.
+	 */
+	private void stopDifferenceWorker() {
+		if (differenceWorker != null) {
+			differenceWorker.halt();
+			if (Thread.currentThread() != differenceWorker) {
+				try {
+					differenceWorker.join();
+				} catch (InterruptedException e) {
+				}
+			}
+			if (differenceWorker.isProgressive()) {
+				endProgressiveEmbedding();
+			}
+			differenceWorker = null;
+		}
+	}
+
+	/** Computes the difference between tree1 and tree j, for the DifferenceWorker or for trees placed into the embedding. */
+	float computeTreeDifference(Tree tree1, int j, MesquiteNumber result) {
+		synchronized (treeTaskLock) {
+			Tree tree2 = treeSourceTask.getTree(taxa, j);
+			treeDifferenceTask.calculateNumber(tree1, tree2, result, null);
+			return (float) result.getDoubleValue();
+		}
+	}
+
+	/** Returns tree i from the tree source, for the DifferenceWorker */
+	Tree getTree(int i) {
+		synchronized (treeTaskLock) {
+			return treeSourceTask.getTree(taxa, i);
+		}
+	}
+
+	/**
+	 * Called by a DifferenceWorker, on its own thread and before it has been halted, when the
+	 * prioritized columns or the whole matrix are done.  The matrix is brought up to date here;
+	 * the embedding and its widgets are told on the event thread.
+	 */
+	void differencesComputed(DifferenceWorker worker, final boolean all, final boolean sawLengthlessTree) {
+		if (all) {
+			itemDiffMatrix.contentsChanged();
+		}
+		if (all && worker.isProgressive()) {
+			endProgressiveEmbedding();
+		}
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				if (all) {
+					System.out.println("All differences among " + getNumberOfTrees() + " trees have been computed.");
+					if (sawLengthlessTree) {
+						warnLengthlessTrees();
+					}
+				}
+				embeddingInputsChanged();
+			}
+		});
+	}
+
+	/** When differences are computed on demand, the newly sampled points' columns are computed next. */
+	protected void sampleChanged() {
+		super.sampleChanged();
+		DifferenceWorker worker = differenceWorker;
+		if (worker != null && itemDiffMatrix.getSamplingByPoint()) {
+			worker.prioritize(getSampleSet());
+		}
+	}
+
+	public void haltThreads() {
+		stopDifferenceWorker();
+		super.haltThreads();
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		stopDifferenceWorker(); // its matrix is about to be resized under it
+		super.resetNumberOfItems(newNumberOfItems);
+	}
+
+	/**
+	 * Returns the index of the first c in text at or after from that is neither in a quoted
+	 * label ('...', in which a doubled quote stands for a quote) nor in a [comment], which may
+	 * be nested; -1 if there is none.
+	 */
+	private static int indexOfUnquoted(String text, char c, int from) {
+		boolean quoted = false;
+		int commentDepth = 0;
+		for (int i = from; i < text.length(); ++i) {
+			char here = text.charAt(i);
+			if (quoted) {
+				if (here == '\'') {
+					quoted = false; // a doubled quote ends the label and opens it again at once
+				}
+			} else if (commentDepth > 0) {
+				if (here == '[') {
+					++commentDepth;
+				} else if (here == ']') {
+					--commentDepth;
+				}
+			} else if (here == '\'') {
+				quoted = true;
+			} else if (here == '[') {
+				commentDepth = 1;
+			} else if (here == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads the trees given to the placeTrees command: Newick descriptions, each ending in a
+	 * semicolon, or NEXUS TREE statements (TREE name = description;), whose names are kept.
+	 * Comments between trees are skipped; a description that can't be read is reported and left out.
+	 */
+	private Tree[] readPlacedTrees(String descriptions) {
+		java.util.ArrayList trees = new java.util.ArrayList();
+		int start = 0;
+		while (start < descriptions.length()) {
+			int end = indexOfUnquoted(descriptions, ';', start);
+			if (end < 0) {
+				end = descriptions.length();
+			}
+			String description = descriptions.substring(start, end).trim();
+			start = end + 1;
+			while (description.startsWith("[")) { // a comment between trees
+				int close = indexOfUnquoted(description, ']', 1); // (searching inside the comment, a nested one is skipped)
+				description = (close < 0) ? "" : description.substring(close + 1).trim();
+			}
+			if (description.length() > 0) {
+				String name = null;
+				int equals = indexOfUnquoted(description, '=', 0);
+				String lowerCase = description.toLowerCase();
+				int keywordLength = lowerCase.startsWith("tree") ? 4 : (lowerCase.startsWith("utree") ? 5 : 0);
+				if (equals > keywordLength && keywordLength > 0
+						&& (Character.isWhitespace(description.charAt(keywordLength)) || description.charAt(keywordLength) == '*')) {
+					// a NEXUS TREE statement; a * before the name marks the default tree
+					name = description.substring(keywordLength, equals).trim();
+					if (name.startsWith("*")) {
+						name = name.substring(1).trim();
+					}
+					if (name.length() > 1 && name.startsWith("'") && name.endsWith("'")) {
+						name = name.substring(1, name.length() - 1).replace("''", "'");
+					}
+					description = description.substring(equals + 1).trim();
+				}
+				MesquiteTree tree = new MesquiteTree(taxa);
+				if (tree.readTree(description + ";")) {
+					if (!StringUtil.blank(name)) {
+						tree.setName(name);
+					}
+					trees.add(tree); // those left unnamed are named by placeTrees
+				} else {
+					System.out.println("Could not read the tree description " + description);
+				}
+			}
+		}
+		return (Tree[]) trees.toArray(new Tree[trees.size()]);
+	}
+
+	/**
+	 * Places trees that are not part of the tree set (an ML tree, a published tree, a bootstrap
+	 * replicate) into the current embedding, without moving the trees that are.  Each tree's
+	 * differences from all the trees of the set (or only from the landmarks, with Landmark
+	 * MDS) are computed, and it is put where its own stress terms are least, which costs
+	 * O(n) differences per tree.
+	 *
+	 * @param trees  the trees to place; they must be of the same taxa as the tree set
+	 * @return       the location of each tree in embedding coordinates (null for a tree that couldn't be placed)
+	 */
+	public float[][] placeTrees(Tree[] trees) {
+		int n = getNumberOfTrees();
+		LandmarkDiffMatrix landmarkMatrix = (itemDiffMatrix instanceof LandmarkDiffMatrix) ? (LandmarkDiffMatrix) itemDiffMatrix : null;
+		MesquiteNumber result = new MesquiteNumber();
+		float[][] locations = new float[trees.length][];
+		for (int t = 0; t < trees.length; ++t) {
+			float[] diffs = new float[n];
+			java.util.Arrays.fill(diffs, -1);
+			if (landmarkMatrix != null) {
+				for (int a = 0; a < landmarkMatrix.getNumberOfLandmarks(); ++a) {
+					int j = landmarkMatrix.getLandmark(a);
+					diffs[j] = computeTreeDifference(trees[t], j, result);
+				}
+			} else {
+				for (int j = 0; j < n; ++j) {
+					diffs[j] = computeTreeDifference(trees[t], j, result);
+				}
+			}
+			String name = trees[t].getName();
+			if (StringUtil.blank(name)) {
+				name = "Placed tree " + (t + 1);
+			}
+			locations[t] = placeItem(diffs, name);
+			if (locations[t] == null) {
+				System.out.println("Could not place " + name + ": no differences from the tree set could be computed");
+			}
+		}
+		return locations;
+	}
+
+	/**
+	 * Shows an overview of the tree set without computing any tree differences: each tree's
+	 * splits are read once and summed into a random projection (see SplitProjection), and
+	 * the projected vectors are reduced to the display's dimensions by principal components.
+	 * Costs O(t * n) for t trees of n taxa.  Splits are weighted by branch length if the
+	 * difference measure is a weighted Robinson-Foulds one.  The layout is where MDS
+	 * continues from when it is next run.
+	 *
+	 * @return  true if the layout was completed, false if it was cancelled by the user
+	 */
+	public boolean projectSplits() {
+		int numberOfTrees = getNumberOfTrees();
+		boolean weighted = treeDifferenceTask.getName().startsWith("Weighted Robinson-Foulds");
+		SplitProjection projection = new SplitProjection(weighted);
+		float[][] vectors = new float[numberOfTrees][];
+		long startTime = System.currentTimeMillis();
+		ProgressIndicator progressMeter = new ProgressIndicator(project, "Projecting Tree Splits", numberOfTrees, true);
+		progressMeter.start();
+		int onePercent = Math.max(1, numberOfTrees / 100);
+		for (int i = 0; i < numberOfTrees; ++i) {
+			synchronized (treeTaskLock) {
+				vectors[i] = projection.project(treeSourceTask.getTree(taxa, i));
+			}
+			if (i % onePercent == 0) {
+				progressMeter.setCurrentAndText(i, "Projected " + i + "/" + numberOfTrees + " trees");
+			}
+			if (progressMeter.isAborted()) {
+				progressMeter.goAway();
+				return false;// Calculation aborted
+			}
+		}
+		progressMeter.goAway();
+		showLayout(SplitProjection.principalComponents(vectors, dimensions));
+		System.out.println("Split projection overview of " + numberOfTrees + " trees" + (weighted ? " (splits weighted by branch length)" : "") + " in " + ((System.currentTimeMillis() - startTime) / 1000.0) + " seconds");
+		return true;
+	}
+
+	/** Returns true if the tree difference measure uses branch lengths and the tree is missing some */
+	boolean isLengthlessTree(Tree tree) {
+		return (treeDifferenceTask.getName().equals("Weighted Robinson-Foulds Tree Difference(Rooted)") ||
+				treeDifferenceTask.getName().equals("Weighted Robinson-Foulds Tree Difference(unrooted)")) &&
+				!((MesquiteTree)tree).allLengthsAssigned();
+	}
+
+	private void warnLengthlessTrees() {
+		System.out.println("Warning: At least one tree has an unassigned branch length.");
+		System.out.println("Unassigned branch lengths are treated as having unit length.");
+	}
 
 	private int getNumberOfTrees() {
 		return numberOfTrees;
@@ -473,12 +1098,12 @@ right panel will display the trees. */
 
 	protected void newSelection(java.util.BitSet selection, String selectionName, int selectionNumber) {
 		toFront();
-		int newTreeDisplayIndex = nextAvailableTreeDisplay++;
-		TreeDisplay newTreeDisplay = treeDisplayPool[newTreeDisplayIndex];
-		ConsensusTreeWindow newWindow = new ConsensusTreeWindow(newTreeDisplay, newTreeDisplayIndex, selectionName, selectionNumber, getOwnerModule(), selectionManager, this);
+		ConsensusTreeWindow newWindow = new ConsensusTreeWindow(selectionName, selectionNumber, getOwnerModule(), selectionManager, this);
+		treeDisplayPool.attach(newWindow);
+		int windowNumber = treeWindowsOpened++;
 		treeWindowMap.put( selectionName,  newWindow);
 		newWindow.setWindowSize(treeWindowWidth,treeWindowHeight);
-		newWindow.setLocation(treeWindowXLocation + 20*newTreeDisplayIndex,treeWindowYLocation + 20*newTreeDisplayIndex);
+		newWindow.setLocation(treeWindowXLocation + 20*windowNumber,treeWindowYLocation + 20*windowNumber);
 		if (	!MesquiteThread.isScripting()) {
 		//	if (treeWindowMap.size() == 1)
 				newWindow.setPopAsTile(true);
@@ -504,7 +1129,10 @@ right panel will display the trees. */
 
 			long lBeg = System.currentTimeMillis();
 
-			MesquiteTree tree = computeConsensusTree(selection);
+			MesquiteTree tree;
+			synchronized (treeTaskLock) { // a DifferenceWorker waits meanwhile
+				tree = computeConsensusTree(selection);
+			}
 
 			long lEnd = System.currentTimeMillis();
 
@@ -515,9 +1143,7 @@ right panel will display the trees. */
 				System.out.println("\n about to draw: " + tree.writeTree(MesquiteTree.BY_NAMES));
 				}*/
 
-			int treeWindowIndex = window.getTreeDisplayIndex();
-
-			treeDisplayPool[treeWindowIndex].setTree(tree);
+			window.getTreeDisplay().setTree(tree);
 			window.updateTreeDisplay();
 			if (!window.isVisible()) {
 				window.setVisible(true);
@@ -554,7 +1180,9 @@ right panel will display the trees. */
 			//int i = selectionNumber;
 		//	if (MesquiteInteger.isCombinable(i))
 		//		removeSelection(i);  
-			((ConsensusTreeWindow) treeWindowMap.get(selectionName)).dispose();
+			ConsensusTreeWindow window = (ConsensusTreeWindow) treeWindowMap.get(selectionName);
+			treeDisplayPool.release(window);
+			window.dispose();
 			treeWindowMap.remove(selectionName);
 		} else {
 			//System.out.println("Warning: tried to remove a non-existent tree window: " + selectionName);
@@ -592,6 +1220,199 @@ right panel will display the trees. */
 	public boolean okToDispose(Object obj, int queryUser) {return true;}
 }
 
+/**
+ * Fills in a difference matrix in the background, one column at a time.  Columns asked
+ * for by prioritize() (those of the sampled points) are computed first, then all the
+ * others in order.  Because the matrix is symmetric, computing column p computes every
+ * difference involving p.  A single worker is used, and it holds the window's lock on the
+ * tree source and the difference calculator while it uses them, so that they are never
+ * called from two threads at once.
+ * <p>
+ * In progressive mode the items are instead taken in a random order, and for each only
+ * the differences from the items before it are computed; the window is then told to add
+ * it to the embedding next to the nearest of those.
+ */
+class DifferenceWorker extends Thread {
+
+	private TreeSetViz window;
+	private SampledDiffMatrix matrix;
+	private int numberOfItems;
+	/** columns to compute before the others; a list of Integers */
+	private java.util.LinkedList priorityColumns = new java.util.LinkedList();
+	/** true for each column in which every difference has been computed */
+	private boolean[] columnDone;
+	/** columns below this have all been taken in order (though some may still be in progress) */
+	private int nextInOrder = 0;
+	private volatile boolean haltFlag = false;
+	private boolean sawLengthlessTree = false;
+	/** true if items are added to the embedding one at a time */
+	private boolean progressive;
+
+	public DifferenceWorker(TreeSetViz window, SampledDiffMatrix matrix, boolean progressive) {
+		super();
+		this.window = window;
+		this.matrix = matrix;
+		this.progressive = progressive;
+		numberOfItems = matrix.getNumberOfItems();
+		columnDone = new boolean[numberOfItems];
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	/** Puts the columns of the given items first in line, ahead of any prioritized before. */
+	public synchronized void prioritize(java.util.BitSet items) {
+		priorityColumns.clear();
+		for (int i = items.nextSetBit(0); i >= 0; i = items.nextSetBit(i + 1)) {
+			if (i < numberOfItems && !columnDone[i]) {
+				priorityColumns.add(Integer.valueOf(i));
+			}
+		}
+	}
+
+	public boolean isProgressive() {
+		return progressive;
+	}
+
+	/** Asks the worker to stop at the next difference.  It makes no calls to the window after that. */
+	public void halt() {
+		haltFlag = true;
+	}
+
+	/**
+	 * Tells the window that differences have been computed, unless this worker has been halted.
+	 * A halt that comes during the call is held up in stopDifferenceWorker until the call is over.
+	 */
+	private void reportDifferences(boolean all) {
+		if (!haltFlag) {
+			window.differencesComputed(this, all, all && sawLengthlessTree);
+		}
+	}
+
+	/** Returns the next column to compute, as -1 - column if it was prioritized; returns numberOfItems when all are done. */
+	private synchronized int nextColumn() {
+		while (!priorityColumns.isEmpty()) {
+			int column = ((Integer) priorityColumns.removeFirst()).intValue();
+			if (!columnDone[column]) {
+				return -1 - column;
+			}
+		}
+		while (nextInOrder < numberOfItems && columnDone[nextInOrder]) {
+			++nextInOrder;
+		}
+		return nextInOrder;
+	}
+
+	private synchronized boolean priorityColumnsRemain() {
+		return !priorityColumns.isEmpty();
+	}
+
+	public void run() {
+		MesquiteNumber result = new MesquiteNumber();
+		if (progressive) {
+			runProgressive(result);
+			return;
+		}
+		boolean doingPriorityColumns = false;
+		while (!haltFlag) {
+			int column = nextColumn();
+			boolean prioritized = column < 0;
+			if (prioritized) {
+				column = -1 - column;
+				doingPriorityColumns = true;
+			} else if (doingPriorityColumns) {
+				// the sampled points' columns are complete; let MDS judge convergence afresh
+				doingPriorityColumns = false;
+				reportDifferences(false);
+			}
+			if (column >= numberOfItems) {
+				reportDifferences(true);
+				return;
+			}
+			if (!computeColumn(column, result)) {
+				return; // halted
+			}
+			synchronized (this) {
+				columnDone[column] = true;
+			}
+			if (!prioritized && !doingPriorityColumns && !priorityColumnsRemain() && (column + 1) % (numberOfItems / 10 + 1) == 0) {
+				reportDifferences(false); // another tenth of the matrix; the embedding can improve
+			}
+		}
+	}
+
+	private void runProgressive(MesquiteNumber result) {
+		// A random order, so that the first trees added are spread over the whole tree space
+		int[] order = new int[numberOfItems];
+		for (int i = 0; i < numberOfItems; ++i) {
+			order[i] = i;
+		}
+		java.util.Random rng = new java.util.Random();
+		for (int i = numberOfItems - 1; i > 0; --i) {
+			int k = rng.nextInt(i + 1);
+			int temp = order[i];
+			order[i] = order[k];
+			order[k] = temp;
+		}
+		// p's differences are gathered here and put into the matrix only when p is added, so
+		// that MDS never moves a point by a partly computed row
+		float[] diffs = new float[numberOfItems];
+		for (int k = 0; k < numberOfItems; ++k) {
+			int p = order[k];
+			Tree treeP = window.getTree(p);
+			if (treeP == null) {
+				continue;
+			}
+			if (window.isLengthlessTree(treeP)) {
+				sawLengthlessTree = true;
+			}
+			int nearest = -1;
+			float nearestDiff = 0;
+			for (int m = 0; m < k; ++m) {
+				if (haltFlag) {
+					return;
+				}
+				int q = order[m];
+				float diff = matrix.getElement(p, q);
+				if (diff < 0) {
+					diff = window.computeTreeDifference(treeP, q, result);
+				}
+				diffs[m] = diff;
+				if (nearest < 0 || diff < nearestDiff) {
+					nearest = q;
+					nearestDiff = diff;
+				}
+			}
+			for (int m = 0; m < k; ++m) {
+				matrix.setElement(p, order[m], diffs[m]);
+			}
+			if (haltFlag) {
+				return;
+			}
+			window.progressivePointAdded(p, nearest, nearestDiff, k + 1);
+		}
+		reportDifferences(true);
+	}
+
+	/** Computes every missing difference involving item p.  Returns false if halted part way. */
+	private boolean computeColumn(int p, MesquiteNumber result) {
+		Tree treeP = window.getTree(p);
+		if (treeP == null) {
+			return true;
+		}
+		if (window.isLengthlessTree(treeP)) {
+			sawLengthlessTree = true;
+		}
+		for (int x = 0; x < numberOfItems; ++x) {
+			if (haltFlag) {
+				return false;
+			}
+			if (x != p && matrix.getElement(x, p) < 0) {
+				matrix.setElement(x, p, window.computeTreeDifference(treeP, x, result));
+			}
+		}
+		return true;
+	}
+}
+
 class ConsensusTreeWindow extends MesquiteWindow {
 	TreeDisplay consensusTreeDisplay;
 	int treeDisplayIndex;
@@ -606,15 +1427,14 @@ class ConsensusTreeWindow extends MesquiteWindow {
 	/*Code change here. A new parameter is added to	consensusTreeWindow that is used to simulate the
 	 *actions of pressing the "remove selection" button. The parameter is TreeSetViz's SelectionManager
 	 */
-	public ConsensusTreeWindow(TreeDisplay newTreeDisplay, int newTreeDisplayIndex, String selectionName, int selectionNumber, MesquiteModule ownerModule, SelectionManager selectionManager, TreeSetViz tsv) {
+	/* The window has no tree display until it is given one by TreeDisplayPool.attach */
+	public ConsensusTreeWindow(String selectionName, int selectionNumber, MesquiteModule ownerModule, SelectionManager selectionManager, TreeSetViz tsv) {
 		super(ownerModule,true);
 		this.tsv = tsv;
 		this.selectionName = selectionName;
 		this.selectionNumber = selectionNumber;
-		treeDisplayIndex = newTreeDisplayIndex;
-		consensusTreeDisplay = newTreeDisplay;
+		treeDisplayIndex = -1;
 		scrollArea = new ScrollPane();
-		scrollArea.add(consensusTreeDisplay);
 		scrollArea.getHAdjustable().setUnitIncrement(10);
 		scrollArea.getVAdjustable().setUnitIncrement(10);
 		treeNameLabel = new Label();
@@ -643,6 +1463,30 @@ class ConsensusTreeWindow extends MesquiteWindow {
 	public void testSimulation(){selectionManager.removeActiveSelection();}
 
 	public int getTreeDisplayIndex() { return treeDisplayIndex; }
+	/** Records that the window's display is now number index of the pool */
+	void setTreeDisplayIndex(int index) { treeDisplayIndex = index; }
+	public TreeDisplay getTreeDisplay() { return consensusTreeDisplay; }
+
+	/** Shows the tree in display, number index of the pool, instead of in the display it had (if any), which is taken out of the window */
+	void setTreeDisplay(TreeDisplay display, int index) {
+		TreeDisplay old = consensusTreeDisplay;
+		treeDisplayIndex = index;
+		consensusTreeDisplay = display;
+		if (display == null) {
+			if (old != null) {
+				scrollArea.remove(old);
+			}
+			return;
+		}
+		if (old != null) {
+			display.setTree(old.getTree());
+			scrollArea.remove(old);
+		}
+		scrollArea.add(display);
+		if (old != null) {
+			updateTreeDisplay();
+		}
+	}
 	public ScrollPane getScrollPane() { return scrollArea; };
 
 	public boolean anyTreesSelected(){
@@ -697,3 +1541,133 @@ class ConsensusTreeWindow extends MesquiteWindow {
 	}
 }
 
+
+/**
+ * The tree displays of the consensus tree windows.  Rather than making a display for every
+ * selection there might be when the main window opens, displays are made when windows need
+ * them, given back when the windows close, and let go when few are in use or memory is short.
+ * The tree drawing coordinator passes changes of tree form and drawing style only to the
+ * displays it made in its latest createTreeDisplays, so the pool is always (part of) one
+ * such set: to grow it, a new set is made and the windows' trees are moved onto it, and to
+ * shrink it, the displays in use are gathered at the front and the rest disposed of, so that
+ * nothing is made while windows close or memory is short.  The set doubles when full, so
+ * moves are rare.
+ */
+class TreeDisplayPool {
+	/** Number of displays made for the first window */
+	private static final int INITIAL_SIZE = 4;
+	/** Memory is short if less than this fraction of the most the heap may grow to is free */
+	private static final double LOW_MEMORY_FRACTION = 0.1;
+
+	private DrawTreeCoordinator coordinator;
+	private Taxa taxa;
+	private MesquiteWindow window;
+	/** the displays of the latest set */
+	private TreeDisplay[] displays = new TreeDisplay[0];
+	/** the window showing each display, or null if it is free */
+	private ConsensusTreeWindow[] users = new ConsensusTreeWindow[0];
+	private int numberInUse;
+
+	public TreeDisplayPool(DrawTreeCoordinator coordinator, Taxa taxa, MesquiteWindow window) {
+		this.coordinator = coordinator;
+		this.taxa = taxa;
+		this.window = window;
+	}
+
+	/** Gives w a free display, making more displays if none is free */
+	public void attach(ConsensusTreeWindow w) {
+		if (numberInUse == displays.length) {
+			resize(Math.max(INITIAL_SIZE, 2 * displays.length));
+		}
+		for (int i = 0; i < users.length; i++) {
+			if (users[i] == null) {
+				users[i] = w;
+				numberInUse++;
+				w.setTreeDisplay(displays[i], i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes back the display of w, which is closing.  If only a quarter of the displays are
+	 * left in use, or memory is short, the set is shrunk to fit those in use and the rest are
+	 * disposed of.
+	 */
+	public void release(ConsensusTreeWindow w) {
+		int i = w.getTreeDisplayIndex();
+		if (i < 0 || i >= users.length || users[i] != w) {
+			return;
+		}
+		users[i] = null;
+		numberInUse--;
+		displays[i].setTree(null);
+		w.setTreeDisplay(null, -1);
+		int size;
+		if (memoryIsLow()) {
+			size = numberInUse;
+		} else if (numberInUse * 4 <= displays.length) {
+			size = Math.max(INITIAL_SIZE, 2 * numberInUse);
+		} else {
+			return;
+		}
+		if (size < displays.length) {
+			shrink(size);
+		}
+	}
+
+	private static boolean memoryIsLow() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return runtime.maxMemory() - used < runtime.maxMemory() * LOW_MEMORY_FRACTION;
+	}
+
+	/**
+	 * Keeps only the first size displays, disposing of the rest: the displays in use (size
+	 * at least the number in use) are first moved, with their windows, to the front.
+	 */
+	private void shrink(int size) {
+		int next = 0;
+		for (int i = 0; i < users.length; i++) {
+			if (users[i] != null) {
+				if (i != next) { // swap display i, in use, with display next, which is free
+					TreeDisplay free = displays[next];
+					displays[next] = displays[i];
+					displays[i] = free;
+					users[next] = users[i];
+					users[i] = null;
+					users[next].setTreeDisplayIndex(next);
+				}
+				next++;
+			}
+		}
+		TreeDisplay[] kept = new TreeDisplay[size];
+		ConsensusTreeWindow[] keptUsers = new ConsensusTreeWindow[size];
+		System.arraycopy(displays, 0, kept, 0, size);
+		System.arraycopy(users, 0, keptUsers, 0, size);
+		for (int i = size; i < displays.length; i++) {
+			displays[i].dispose();
+		}
+		displays = kept;
+		users = keptUsers;
+	}
+
+	/** Replaces the set with a new one of size displays, moving the windows using displays onto the first of them */
+	private void resize(int size) {
+		TreeDisplay[] fresh = coordinator.createTreeDisplays(size, taxa, window);
+		ConsensusTreeWindow[] freshUsers = new ConsensusTreeWindow[fresh.length];
+		int next = 0;
+		for (int i = 0; i < users.length; i++) {
+			if (users[i] != null) {
+				freshUsers[next] = users[i];
+				users[i].setTreeDisplay(fresh[next], next);
+				next++;
+			}
+		}
+		for (int i = 0; i < displays.length; i++) {
+			displays[i].dispose();
+		}
+		displays = fresh;
+		users = freshUsers;
+	}
+}
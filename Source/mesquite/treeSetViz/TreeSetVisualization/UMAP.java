@@ -0,0 +1,518 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+/**
+ * An embedding in the manner of UMAP (McInnes, Healy and Melville, "UMAP: Uniform Manifold
+ * Approximation and Projection for Dimension Reduction", 2018).  The k nearest neighbours
+ * of each tree are given fuzzy membership weights, exp(-(d - rho) / sigma), where rho is
+ * the difference to the nearest neighbour and sigma is chosen by bisection so that the
+ * weights of a tree sum to log2(k); the two directions of each pair are combined by fuzzy
+ * union.  The layout is then optimized by stochastic gradient descent on the fuzzy set
+ * cross-entropy: each epoch, each edge of the graph is visited in proportion to its weight,
+ * pulling its ends together, and for each visit NEGATIVE_SAMPLE_RATE random trees are pushed
+ * away from its head.  One iteration is one epoch.
+ * <p>
+ * Nothing here is O(n^2): with a NeighborDiffMatrix, only the neighbour lists are ever
+ * stored, so the memory used is O(n * k).  The curve parameters A and B are those UMAP
+ * fits for its defaults, a minimum distance of 0.1 and a spread of 1.  The cost reported in
+ * place of stress is the cross-entropy summed over the edges of the graph.  Sampling in
+ * the SampledDiffMatrix is not used.
+ */
+class UMAP extends MDS {
+
+	/** number of nearest neighbours in the graph, unless set otherwise */
+	protected static final int DEFAULT_NEIGHBORS = 15;
+	/** number of trees pushed away for each visit to an edge */
+	protected static final int NEGATIVE_SAMPLE_RATE = 5;
+	/** parameters of the low-dimensional similarity 1 / (1 + A d^(2B)) */
+	protected static final float A = 1.577f, B = 0.8951f;
+	/** number of epochs for small and for large (over LARGE_SET trees) sets */
+	protected static final int SMALL_SET_EPOCHS = 500, LARGE_SET_EPOCHS = 200, LARGE_SET = 10000;
+	/** the starting layout is scaled to lie within this distance of the origin */
+	protected static final float INITIAL_EXTENT = 10;
+	/** each coordinate of a single gradient step is limited to this size */
+	protected static final float GRADIENT_CLIP = 4;
+	/** the bandwidth of a tree is never less than this fraction of the mean difference to its neighbours */
+	protected static final float MIN_SIGMA_SCALE = 1e-3f;
+	protected static final int BISECTION_STEPS = 64;
+	/** the cost is computed every this many epochs */
+	protected static final int COST_PERIOD = 10;
+
+	private int numberOfNeighbors = DEFAULT_NEIGHBORS;
+	/** the neighbours the graph was built from; null until found */
+	private NearestNeighbors neighbors;
+	/** the directed edges of the graph (each pair appears in both directions), with their weights; null until built */
+	private int[] heads, tails;
+	private float[] weights;
+	/** an edge is visited every epochsPerSample[e] epochs; its next visit and next negative samples are due at these epochs */
+	private float[] epochsPerSample, nextSampleEpoch, nextNegativeEpoch;
+	/** coordinates of point i at [i*n_dims] .. [i*n_dims + n_dims-1] */
+	private float[] positions;
+	private int numberOfEpochs;
+	/** epochs done since the schedule was last started over */
+	private int epoch;
+	/** generation of the differences the schedule was started for; -1 to start it over at the next restart */
+	private int scheduledGeneration = -1;
+	private java.util.Random randomSource = new java.util.Random();
+
+	public UMAP(SampledDiffMatrix targetDistances, int n_dims, float stepSize) {
+		super(targetDistances, n_dims, stepSize);
+		restart();
+	}
+
+	public synchronized void resetNumberOfItems(int newNumberOfItems) {
+		super.resetNumberOfItems(newNumberOfItems);
+		heads = null;
+		scheduledGeneration = -1;
+		restart();
+	}
+
+	/** Randomizes the embedding, and starts the schedule over at the next restart. */
+	public synchronized void randomize_nodes(java.util.Random random_source) {
+		super.randomize_nodes(random_source);
+		scheduledGeneration = -1;
+	}
+
+	/** Sets the number of neighbours in the graph.  The graph is built again before the next epoch. */
+	public synchronized void setNumberOfNeighbors(int k) {
+		if (k != numberOfNeighbors) {
+			numberOfNeighbors = k;
+			heads = null;
+		}
+	}
+
+	public synchronized int getNumberOfNeighbors() {
+		return numberOfNeighbors;
+	}
+
+	/**
+	 * Starts the optimization over if the differences have changed since it was started.  The
+	 * current layout is kept as the starting point, scaled to INITIAL_EXTENT; after a warm
+	 * start it is kept as it is, and the schedule begins halfway through.  Otherwise (the user
+	 * stopped and started UMAP, or changed the sample) the schedule carries on from the layout
+	 * as it is, or, if it had finished, refines it again from halfway through.
+	 */
+	public synchronized void restart() {
+		if (neighbors != null && neighbors.getGeneration() != targetDistances.getGeneration()) {
+			heads = null;
+		}
+		if (scheduledGeneration == targetDistances.getGeneration() && positions != null && positions.length == n_nodes * n_dims) {
+			warmStarted = false;
+			readPositions();
+			if (epoch >= numberOfEpochs) {
+				epoch = numberOfEpochs / 2;
+				resetSchedule();
+			}
+			return;
+		}
+		scheduledGeneration = targetDistances.getGeneration();
+		numberOfEpochs = (n_nodes > LARGE_SET) ? LARGE_SET_EPOCHS : SMALL_SET_EPOCHS;
+		if (positions == null || positions.length != n_nodes * n_dims) {
+			positions = new float[n_nodes * n_dims];
+		}
+		readPositions();
+		if (warmStarted) {
+			epoch = numberOfEpochs / 2;
+		} else {
+			epoch = 0;
+			float extent = 0;
+			for (int c = 0; c < n_dims; ++c) {
+				double sum = 0;
+				for (int i = 0; i < n_nodes; ++i) {
+					sum += positions[i * n_dims + c];
+				}
+				float mean = (float) (sum / n_nodes);
+				for (int i = 0; i < n_nodes; ++i) {
+					positions[i * n_dims + c] -= mean;
+					extent = Math.max(extent, Math.abs(positions[i * n_dims + c]));
+				}
+			}
+			if (extent > 0) {
+				for (int k = 0; k < positions.length; ++k) {
+					positions[k] *= INITIAL_EXTENT / extent;
+				}
+			}
+			writePositions();
+		}
+		warmStarted = false;
+		resetSchedule();
+	}
+
+	/** The scale of the layout has nothing to do with the differences, so a warm start keeps it as it is. */
+	public synchronized float warmStart() {
+		warmStarted = true;
+		return 1;
+	}
+
+	/** UMAP follows its own learning rate schedule; the step size is not tuned. */
+	public boolean getAdaptiveStepSize() {
+		return false;
+	}
+
+	/** Converged once all epochs are done */
+	public synchronized boolean hasConverged() {
+		return epoch >= numberOfEpochs;
+	}
+
+	private void readPositions() {
+		float[] point = new float[n_dims];
+		for (int i = 0; i < n_nodes; ++i) {
+			nodes[i].copyInto(point);
+			System.arraycopy(point, 0, positions, i * n_dims, n_dims);
+		}
+	}
+
+	private void writePositions() {
+		for (int i = 0; i < n_nodes; ++i) {
+			for (int c = 0; c < n_dims; ++c) {
+				nodes[i].setComponent(c, positions[i * n_dims + c]);
+			}
+		}
+	}
+
+	/** Sets when each edge is first due, relative to the current epoch */
+	private void resetSchedule() {
+		if (heads == null) {
+			return;
+		}
+		for (int e = 0; e < heads.length; ++e) {
+			nextSampleEpoch[e] = epoch + epochsPerSample[e];
+			nextNegativeEpoch[e] = epoch + epochsPerSample[e] / NEGATIVE_SAMPLE_RATE;
+		}
+	}
+
+	/** Builds the weighted graph from the nearest neighbours of each tree */
+	private void buildGraph() {
+		neighbors = NearestNeighbors.find(targetDistances, numberOfNeighbors);
+		double target = Math.log(Math.max(2, numberOfNeighbors)) / Math.log(2);
+		float[][] memberships = new float[n_nodes][];
+		for (int i = 0; i < n_nodes; ++i) {
+			memberships[i] = rowMemberships(neighbors.getDistances(i), target);
+		}
+		SparseAffinities graph = new SparseAffinities(neighbors, memberships, true);
+		float maxWeight = 0;
+		for (int e = 0; e < graph.getNumberOfEntries(); ++e) {
+			maxWeight = Math.max(maxWeight, graph.values[e]);
+		}
+		// edges too weak to be visited even once in the whole schedule are left out
+		int count = 0;
+		for (int e = 0; e < graph.getNumberOfEntries(); ++e) {
+			if (graph.values[e] >= maxWeight / numberOfEpochs) {
+				++count;
+			}
+		}
+		heads = new int[count];
+		tails = new int[count];
+		weights = new float[count];
+		epochsPerSample = new float[count];
+		nextSampleEpoch = new float[count];
+		nextNegativeEpoch = new float[count];
+		int k = 0;
+		for (int i = 0; i < n_nodes; ++i) {
+			for (int e = graph.rowStart[i]; e < graph.rowStart[i + 1]; ++e) {
+				if (graph.values[e] >= maxWeight / numberOfEpochs) {
+					heads[k] = i;
+					tails[k] = graph.columns[e];
+					weights[k] = graph.values[e];
+					epochsPerSample[k] = maxWeight / graph.values[e];
+					++k;
+				}
+			}
+		}
+		resetSchedule();
+	}
+
+	/** Returns the membership weights of one tree's neighbours, with sigma found by bisection. */
+	private float[] rowMemberships(float[] dists, double target) {
+		int m = dists.length;
+		float[] w = new float[m];
+		if (m == 0) {
+			return w;
+		}
+		float rho = 0;
+		double mean = 0;
+		for (int e = 0; e < m; ++e) {
+			if (rho == 0 && dists[e] > 0) {
+				rho = dists[e];
+			}
+			mean += dists[e];
+		}
+		mean /= m;
+		double low = 0, high = Double.POSITIVE_INFINITY, sigma = 1;
+		for (int step = 0; step < BISECTION_STEPS; ++step) {
+			double sum = 0;
+			for (int e = 0; e < m; ++e) {
+				sum += Math.exp(-Math.max(0, dists[e] - rho) / sigma);
+			}
+			if (Math.abs(sum - target) < 1e-5) {
+				break;
+			}
+			if (sum > target) {
+				high = sigma;
+				sigma = (low + high) / 2;
+			} else {
+				low = sigma;
+				sigma = (high == Double.POSITIVE_INFINITY) ? sigma * 2 : (low + high) / 2;
+			}
+		}
+		sigma = Math.max(sigma, MIN_SIGMA_SCALE * mean);
+		for (int e = 0; e < m; ++e) {
+			w[e] = (float) Math.exp(-Math.max(0, dists[e] - rho) / sigma);
+		}
+		return w;
+	}
+
+	/** Performs one epoch of the optimization */
+	public synchronized void doOneIteration() {
+		if (heads == null) {
+			buildGraph();
+		}
+		if (n_nodes < 2 || epoch >= numberOfEpochs) {
+			return;
+		}
+		float alpha = 1 - (float) epoch / numberOfEpochs;
+		for (int e = 0; e < heads.length; ++e) {
+			if (nextSampleEpoch[e] > epoch) {
+				continue;
+			}
+			int i = heads[e] * n_dims;
+			int j = tails[e] * n_dims;
+			float d2 = squaredDistance(i, j);
+			if (d2 > 0) { // attraction, moving both ends
+				float coefficient = (float) (-2 * A * B * Math.pow(d2, B - 1) / (A * Math.pow(d2, B) + 1));
+				for (int c = 0; c < n_dims; ++c) {
+					float g = clip(coefficient * (positions[i + c] - positions[j + c]));
+					positions[i + c] += g * alpha;
+					positions[j + c] -= g * alpha;
+				}
+			}
+			nextSampleEpoch[e] += epochsPerSample[e];
+
+			float epochsPerNegative = epochsPerSample[e] / NEGATIVE_SAMPLE_RATE;
+			int negatives = (int) ((epoch - nextNegativeEpoch[e]) / epochsPerNegative);
+			for (int s = 0; s < negatives; ++s) { // repulsion, moving the head only
+				int k = randomSource.nextInt(n_nodes) * n_dims;
+				if (k == i) {
+					continue;
+				}
+				d2 = squaredDistance(i, k);
+				float coefficient = (d2 > 0) ? (float) (2 * B / ((0.001f + d2) * (A * Math.pow(d2, B) + 1))) : 0;
+				for (int c = 0; c < n_dims; ++c) {
+					float g = (coefficient > 0) ? clip(coefficient * (positions[i + c] - positions[k + c])) : GRADIENT_CLIP;
+					positions[i + c] += g * alpha;
+				}
+			}
+			nextNegativeEpoch[e] += negatives * epochsPerNegative;
+		}
+		writePositions();
+		if (epoch % COST_PERIOD == 0 || epoch == numberOfEpochs - 1) {
+			stress = edgeCrossEntropy();
+		}
+		++epoch;
+	}
+
+	private final float squaredDistance(int i, int j) {
+		float d2 = 0;
+		for (int c = 0; c < n_dims; ++c) {
+			float delta = positions[i + c] - positions[j + c];
+			d2 += delta * delta;
+		}
+		return d2;
+	}
+
+	private static final float clip(float g) {
+		return Math.max(-GRADIENT_CLIP, Math.min(GRADIENT_CLIP, g));
+	}
+
+	/** Returns the fuzzy set cross-entropy between the graph and the layout, summed over the edges of the graph. */
+	private float edgeCrossEntropy() {
+		double sum = 0;
+		for (int e = 0; e < heads.length; ++e) {
+			double q = 1 / (1 + A * Math.pow(squaredDistance(heads[e] * n_dims, tails[e] * n_dims), B));
+			q = Math.max(1e-6, Math.min(1 - 1e-6, q));
+			double w = weights[e];
+			sum += w * Math.log(w / q);
+			if (w < 1) {
+				sum += (1 - w) * Math.log((1 - w) / (1 - q));
+			}
+		}
+		return (float) (sum / Math.max(1, heads.length));
+	}
+}
+
+
+/**
+ * A difference matrix that keeps only the k smallest differences of each item, for
+ * embeddings (UMAP, t-SNE) that need nothing else, so that the memory used is O(n * k)
+ * rather than O(n^2).  A difference that is set is offered to the lists of both items and
+ * kept by whichever it is among the k nearest for; other differences read as -1, not
+ * computed.  Each entry also carries a flag saying whether it is new since the flag was
+ * last cleared, for the NN-descent search that fills the lists (see TreeSetViz).
+ */
+class NeighborDiffMatrix extends SampledDiffMatrix {
+	private int n_items;
+	/** number of neighbours kept for each item */
+	private int k;
+	/** neighbors[i][0 .. count[i]-1] = the nearest items to i found so far, nearest first, with their differences */
+	private int[][] neighbors;
+	private float[][] distances;
+	private boolean[][] isNew;
+	private int[] count;
+
+	public NeighborDiffMatrix(int n_items, int k) {
+		super();
+		this.k = k;
+		resetNumberOfItems(n_items);
+	}
+
+	public void resetNumberOfItems(int newNumberOfItems) {
+		if (newNumberOfItems <= 0) { // There must be at least one item.
+			newNumberOfItems = 1;
+		}
+		n_items = newNumberOfItems;
+		neighbors = new int[n_items][k];
+		distances = new float[n_items][k];
+		isNew = new boolean[n_items][k];
+		count = new int[n_items];
+		resetSampling();
+		contentsChanged();
+	}
+
+	/** Returns the number of neighbours kept for each item */
+	public int getNeighborsPerItem() {
+		return k;
+	}
+
+	/** Forgets all differences */
+	public void markAllUncomputed() {
+		java.util.Arrays.fill(count, 0);
+		contentsChanged();
+	}
+
+	/** Offers the difference to the lists of both items. */
+	public void setElement(int i, int j, float x) {
+		offerPair(i, j, x);
+	}
+
+	/**
+	 * Offers the difference to the lists of both items.
+	 *
+	 * @return  the number of lists (0, 1 or 2) that took it
+	 */
+	public synchronized int offerPair(int i, int j, float x) {
+		if (i == j || x < 0) {
+			return 0;
+		}
+		return (offer(i, j, x) ? 1 : 0) + (offer(j, i, x) ? 1 : 0);
+	}
+
+	/** Puts j in the list of i, in order, if it is among the k nearest and not there already. */
+	private boolean offer(int i, int j, float x) {
+		int[] list = neighbors[i];
+		float[] dists = distances[i];
+		int n = count[i];
+		if (k == 0 || (n == k && x >= dists[n - 1])) {
+			return false;
+		}
+		for (int e = 0; e < n; ++e) {
+			if (list[e] == j) {
+				return false;
+			}
+		}
+		int slot = (n < k) ? n++ : n - 1;
+		while (slot > 0 && dists[slot - 1] > x) {
+			list[slot] = list[slot - 1];
+			dists[slot] = dists[slot - 1];
+			isNew[i][slot] = isNew[i][slot - 1];
+			--slot;
+		}
+		list[slot] = j;
+		dists[slot] = x;
+		isNew[i][slot] = true;
+		count[i] = n;
+		return true;
+	}
+
+	/** Returns one difference, or -1 if it isn't in either item's list. */
+	public synchronized float getElement(int i, int j) {
+		if (i == j) {
+			return 0;
+		}
+		for (int e = 0; e < count[i]; ++e) {
+			if (neighbors[i][e] == j) {
+				return distances[i][e];
+			}
+		}
+		for (int e = 0; e < count[j]; ++e) {
+			if (neighbors[j][e] == i) {
+				return distances[j][e];
+			}
+		}
+		return -1;
+	}
+
+	/** Returns the number of neighbours found so far for item i */
+	public synchronized int getNeighborCount(int i) {
+		return count[i];
+	}
+
+	/** Returns the e'th nearest neighbour found so far for item i */
+	public synchronized int getNeighbor(int i, int e) {
+		return neighbors[i][e];
+	}
+
+	/** Returns whether the e'th neighbour of i is new, and marks it as not new. */
+	public synchronized boolean takeNewFlag(int i, int e) {
+		boolean wasNew = isNew[i][e];
+		isNew[i][e] = false;
+		return wasNew;
+	}
+
+	/** Returns whether the e'th neighbour of i is new */
+	public synchronized boolean isNew(int i, int e) {
+		return isNew[i][e];
+	}
+
+	/** Returns copies of the nearest (up to) kWanted neighbours of each item */
+	public synchronized NearestNeighbors getNearestNeighbors(int kWanted) {
+		int[][] nearest = new int[n_items][];
+		float[][] nearestDistances = new float[n_items][];
+		for (int i = 0; i < n_items; ++i) {
+			int m = Math.min(kWanted, count[i]);
+			nearest[i] = new int[m];
+			nearestDistances[i] = new float[m];
+			System.arraycopy(neighbors[i], 0, nearest[i], 0, m);
+			System.arraycopy(distances[i], 0, nearestDistances[i], 0, m);
+		}
+		return new NearestNeighbors(nearest, nearestDistances, getGeneration());
+	}
+
+	public int getNumberOfItems() {
+		return n_items;
+	}
+}
@@ -0,0 +1,667 @@
+/*
+ * This software is part of the Tree Set Visualization module for Mesquite,
+ * written by Jeff Klingner, Fred Clarke, and Denise Edwards.
+ *
+ * Copyright (c) 2002 by the University of Texas
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose without fee is hereby granted under the GNU Lesser General 
+ * Public License, as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version, 
+ * provided that this entire notice is included in all copies of any 
+ * software which are or include a copy or modification of this software
+ * and in all copies of the supporting documentation for such software.
+ *
+ * THIS SOFTWARE IS BEING PROVIDED "AS IS", WITHOUT ANY EXPRESS OR IMPLIED
+ * WARRANTY.  IN PARTICULAR, NEITHER THE AUTHORS NOR THE UNIVERSITY OF TEXAS
+ * AT AUSTIN MAKE ANY REPRESENTATION OR WARRANTY OF ANY KIND CONCERNING THE 
+ * MERCHANTABILITY OF THIS SOFTWARE OR ITS FITNESS FOR ANY PARTICULAR PURPOSE.
+ * IN NO CASE WILL THESE PARTIES BE LIABLE FOR ANY SPECIAL, INCIDENTAL, 
+ * CONSEQUENTIAL, OR OTHER DAMAGES THAT MAY RESULT FROM USE OF THIS SOFTWARE.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package mesquite.treeSetViz.TreeSetVisualization;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A buffered byte stream for writing vector files.  Numbers are formatted straight into the
+ * buffer, so writing a point makes no Strings; the position is counted so that PDF can list
+ * where its objects start.
+ */
+class ExportStream {
+	private OutputStream out;
+	private byte[] buffer = new byte[1 << 16];
+	private int used;
+	/** bytes written before the buffer's contents */
+	private long flushed;
+	/** digits of a number, last first */
+	private byte[] digits = new byte[20];
+	private boolean closed = false;
+
+	public ExportStream(OutputStream out) {
+		this.out = out;
+	}
+
+	/** Returns the number of bytes written so far */
+	public long getPosition() {
+		return flushed + used;
+	}
+
+	public void write(char c) throws IOException {
+		if (used == buffer.length) {
+			flushBuffer();
+		}
+		buffer[used++] = (byte) c;
+	}
+
+	/** Writes s, which must be ASCII */
+	public void write(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	public void write(byte[] bytes) throws IOException {
+		for (int i = 0; i < bytes.length; i++) {
+			if (used == buffer.length) {
+				flushBuffer();
+			}
+			buffer[used++] = bytes[i];
+		}
+	}
+
+	public void writeInt(long value) throws IOException {
+		if (value < 0) {
+			write('-');
+			value = -value;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (count > 0) {
+			write((char) digits[--count]);
+		}
+	}
+
+	/** Writes value rounded to the given number of decimal places, without trailing zeros */
+	public void writeDecimal(double value, int places) throws IOException {
+		long scale = 1;
+		for (int i = 0; i < places; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(value * scale);
+		if (scaled < 0) {
+			write('-');
+			scaled = -scaled;
+		}
+		writeInt(scaled / scale);
+		long fraction = scaled % scale;
+		if (fraction != 0) {
+			write('.');
+			for (long unit = scale / 10; unit > 0 && fraction != 0; unit /= 10) {
+				write((char) ('0' + fraction / unit));
+				fraction %= unit;
+			}
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		out.write(buffer, 0, used);
+		flushed += used;
+		used = 0;
+	}
+
+	/** Writes what is buffered and closes the stream; does nothing if it is already closed */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+}
+
+/**
+ * Writes a picture of the embedding as a vector file.  The picture is a sequence of point
+ * icons (numbered as by PointIcons) and text labels, in screen coordinates (y down).  Each
+ * icon shape is defined once, at the start or end of the file, and every point refers to it;
+ * the colour is written only when it changes, so points drawn in one pass cost a few bytes
+ * each.  Subclasses write the particular format.
+ */
+abstract class VectorExporter {
+	/** Size of the digit and label text */
+	protected static final int FONT_SIZE = 10;
+	/** The icons that have shapes, as numbered by PointIcons */
+	protected static final int[] SHAPES = {PointIcons.DOT, PointIcons.SAMPLE, 0, 1, 2, 3, 4, 5};
+	/** The names by which the shapes are referred to, indexed by icon - PointIcons.SAMPLE (SAMPLE, then DOT, then 0 to 5) */
+	private static final String[] MARKER_NAMES = {"MS", "MD", "M0", "M1", "M2", "M3", "M4", "M5"};
+
+	protected ExportStream out;
+	protected int width;
+	protected int height;
+	protected int pointSize;
+	protected boolean frameDot;
+	/** the colour last set, as 0xrrggbb; -1 if none */
+	private int currentColor = -1;
+	/** the digits drawn for each icon without a shape, made once per icon number; null where not yet needed */
+	private String[] iconLabels = new String[0];
+
+	public VectorExporter(OutputStream out) {
+		this.out = new ExportStream(out);
+	}
+
+	/** Starts a picture width x height, filled with the background colour */
+	public void begin(int width, int height, Color background, int pointSize, boolean frameDot) throws IOException {
+		this.width = width;
+		this.height = height;
+		this.pointSize = pointSize;
+		this.frameDot = frameDot;
+		writeHeader(background.getRGB() & 0xffffff);
+	}
+
+	/** Draws icon at (x, y) in colour c */
+	public void point(int icon, int x, int y, Color c) throws IOException {
+		if (icon > 5) {
+			label(iconLabel(icon), x - 3, y + 4, c);
+			return;
+		}
+		useColor(c);
+		writeMarker(icon, x, y);
+	}
+
+	/** Draws text with its baseline starting at (x, y) in colour c */
+	public void label(String text, int x, int y, Color c) throws IOException {
+		useColor(c);
+		writeText(text, x, y);
+	}
+
+	/** Finishes the picture and closes the file */
+	public void end() throws IOException {
+		writeTrailer();
+		out.close();
+	}
+
+	/** Closes the file, whether or not the picture was finished; does nothing if end() has closed it */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private void useColor(Color c) throws IOException {
+		int rgb = c.getRGB() & 0xffffff;
+		if (rgb != currentColor) {
+			currentColor = rgb;
+			writeColor(rgb);
+		}
+	}
+
+	/** Returns the digits drawn for icon, which has no shape, making them only the first time */
+	private String iconLabel(int icon) {
+		if (icon >= iconLabels.length) {
+			String[] labels = new String[Math.max(icon + 1, 2 * iconLabels.length)];
+			System.arraycopy(iconLabels, 0, labels, 0, iconLabels.length);
+			iconLabels = labels;
+		}
+		if (iconLabels[icon] == null) {
+			iconLabels[icon] = Integer.toString(icon);
+		}
+		return iconLabels[icon];
+	}
+
+	/** Returns the name by which the shape of icon is referred to */
+	protected static String markerName(int icon) {
+		return MARKER_NAMES[icon - PointIcons.SAMPLE];
+	}
+
+	/** Returns the radius of the circle icon is drawn as, or 0 if it is drawn with lines */
+	protected float circleRadius(int icon) {
+		switch (icon) {
+		case PointIcons.DOT: return pointSize + 0.5f;
+		case PointIcons.SAMPLE: return pointSize + 2.5f;
+		case 2: return 3.5f;
+		default: return 0;
+		}
+	}
+
+	/** Returns true if icon is a filled shape rather than an outline */
+	protected static boolean isFilled(int icon) {
+		return icon == PointIcons.DOT;
+	}
+
+	/**
+	 * Returns the lines of icon as in PointIcons, relative to the point: each array is a path
+	 * x0, y0, x1, y1, ..., closed if it ends where it starts.
+	 */
+	protected static int[][] outline(int icon) {
+		switch (icon) {
+		case 0: return new int[][] {{-3, 0, 3, 0}, {0, 3, 0, -3}};
+		case 1: return new int[][] {{-3, -3, 3, 3}, {-3, 3, 3, -3}};
+		case 3: return new int[][] {{-3, -3, 3, -3, 3, 3, -3, 3, -3, -3}};
+		case 4: return new int[][] {{0, -5, 4, 0, 0, 5, -4, 0, 0, -5}};
+		case 5: return new int[][] {{0, -4, 3, 4, -3, 4, 0, -4}};
+		default: return new int[0][];
+		}
+	}
+
+	/** Writes the colour components of rgb, separated by spaces, as fractions with three places */
+	protected void writeComponents(int rgb) throws IOException {
+		out.writeDecimal(((rgb >> 16) & 0xff) / 255.0, 3);
+		out.write(' ');
+		out.writeDecimal(((rgb >> 8) & 0xff) / 255.0, 3);
+		out.write(' ');
+		out.writeDecimal((rgb & 0xff) / 255.0, 3);
+	}
+
+	protected abstract void writeHeader(int background) throws IOException;
+	protected abstract void writeColor(int rgb) throws IOException;
+	protected abstract void writeMarker(int icon, int x, int y) throws IOException;
+	protected abstract void writeText(String text, int x, int y) throws IOException;
+	protected abstract void writeTrailer() throws IOException;
+
+	/** Returns an exporter for the format named by the file's extension (.svg, .pdf, otherwise EPS) */
+	public static VectorExporter forFile(java.io.File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		OutputStream stream = new java.io.FileOutputStream(file);
+		if (name.endsWith(".svg")) {
+			return new SVGExporter(stream);
+		} else if (name.endsWith(".pdf")) {
+			return new PDFExporter(stream);
+		}
+		return new EPSExporter(stream);
+	}
+}
+
+/** Writes Encapsulated PostScript; each icon is a procedure taking the point's location */
+class EPSExporter extends VectorExporter {
+	public EPSExporter(OutputStream out) {
+		super(out);
+	}
+
+	protected void writeHeader(int background) throws IOException {
+		out.write("%!PS-Adobe-3.0 EPSF-3.0\n%%BoundingBox: 0 0 ");
+		out.writeInt(width);
+		out.write(' ');
+		out.writeInt(height);
+		out.write("\n%%EndComments\n");
+		for (int s = 0; s < SHAPES.length; s++) {
+			int icon = SHAPES[s];
+			out.write('/');
+			out.write(markerName(icon));
+			out.write(" {gsave translate newpath ");
+			writePath(icon);
+			if (isFilled(icon)) {
+				out.write(frameDot ? "gsave fill grestore 0 setgray stroke" : "fill");
+			} else {
+				out.write("stroke");
+			}
+			out.write(" grestore} bind def\n");
+		}
+		// text is drawn upright in the flipped coordinates
+		out.write("/L {gsave translate 1 -1 scale 0 0 moveto show grestore} bind def\n");
+		out.write("/C {setrgbcolor} bind def\n");
+		out.write("0 ");
+		out.writeInt(height);
+		out.write(" translate 1 -1 scale\n1 setlinewidth 1 setlinecap 1 setlinejoin\n");
+		out.write("/Helvetica findfont ");
+		out.writeInt(FONT_SIZE);
+		out.write(" scalefont setfont\n");
+		writeComponents(background);
+		out.write(" C 0 0 ");
+		out.writeInt(width);
+		out.write(' ');
+		out.writeInt(height);
+		out.write(" rectfill\n");
+	}
+
+	private void writePath(int icon) throws IOException {
+		float radius = circleRadius(icon);
+		if (radius > 0) {
+			out.write("0 0 ");
+			out.writeDecimal(radius, 1);
+			out.write(" 0 360 arc closepath ");
+			return;
+		}
+		int[][] lines = outline(icon);
+		for (int l = 0; l < lines.length; l++) {
+			for (int k = 0; k < lines[l].length; k += 2) {
+				out.writeInt(lines[l][k]);
+				out.write(' ');
+				out.writeInt(lines[l][k + 1]);
+				out.write(k == 0 ? " moveto " : " lineto ");
+			}
+		}
+	}
+
+	protected void writeColor(int rgb) throws IOException {
+		writeComponents(rgb);
+		out.write(" C\n");
+	}
+
+	protected void writeMarker(int icon, int x, int y) throws IOException {
+		out.writeInt(x);
+		out.write(' ');
+		out.writeInt(y);
+		out.write(' ');
+		out.write(markerName(icon));
+		out.write('\n');
+	}
+
+	protected void writeText(String text, int x, int y) throws IOException {
+		out.write('(');
+		writeEscaped(out, text);
+		out.write(") ");
+		out.writeInt(x);
+		out.write(' ');
+		out.writeInt(y);
+		out.write(" L\n");
+	}
+
+	/** Writes text for a PostScript or PDF string literal: parentheses and backslashes escaped, other than ASCII replaced */
+	static void writeEscaped(ExportStream out, String text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '(' || c == ')' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < 32 || c > 126) {
+				out.write('?');
+			} else {
+				out.write(c);
+			}
+		}
+	}
+
+	protected void writeTrailer() throws IOException {
+		out.write("showpage\n%%EOF\n");
+	}
+}
+
+/** Writes SVG; each icon is a symbol in the defs, drawn in the current colour by a use element */
+class SVGExporter extends VectorExporter {
+	/** true if a group setting the colour is open */
+	private boolean groupOpen;
+
+	public SVGExporter(OutputStream out) {
+		super(out);
+	}
+
+	protected void writeHeader(int background) throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"");
+		out.writeInt(width);
+		out.write("\" height=\"");
+		out.writeInt(height);
+		out.write("\" viewBox=\"0 0 ");
+		out.writeInt(width);
+		out.write(' ');
+		out.writeInt(height);
+		out.write("\" font-family=\"Helvetica, Arial, sans-serif\" font-size=\"");
+		out.writeInt(FONT_SIZE);
+		out.write("\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n<defs>\n");
+		for (int s = 0; s < SHAPES.length; s++) {
+			int icon = SHAPES[s];
+			float radius = circleRadius(icon);
+			if (radius > 0) {
+				out.write("<circle id=\"");
+				out.write(markerName(icon));
+				out.write("\" r=\"");
+				out.writeDecimal(radius, 1);
+			} else {
+				out.write("<path id=\"");
+				out.write(markerName(icon));
+				out.write("\" d=\"");
+				int[][] lines = outline(icon);
+				for (int l = 0; l < lines.length; l++) {
+					for (int k = 0; k < lines[l].length; k += 2) {
+						out.write(k == 0 ? 'M' : 'L');
+						out.writeInt(lines[l][k]);
+						out.write(' ');
+						out.writeInt(lines[l][k + 1]);
+					}
+				}
+			}
+			if (isFilled(icon)) {
+				out.write(frameDot ? "\" fill=\"currentColor\" stroke=\"#000\"/>\n" : "\" fill=\"currentColor\"/>\n");
+			} else {
+				out.write("\" fill=\"none\" stroke=\"currentColor\"/>\n");
+			}
+		}
+		out.write("</defs>\n<rect width=\"100%\" height=\"100%\" fill=\"");
+		writeHex(background);
+		out.write("\"/>\n");
+	}
+
+	private void writeHex(int rgb) throws IOException {
+		out.write('#');
+		for (int shift = 20; shift >= 0; shift -= 4) {
+			out.write(Character.forDigit((rgb >> shift) & 0xf, 16));
+		}
+	}
+
+	protected void writeColor(int rgb) throws IOException {
+		if (groupOpen) {
+			out.write("</g>\n");
+		}
+		out.write("<g color=\"");
+		writeHex(rgb);
+		out.write("\" fill=\"");
+		writeHex(rgb);
+		out.write("\">\n");
+		groupOpen = true;
+	}
+
+	protected void writeMarker(int icon, int x, int y) throws IOException {
+		out.write("<use xlink:href=\"#");
+		out.write(markerName(icon));
+		out.write("\" x=\"");
+		out.writeInt(x);
+		out.write("\" y=\"");
+		out.writeInt(y);
+		out.write("\"/>\n");
+	}
+
+	protected void writeText(String text, int x, int y) throws IOException {
+		out.write("<text x=\"");
+		out.writeInt(x);
+		out.write("\" y=\"");
+		out.writeInt(y);
+		out.write("\">");
+		StringBuffer escaped = new StringBuffer(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '<': escaped.append("&lt;"); break;
+			case '>': escaped.append("&gt;"); break;
+			case '&': escaped.append("&amp;"); break;
+			default:
+				if ((c >= 0x20 && c < 0xfffe) || c == '\t' || c == '\n' || c == '\r') {
+					escaped.append(c);
+				} // the other control characters, U+FFFE and U+FFFF are not allowed in XML 1.0, so are left out
+			}
+		}
+		out.write(escaped.toString().getBytes("UTF-8"));
+		out.write("</text>\n");
+	}
+
+	protected void writeTrailer() throws IOException {
+		if (groupOpen) {
+			out.write("</g>\n");
+		}
+		out.write("</svg>\n");
+	}
+}
+
+/**
+ * Writes a one-page PDF.  Each icon is a form XObject that takes the current colour; the page
+ * content is streamed out first, and the forms, font, page and cross-reference table are
+ * written after it, once it is known which forms were used and how long the content is.
+ */
+class PDFExporter extends VectorExporter {
+	/** Numbers of the objects written after the content */
+	private static final int CATALOG = 1, PAGES = 2, PAGE = 3, CONTENT = 4, LENGTH = 5, FONT = 6, FIRST_MARKER = 7;
+	/** where each object starts in the file, by object number */
+	private long[] offsets = new long[FIRST_MARKER + SHAPES.length];
+	/** where the content stream's data starts */
+	private long contentStart;
+
+	public PDFExporter(OutputStream out) {
+		super(out);
+	}
+
+	private void startObject(int number) throws IOException {
+		offsets[number] = out.getPosition();
+		out.writeInt(number);
+		out.write(" 0 obj\n");
+	}
+
+	protected void writeHeader(int background) throws IOException {
+		out.write("%PDF-1.4\n");
+		startObject(CONTENT);
+		out.write("<< /Length ");
+		out.writeInt(LENGTH);
+		out.write(" 0 R >>\nstream\n");
+		contentStart = out.getPosition();
+		writeComponents(background);
+		out.write(" rg 0 0 ");
+		out.writeInt(width);
+		out.write(' ');
+		out.writeInt(height);
+		out.write(" re f\n");
+		// flip to screen coordinates (y down)
+		out.write("1 0 0 -1 0 ");
+		out.writeInt(height);
+		out.write(" cm 1 w 1 J 1 j\n");
+	}
+
+	protected void writeColor(int rgb) throws IOException {
+		writeComponents(rgb);
+		out.write(" rg ");
+		writeComponents(rgb);
+		out.write(" RG\n");
+	}
+
+	protected void writeMarker(int icon, int x, int y) throws IOException {
+		out.write("q 1 0 0 1 ");
+		out.writeInt(x);
+		out.write(' ');
+		out.writeInt(y);
+		out.write(" cm /");
+		out.write(markerName(icon));
+		out.write(" Do Q\n");
+	}
+
+	protected void writeText(String text, int x, int y) throws IOException {
+		out.write("BT /F1 ");
+		out.writeInt(FONT_SIZE);
+		out.write(" Tf 1 0 0 -1 ");
+		out.writeInt(x);
+		out.write(' ');
+		out.writeInt(y);
+		out.write(" Tm (");
+		EPSExporter.writeEscaped(out, text);
+		out.write(") Tj ET\n");
+	}
+
+	protected void writeTrailer() throws IOException {
+		long contentLength = out.getPosition() - contentStart;
+		out.write("endstream\nendobj\n");
+		startObject(LENGTH);
+		out.writeInt(contentLength);
+		out.write("\nendobj\n");
+		startObject(FONT);
+		out.write("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>\nendobj\n");
+		int extent = pointSize + 6;
+		for (int s = 0; s < SHAPES.length; s++) {
+			int icon = SHAPES[s];
+			StringBuffer path = new StringBuffer();
+			float radius = circleRadius(icon);
+			if (radius > 0) {
+				appendCircle(path, radius);
+			} else {
+				int[][] lines = outline(icon);
+				for (int l = 0; l < lines.length; l++) {
+					for (int k = 0; k < lines[l].length; k += 2) {
+						path.append(lines[l][k]).append(' ').append(lines[l][k + 1]).append(k == 0 ? " m " : " l ");
+					}
+				}
+			}
+			if (isFilled(icon)) {
+				path.append(frameDot ? "q 0 G B Q" : "f");
+			} else {
+				path.append("S");
+			}
+			String content = path.toString();
+			startObject(FIRST_MARKER + s);
+			out.write("<< /Type /XObject /Subtype /Form /BBox [-");
+			out.writeInt(extent);
+			out.write(" -");
+			out.writeInt(extent);
+			out.write(' ');
+			out.writeInt(extent);
+			out.write(' ');
+			out.writeInt(extent);
+			out.write("] /Length ");
+			out.writeInt(content.length());
+			out.write(" >>\nstream\n");
+			out.write(content);
+			out.write("\nendstream\nendobj\n");
+		}
+		startObject(PAGE);
+		out.write("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 ");
+		out.writeInt(width);
+		out.write(' ');
+		out.writeInt(height);
+		out.write("] /Contents 4 0 R /Resources << /Font << /F1 6 0 R >> /XObject <<");
+		for (int s = 0; s < SHAPES.length; s++) {
+			out.write(" /");
+			out.write(markerName(SHAPES[s]));
+			out.write(' ');
+			out.writeInt(FIRST_MARKER + s);
+			out.write(" 0 R");
+		}
+		out.write(" >> >> >>\nendobj\n");
+		startObject(PAGES);
+		out.write("<< /Type /Pages /Kids [3 0 R] /Count 1 >>\nendobj\n");
+		startObject(CATALOG);
+		out.write("<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+		long xref = out.getPosition();
+		out.write("xref\n0 ");
+		out.writeInt(offsets.length);
+		out.write("\n0000000000 65535 f \n");
+		for (int i = 1; i < offsets.length; i++) {
+			String offset = Long.toString(offsets[i]);
+			for (int pad = offset.length(); pad < 10; pad++) {
+				out.write('0');
+			}
+			out.write(offset);
+			out.write(" 00000 n \n");
+		}
+		out.write("trailer\n<< /Size ");
+		out.writeInt(offsets.length);
+		out.write(" /Root 1 0 R >>\nstartxref\n");
+		out.writeInt(xref);
+		out.write("\n%%EOF\n");
+	}
+
+	/** Appends a circle of the radius about the origin, as four Bezier curves */
+	private static void appendCircle(StringBuffer path, float radius) {
+		float k = 0.5523f * radius;
+		path.append(radius).append(" 0 m ");
+		path.append(radius).append(' ').append(k).append(' ').append(k).append(' ').append(radius).append(" 0 ").append(radius).append(" c ");
+		path.append(-k).append(' ').append(radius).append(' ').append(-radius).append(' ').append(k).append(' ').append(-radius).append(" 0 c ");
+		path.append(-radius).append(' ').append(-k).append(' ').append(-k).append(' ').append(-radius).append(" 0 ").append(-radius).append(" c ");
+		path.append(k).append(' ').append(-radius).append(' ').append(radius).append(' ').append(-k).append(' ').append(radius).append(" 0 c h ");
+	}
+}